@@ -0,0 +1,8 @@
+﻿
+class MessageCounts {
+  //Property names and types
+  var start:Date;
+  var bucketMinutes:Number;
+  var counts:Array;
+
+}
\ No newline at end of file
@@ -0,0 +1,7 @@
+﻿
+class RegionCount {
+  //Property names and types
+  var region:String;
+  var count:Number;
+
+}
\ No newline at end of file
@@ -0,0 +1,7 @@
+﻿
+class SMSMessageDelta {
+  //Property names and types
+  var messages:Array;
+  var cursor:String;
+
+}
\ No newline at end of file
@@ -0,0 +1,8 @@
+﻿
+class SMSMessageSummary {
+  //Property names and types
+  var id:String;
+  var length:Number;
+  var arrivalDate:Date;
+
+}
\ No newline at end of file
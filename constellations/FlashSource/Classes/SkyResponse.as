@@ -0,0 +1,8 @@
+﻿
+class SkyResponse {
+  //Property names and types
+  var messages:Array;
+  var version:String;
+  var modified:Boolean;
+
+}
\ No newline at end of file
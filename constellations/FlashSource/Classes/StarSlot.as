@@ -0,0 +1,8 @@
+﻿
+class StarSlot {
+  //Property names and types
+  var constellation:Number;
+  var star:Number;
+  var message:SMSMessageSummary;
+
+}
\ No newline at end of file
@@ -0,0 +1,10 @@
+﻿
+class StarSlotDelta {
+  //Property names and types
+  var slots:Array;
+  var cursor:String;
+  var complete:Boolean;
+  var lastConstellation:Number;
+  var lastStar:Number;
+
+}
\ No newline at end of file
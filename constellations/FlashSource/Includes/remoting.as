@@ -1,2 +1,9 @@
 ﻿
-Object.registerClass( "SMSMessage" , SMSMessage );
\ No newline at end of file
+Object.registerClass( "SMSMessage" , SMSMessage );
+Object.registerClass( "SMSMessageDelta" , SMSMessageDelta );
+Object.registerClass( "StarSlot" , StarSlot );
+Object.registerClass( "StarSlotDelta" , StarSlotDelta );
+Object.registerClass( "SMSMessageSummary" , SMSMessageSummary );
+Object.registerClass( "SkyResponse" , SkyResponse );
+Object.registerClass( "MessageCounts" , MessageCounts );
+Object.registerClass( "RegionCount" , RegionCount );
\ No newline at end of file
@@ -10,11 +10,16 @@ var curMsgConstellation:Number = 0;
 var linesCreated:Array = new Array();
 var totalCreated:Number = 0;
 var lastCall:Date;
+var starSlotsCursor:String = null;
 var recomboGateway:String = new String("http://creta.cesar.org.br/recombo/gateway")
 var servidor = _root.servidor;
 if (servidor != undefined) {
 	recomboGateway = _level0.servidor + "/gateway";
 }
+var skyId:String = _root.sky;
+if (skyId == undefined) {
+	skyId = "default";
+}
 var maxWidth:Number = 800;
 var maxHeight:Number = 600;
 //End Global variables
@@ -51,7 +56,7 @@ function createSky(constellations:Array):Void{
 			}			
 		}
 	}
-	getAllMessages();
+	getStarSlots();
 }//End createSky
 
 /*
@@ -193,6 +198,9 @@ function showMessage(star:MovieClip):Void{
 	star.msgKepper = star._parent.createEmptyMovieClip("msgKepper"+starSky.getNextHighestDepth(), starSky.getNextHighestDepth());
 	star.msgKepper.attachMovie("ballon","ballon_mc",star.msgKepper.getNextHighestDepth());
 	star.msgKepper.ballon_mc.text_txt.selectable = false;
+	if (star.obj.message == undefined){
+		getMessageText(star);
+	}
 	star.msgKepper.ballon_mc.text_txt.text = star.obj.message;
 
 	//Sizing the ballon according to the message
@@ -219,6 +227,29 @@ function showMessage(star:MovieClip):Void{
 	}		
 }//End showMessage
 
+/*
+ * function getMessageText
+ * gets the text of the message assigned to the star and shows it if the
+ * star is still showing its message
+ */
+function getMessageText(star:MovieClip):Void{
+	var gatewayConnection = NetServices.createGatewayConnection();
+	var service = gatewayConnection.getService("Constellations", this);
+	service.findSMSMessageTexts(skyId, [star.obj.id]);
+	star.obj.message = "";
+
+	findSMSMessageTexts_Result = function (texts) {
+		if (texts[0] != null){
+			star.obj.message = texts[0];
+		}
+		if (star.msgKepper != undefined){
+			star.msgKepper.ballon_mc.text_txt.text = star.obj.message;
+			star.msgKepper.ballon_mc.fill_mc._height = star.msgKepper.ballon_mc.text_txt.textHeight + 20;
+			star.msgKepper.ballon_mc.fill_mc._width = star.msgKepper.ballon_mc.text_txt.textWidth + 10;
+		}
+	}
+}//End getMessageText
+
 /*
  * function hideConstellation
  * hides the constellation to which the star belong
@@ -241,7 +272,7 @@ function getAllMessages():Void{
 	var msgs:Array = new Array();
 	var gatewayConnection = NetServices.createGatewayConnection();
 	var service = gatewayConnection.getService("Constellations", this);
-	service.findAllSMSMessages();
+	service.findAllSMSMessages(skyId);
 
 	findAllSMSMessages_Result = function (obj) {
 		getNewDate();
@@ -252,6 +283,61 @@ function getAllMessages():Void{
 	}
 }
 
+/*
+ * function getStarSlots
+ * gets the stars assigned by the server, the whole sky on the first call
+ * and the stars changed since the previous call afterwards
+ */
+function getStarSlots():Void{
+	var gatewayConnection = NetServices.createGatewayConnection();
+	var service = gatewayConnection.getService("Constellations", this);
+	service.findStarSlots(skyId, starSlotsCursor);
+
+	findStarSlots_Result = function (delta) {
+		getNewDate();
+		showStarSlots(delta);
+	}
+}
+
+/*
+ * function showStarSlots
+ * lights the stars in the order the server assigned them, so that alpha
+ * follows the age of the messages, and continues assigning new messages
+ * after the last star assigned by the server
+ */
+function showStarSlots(delta:StarSlotDelta):Void{
+	//The whole sky was sent, turn off the stars not listed
+	if (delta.complete){
+		for (var n:Number=0; n < constellations.length; n++){
+			for (var m:Number = 0; m < constellations[n].stars.length; m++){
+				sky["mc_star_"+n+"_"+m]._visible = false;
+			}
+		}
+	}
+	for (var s:Number = 0; s < delta.slots.length; s++){
+		var slot:StarSlot = delta.slots[s];
+		var star:MovieClip = sky["mc_star_"+slot.constellation+"_"+slot.star];
+		if (slot.message == null){
+			//The message was deleted
+			star._visible = false;
+		} else {
+			//The text is recovered when the message is shown
+			star._visible = true;
+			star.obj.id = slot.message.id;
+			star.obj.message = undefined;
+			star.gotoAndPlay(2);
+
+			setStarSize(star, slot.message.length);
+			setStarAlpha(star);
+		}
+	}
+	if (delta.lastConstellation >= 0){
+		curMsgConstellation = delta.lastConstellation;
+		curMsgStar = delta.lastStar + 1;
+	}
+	starSlotsCursor = delta.cursor;
+}//End showStarSlots
+
 /*
  * function getMessagesByDate
  * gets all sent messages starting from a certain date
@@ -260,7 +346,7 @@ function getMessagesByDate(owner):Void{
 	var msgs:Array = new Array();
 	var gatewayConnection = NetServices.createGatewayConnection();
 	var service = gatewayConnection.getService("Constellations", owner);
-	service.findAllSMSMessagesFromArrivalDate(lastCall);
+	service.findAllSMSMessagesFromArrivalDate(skyId, lastCall);
 }
 
 /*
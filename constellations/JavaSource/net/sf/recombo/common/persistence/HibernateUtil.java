@@ -3,7 +3,10 @@ package net.sf.recombo.common.persistence;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -12,15 +15,19 @@ import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 import net.sf.hibernate.CallbackException;
+import net.sf.hibernate.FlushMode;
 import net.sf.hibernate.HibernateException;
 import net.sf.hibernate.Interceptor;
 import net.sf.hibernate.LockMode;
 import net.sf.hibernate.ObjectNotFoundException;
+import net.sf.hibernate.Query;
 import net.sf.hibernate.ReplicationMode;
+import net.sf.hibernate.ScrollableResults;
 import net.sf.hibernate.Session;
 import net.sf.hibernate.SessionFactory;
 import net.sf.hibernate.Transaction;
 import net.sf.hibernate.cfg.Configuration;
+import net.sf.hibernate.cfg.Environment;
 import net.sf.hibernate.metadata.ClassMetadata;
 import net.sf.hibernate.type.Type;
 import net.sf.recombo.common.SystemRuntimeException;
@@ -39,12 +46,24 @@ import net.sf.recombo.common.SystemRuntimeException;
  * any class to be extended so that methods of it's instances are wrapped with
  * appropriate begin and commit transaction invocations. The transaction
  * requirement can specified in an external xml configuration file.
+ * <p>
+ * Methods configured as read-only run in read-only mode: outside of a 
+ * transaction, queries and loads use a separate session that is never 
+ * flushed, is cleared after every query so that loaded objects are not 
+ * kept for dirty checking, and is closed when the outer-most read-only 
+ * method returns. Objects returned in read-only mode are detached.
  * 
  * @see net.sf.hibernate.Session
  * @see net.sf.hibernate.SessionFactory
  */
 public final class HibernateUtil implements MethodInterceptor, Interceptor {
     private static HibernateUtil instance;
+    // Batch size used when hibernate.jdbc.batch_size is not configured
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    // Operations of writeAll
+    private static final int SAVE = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
 	
 	// Private attributes
     
@@ -54,6 +73,10 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	private SessionFactory sessionFactory = null;
 	// Number of transactions in progress
 	private int transactionCount = 0;             
+	// Number of objects written between flushes by saveAll, updateAll and deleteAll
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	// Index of the dateLastUpdated property by AuditedPersistentObject class
+	private Map dateLastUpdatedIndexes = new HashMap();
 	
 	// Private Thread Local attributes
 	
@@ -63,6 +86,12 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	private ThreadLocal transaction = new ThreadLocal();
 	// Depth of the active database transaction
 	private ThreadLocal transactionDepth = new ThreadLocal(); 
+	// Listeners (List of TransactionListener) of the active transaction
+	private ThreadLocal transactionListeners = new ThreadLocal();
+	// Depth of the active read-only mode
+	private ThreadLocal readOnlyDepth = new ThreadLocal();
+	// Session used for queries in read-only mode
+	private ThreadLocal readOnlySession = new ThreadLocal();
 	
 	private HibernateUtil() {
 	}
@@ -106,6 +135,10 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 				Configuration cfg = new Configuration();
 				cfg = cfg.configure(urlConfig);
 				cfg.setInterceptor(this);
+				String size = cfg.getProperty(Environment.STATEMENT_BATCH_SIZE);
+				if (size != null && size.trim().length() > 0) {
+					batchSize = Math.max(1, Integer.parseInt(size.trim()));
+				}
 				sessionFactory = cfg.buildSessionFactory();
 			}
 			
@@ -168,6 +201,73 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 		}
 	}
 	
+	/**
+	 * Enters read-only mode for the current thread. Successive calls 
+	 * increment a stack counter, as beginTransaction does.
+	 */
+	public void beginReadOnly() {
+		Integer depth = (Integer) readOnlyDepth.get();
+		readOnlyDepth.set(new Integer(depth == null ? 0 : depth.intValue() + 1));
+	}
+	
+	/**
+	 * Leaves read-only mode, closing the read-only session on the 
+	 * outer-most call.
+	 * @throws DataPersistenceException If the close method of the
+	 * Hibernate session fails.
+	 */
+	public void endReadOnly() throws DataPersistenceException {
+		Integer depth = (Integer) readOnlyDepth.get();
+		if (depth == null) {
+			// not in read-only mode
+		} else if (depth.intValue() > 0) {
+			readOnlyDepth.set(new Integer(depth.intValue() - 1));
+		} else {
+			readOnlyDepth.set(null);
+			Session s = (Session) readOnlySession.get();
+			readOnlySession.set(null);
+			if (s != null) {
+				try {
+					s.close();
+				} catch (HibernateException e) {
+					throw new DataPersistenceException(e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Recovers the session used for queries: the read-only session in
+	 * read-only mode outside of a transaction, the session associated 
+	 * with the current thread otherwise.
+	 */
+	private Session querySession() throws DataPersistenceException {
+		if (readOnlyDepth.get() == null || transaction.get() != null) {
+			return currentSession();
+		}
+		Session s = (Session) readOnlySession.get();
+		if (s == null) {
+			try {
+				s = sessionFactory.openSession(this);
+				s.setFlushMode(FlushMode.NEVER);
+				readOnlySession.set(s);
+			} catch (HibernateException e) {
+				throw new DataPersistenceException(e);
+			}
+		}
+		return s;
+	}
+	
+	/**
+	 * Detaches the objects loaded by a query in read-only mode.
+	 * @param s Session returned by querySession
+	 */
+	private void afterQuery(Session s) {
+		if (s == readOnlySession.get()) {
+			s.clear();
+		}
+	}
+	
 	/**
 	 * Initiates a new database transaction and associates the
 	 * Hibernate Transaction instance with the current thread only on the 
@@ -223,14 +323,17 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 					// no begin transaction issued or rolled back
 					throw new DataPersistenceException("Assertion Failed: A transaction should be present but was not found.", null);
 				} else {
+					boolean committed = false;
 					try {
 						t.commit();
+						committed = true;
 					} catch (HibernateException e) {
 						throw new DataPersistenceException(e);
 					} finally {
 						transaction.set(null);
 						transactionDepth.set(null);
 						decrementTransactionCount();
+						fireAfterCompletion(committed);
 					}
 				}
 			} else {
@@ -266,6 +369,7 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 				} finally {
 					transaction.set(null);
 					decrementTransactionCount();
+					fireAfterCompletion(false);
 					closeSession();
 				}
 			}
@@ -274,6 +378,47 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 		}
 	}
 	
+	/**
+	 * Registers a listener to be notified when the active database
+	 * transaction of the current thread is committed or rolled back.
+	 * Listeners are discarded once notified.
+	 * 
+	 * @param listener Transaction listener
+	 * @throws DataPersistenceException If there is no active transaction.
+	 */
+	public void addTransactionListener(TransactionListener listener) 
+			throws DataPersistenceException {
+		if (transaction.get() == null) {
+			throw new DataPersistenceException("Assertion Failed: A transaction should be present but was not found.", null);
+		}
+		List listeners = (List) transactionListeners.get();
+		if (listeners == null) {
+			listeners = new ArrayList();
+			transactionListeners.set(listeners);
+		}
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Notifies and discards the listeners of the transaction that
+	 * has just completed. A failing listener does not prevent the
+	 * others from being notified.
+	 * @param committed True if the transaction was committed
+	 */
+	private void fireAfterCompletion(boolean committed) {
+		List listeners = (List) transactionListeners.get();
+		transactionListeners.set(null);
+		if (listeners != null) {
+			for (Iterator i = listeners.iterator(); i.hasNext();) {
+				try {
+					((TransactionListener) i.next()).afterCompletion(committed);
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.err);
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Loads an instance of a class from the database given
 	 * it's class and identifier. 
@@ -289,7 +434,10 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	public Object load(Class classObj, Serializable id)
             throws DataPersistenceException, PersistentObjectNotFoundException {
 		try {
-			return currentSession().load(classObj, id);
+			Session s = querySession();
+			Object object = s.load(classObj, id);
+			afterQuery(s);
+			return object;
 		} catch (ObjectNotFoundException e) {
 			throw new PersistentObjectNotFoundException(e); 
 		} catch (HibernateException e) {
@@ -365,6 +513,78 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 		}
 	}
 	
+	/**
+	 * Save many transient objects to the database. The objects are flushed
+	 * a batch at a time, so that their INSERTs are sent with JDBC statement
+	 * batching, and evicted from the session once flushed, so that the
+	 * session does not grow with the number of objects. Changes to other
+	 * objects of the session are flushed as well.
+	 * @param objects Transient PersistentObjects
+	 * @throws DataPersistenceException If a HibernateException is thrown
+	 */
+	public void saveAll(Collection objects) throws DataPersistenceException {
+		writeAll(objects, SAVE);
+	}
+	
+	/**
+	 * Write the changes made to many persistent objects of the session, a
+	 * batch at a time, and evict them once flushed, as saveAll does.
+	 * @param objects PersistentObjects loaded in the current session
+	 * @throws DataPersistenceException If a HibernateException is thrown
+	 */
+	public void updateAll(Collection objects) throws DataPersistenceException {
+		writeAll(objects, UPDATE);
+	}
+	
+	/**
+	 * Delete many persistent objects from the database, a batch at a time,
+	 * as saveAll does.
+	 * @param objects PersistentObjects
+	 * @throws DataPersistenceException If a HibernateException is thrown
+	 */
+	public void deleteAll(Collection objects) throws DataPersistenceException {
+		writeAll(objects, DELETE);
+	}
+	
+	/**
+	 * Number of objects written between flushes by saveAll and deleteAll,
+	 * the hibernate.jdbc.batch_size property if it is configured.
+	 * @return Batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	private void writeAll(Collection objects, int operation) throws DataPersistenceException {
+		Session s = currentSession();
+		List batch = new ArrayList(Math.min(batchSize, objects.size()));
+		try {
+			for (Iterator i = objects.iterator(); i.hasNext();) {
+				PersistentObject object = (PersistentObject) i.next();
+				if (operation == DELETE) {
+					s.delete(object);
+				} else if (operation == UPDATE) {
+					s.update(object);
+				} else {
+					s.save(object);
+				}
+				batch.add(object);
+				if (batch.size() == batchSize || !i.hasNext()) {
+					s.flush();
+					if (operation != DELETE) {
+						// deleted objects are no longer in the session
+						for (int j = 0; j < batch.size(); j++) {
+							s.evict(batch.get(j));
+						}
+					}
+					batch.clear();
+				}
+			}
+		} catch (HibernateException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+	
 	/**
 	 * Update a persistent object with the identifier of the given transient object.
 	 * If that persistent object is already in the session an exception is thrown. 
@@ -423,7 +643,7 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	 */
 	public void evict(PersistentObject object) throws DataPersistenceException {
 		try {
-			currentSession().evict(object);
+			querySession().evict(object);
 		} catch (HibernateException e) {
 			throw new DataPersistenceException(e);
 		}
@@ -437,7 +657,10 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	 */
 	public List find(String query) throws DataPersistenceException {
 		try {
-			return currentSession().find(query);
+			Session s = querySession();
+			List result = s.find(query);
+			afterQuery(s);
+			return result;
 		} catch (HibernateException e) {
 			throw new DataPersistenceException(e);
 		}
@@ -455,7 +678,10 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	public List find(String query, Object value, Type type)
             throws DataPersistenceException {
 		try {
-			return currentSession().find(query, value, type);
+			Session s = querySession();
+			List result = s.find(query, value, type);
+			afterQuery(s);
+			return result;
 		} catch (HibernateException e) {
 			throw new DataPersistenceException(e);
 		}
@@ -473,7 +699,133 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	public List find(String query, Object[] values, Type[] types)
             throws DataPersistenceException {
 		try {
-			return currentSession().find(query, values, types);
+			Session s = querySession();
+			List result = s.find(query, values, types);
+			afterQuery(s);
+			return result;
+		} catch (HibernateException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+	
+	/**
+	 * Executes the specified HQL and returns a List of at most
+	 * maxResults results. The query allows bind parameters. 
+	 * @param query HQL query string
+	 * @param values Values to be bound to parameters 
+	 * @param types The corresponding types of the values 
+	 * @param maxResults Maximum number of results
+	 * @return A List
+	 * @throws DataPersistenceException Wraps HibernateException
+	 */
+	public List find(String query, Object[] values, Type[] types, int maxResults)
+            throws DataPersistenceException {
+		return find(query, values, types, maxResults, null);
+	}
+	
+	/**
+	 * Executes the specified HQL and returns a List of results, using
+	 * the query cache. Cached results are discarded by Hibernate when
+	 * a transaction writing to the tables queried completes. The query
+	 * allows bind parameters.
+	 * @param query HQL query string
+	 * @param values Values to be bound to parameters 
+	 * @param types The corresponding types of the values 
+	 * @param region Name of the query cache region
+	 * @return A List
+	 * @throws DataPersistenceException Wraps HibernateException
+	 */
+	public List findCached(String query, Object[] values, Type[] types, String region)
+            throws DataPersistenceException {
+		return find(query, values, types, 0, region);
+	}
+	
+	/**
+	 * Executes the specified HQL and returns a List of at most
+	 * maxResults results, using the query cache. The query allows bind 
+	 * parameters.
+	 * @param query HQL query string
+	 * @param values Values to be bound to parameters 
+	 * @param types The corresponding types of the values 
+	 * @param maxResults Maximum number of results
+	 * @param region Name of the query cache region
+	 * @return A List
+	 * @throws DataPersistenceException Wraps HibernateException
+	 * @see #findCached(String, Object[], Type[], String)
+	 */
+	public List findCached(String query, Object[] values, Type[] types, int maxResults, String region)
+            throws DataPersistenceException {
+		return find(query, values, types, maxResults, region);
+	}
+	
+	/**
+	 * Executes a query with bind parameters.
+	 * @param maxResults Maximum number of results, 0 for no maximum
+	 * @param region Name of the query cache region, null if the results
+	 * are not cached
+	 */
+	private List find(String query, Object[] values, Type[] types, int maxResults, String region)
+            throws DataPersistenceException {
+		try {
+			Session s = querySession();
+			Query q = s.createQuery(query);
+			for (int i = 0; i < values.length; i++) {
+				q.setParameter(i, values[i], types[i]);
+			}
+			if (maxResults > 0) {
+				q.setMaxResults(maxResults);
+			}
+			if (region != null) {
+				q.setCacheable(true);
+				q.setCacheRegion(region);
+			}
+			List result = q.list();
+			afterQuery(s);
+			return result;
+		} catch (HibernateException e) {
+			throw new DataPersistenceException(e);
+		}
+	}
+
+	/**
+	 * Executes the specified HQL and passes the results to the visitor
+	 * one at a time, as they are read from a scrollable JDBC result set.
+	 * Persistent objects are evicted from the session once visited, so 
+	 * memory use does not grow with the number of results. The query 
+	 * allows bind parameters.
+	 * @param query HQL query string
+	 * @param values Values to be bound to parameters 
+	 * @param types The corresponding types of the values 
+	 * @param visitor Receives the results
+	 * @return Number of results visited
+	 * @throws DataPersistenceException Wraps HibernateException
+	 */
+	public int scroll(String query, Object[] values, Type[] types, ResultVisitor visitor)
+            throws DataPersistenceException {
+		try {
+			Session s = querySession();
+			Query q = s.createQuery(query);
+			for (int i = 0; i < values.length; i++) {
+				q.setParameter(i, values[i], types[i]);
+			}
+			ScrollableResults results = q.scroll();
+			int count = 0;
+			try {
+				while (results.next()) {
+					Object[] row = results.get();
+					visitor.visit(row.length == 1 ? row[0] : row);
+					for (int i = 0; i < row.length; i++) {
+						if (row[i] instanceof PersistentObject) {
+							s.evict(row[i]);
+						}
+					}
+					count++;
+				}
+			} finally {
+				results.close();
+			}
+			afterQuery(s);
+			return count;
 		} catch (HibernateException e) {
 			throw new DataPersistenceException(e);
 		}
@@ -561,16 +913,20 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	
 	/**
 	 * Wraps the call of an intercepted method with begin and 
-	 * commit transactions if it supports transactions.
+	 * commit transactions if it supports transactions, or with
+	 * read-only mode if it is read-only.
 	 * @see net.sf.cglib.proxy.MethodInterceptor#intercept(java.lang.Object, java.lang.reflect.Method, java.lang.Object[], net.sf.cglib.proxy.MethodProxy)
 	 */
 	public Object intercept(Object obj, Method method, Object[] args,
 			MethodProxy proxy) throws Throwable {
 		
 			boolean useTransaction; 
+			boolean useReadOnly;
 			Object retValFromSuper = null;
 			
 			useTransaction = transactions.isTransaction(method);
+			useReadOnly = !useTransaction && transactions.isReadOnly(method);
+			if (useReadOnly) beginReadOnly();
 			try {
 				if (useTransaction) beginTransaction();
 				
@@ -581,6 +937,8 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 			}catch (Throwable e) {
 				if (useTransaction) rollbackTransaction();
 				throw e;
+			} finally {
+				if (useReadOnly) endReadOnly();
 			}
 			return retValFromSuper;
 	}
@@ -645,12 +1003,10 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	    boolean result = false; // we did not modify state
 
 	    if (object instanceof AuditedPersistentObject) {
-	        for (int i = 0; i < propertyNames.length; i++) {
-	            if ("dateLastUpdated".equals(propertyNames[i])) {
-	            	currentState[i] = new Date();
-	                result = true;
-	                break;
-	            }
+	        int i = getDateLastUpdatedIndex(object.getClass(), propertyNames);
+	        if (i >= 0) {
+	            currentState[i] = new Date();
+	            result = true;
 	        }
 	    }
 
@@ -670,12 +1026,10 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 	    boolean result = false;
 
 	    if (object instanceof AuditedPersistentObject) {
-	        for (int i = 0; i < propertyNames.length; i++) {
-	            if ("dateLastUpdated".equals(propertyNames[i])) {
-	                state[i] = new Date();
-	                result = true;
-	                break;
-	            }
+	        int i = getDateLastUpdatedIndex(object.getClass(), propertyNames);
+	        if (i >= 0) {
+	            state[i] = new Date();
+	            result = true;
 	        }
 	    }
 	    
@@ -686,6 +1040,29 @@ public final class HibernateUtil implements MethodInterceptor, Interceptor {
 		return result;
 	}
 
+	/**
+	 * Locate the dateLastUpdated property of an AuditedPersistentObject
+	 * class. The property names of a class are searched once, rather than
+	 * for every object saved or flushed.
+	 * @return Index of the property, -1 if it is not mapped
+	 */
+	private int getDateLastUpdatedIndex(Class classObj, String[] propertyNames) {
+	    synchronized (dateLastUpdatedIndexes) {
+	        Integer index = (Integer) dateLastUpdatedIndexes.get(classObj);
+	        if (index == null) {
+	            index = new Integer(-1);
+	            for (int i = 0; i < propertyNames.length; i++) {
+	                if ("dateLastUpdated".equals(propertyNames[i])) {
+	                    index = new Integer(i);
+	                    break;
+	                }
+	            }
+	            dateLastUpdatedIndexes.put(classObj, index);
+	        }
+	        return index.intValue();
+	    }
+	}
+
 	/* (non-Javadoc)
 	 * @see net.sf.hibernate.Interceptor#onDelete(java.lang.Object, 
 	 * java.io.Serializable, java.lang.Object[], java.lang.String[], 
@@ -0,0 +1,198 @@
+package net.sf.recombo.common.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.hibernate.cache.Cache;
+import net.sf.hibernate.cache.Timestamper;
+
+/**
+ * Hibernate second-level cache region kept in memory and bounded in
+ * size. When the region is full the least recently used entry is
+ * evicted. Hits, misses and evictions are counted.
+ * <p>
+ * The region is local to this virtual machine and only sees the changes
+ * made through it. If several nodes write to the same database, entries 
+ * must be given a time to live, which bounds how long a node may serve 
+ * rows changed by another.
+ *
+ * @see LRUCacheProvider
+ */
+public class LRUCache implements Cache {
+	private final String regionName;
+	private final int maxElements;
+	// Milliseconds an entry is kept, 0 to keep it until it is evicted
+	private final long timeToLive;
+	// Entries by key, least recently used first
+	private final Map entries;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Constructor.
+	 * @param regionName Name of the cache region
+	 * @param maxElements Maximum number of entries kept
+	 */
+	public LRUCache(String regionName, int maxElements) {
+		this(regionName, maxElements, 0);
+	}
+
+	/**
+	 * Constructor.
+	 * @param regionName Name of the cache region
+	 * @param maxElements Maximum number of entries kept
+	 * @param timeToLive Milliseconds an entry is kept, 0 to keep it until
+	 * it is evicted
+	 */
+	public LRUCache(String regionName, int maxElements, long timeToLive) {
+		this.regionName = regionName;
+		this.maxElements = maxElements;
+		this.timeToLive = timeToLive;
+		this.entries = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if (size() > LRUCache.this.maxElements) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.Cache#get(java.lang.Object)
+	 */
+	public synchronized Object get(Object key) {
+		Entry entry = (Entry)entries.get(key);
+		if (entry != null && entry.expires != 0 && entry.expires < System.currentTimeMillis()) {
+			entries.remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.Cache#put(java.lang.Object, java.lang.Object)
+	 */
+	public synchronized void put(Object key, Object value) {
+		entries.put(key, new Entry(value, timeToLive == 0 ? 0 : System.currentTimeMillis() + timeToLive));
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.Cache#remove(java.lang.Object)
+	 */
+	public synchronized void remove(Object key) {
+		entries.remove(key);
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.Cache#clear()
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.Cache#destroy()
+	 */
+	public void destroy() {
+		LRUCacheProvider.removeCache(this);
+	}
+
+	/*
+	 * The cache is local to this virtual machine, so the concurrency
+	 * strategies need no locks of their own.
+	 * @see net.sf.hibernate.cache.Cache#lock(java.lang.Object)
+	 */
+	public void lock(Object key) {
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.Cache#unlock(java.lang.Object)
+	 */
+	public void unlock(Object key) {
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.Cache#nextTimestamp()
+	 */
+	public long nextTimestamp() {
+		return Timestamper.next();
+	}
+
+	/*
+	 * Same as Hibernate's HashtableCache: a minute.
+	 * @see net.sf.hibernate.cache.Cache#getTimeout()
+	 */
+	public int getTimeout() {
+		return Timestamper.ONE_MS * 60000;
+	}
+
+	/**
+	 * Name of the cache region.
+	 */
+	public String getRegionName() {
+		return regionName;
+	}
+
+	/**
+	 * Maximum number of entries kept.
+	 */
+	public int getMaxElements() {
+		return maxElements;
+	}
+
+	/**
+	 * Milliseconds an entry is kept, 0 if it is kept until it is evicted.
+	 */
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Number of entries in the cache.
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Number of lookups that found an entry.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of lookups that found no entry.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Number of entries evicted to keep the cache within its size.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Cached value and the time it expires at, 0 if it does not expire.
+	 */
+	private static class Entry {
+		final Object value;
+		final long expires;
+
+		Entry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package net.sf.recombo.common.persistence;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import net.sf.hibernate.cache.Cache;
+import net.sf.hibernate.cache.CacheException;
+import net.sf.hibernate.cache.CacheProvider;
+import net.sf.hibernate.cache.Timestamper;
+import net.sf.hibernate.cache.UpdateTimestampsCache;
+
+/**
+ * Hibernate cache provider building LRUCache regions. It is plugged in
+ * with the hibernate.cache.provider_class property. The size of a region
+ * is read from the hibernate.cache.lru.&lt;region&gt;.max_elements property,
+ * or hibernate.cache.lru.max_elements for all regions. Likewise the time
+ * to live of the entries, in seconds, is read from the time_to_live
+ * properties; by default entries are kept until they are evicted, which 
+ * is only safe when a single node writes to the database.
+ * <p>
+ * The regions built are kept so that their statistics can be recovered
+ * with getCaches.
+ *
+ * @see LRUCache
+ */
+public class LRUCacheProvider implements CacheProvider {
+	public static final String MAX_ELEMENTS = "hibernate.cache.lru.max_elements";
+	public static final String TIME_TO_LIVE = "hibernate.cache.lru.time_to_live";
+	// Size used when no max_elements property is configured
+	private static final int DEFAULT_MAX_ELEMENTS = 1000;
+
+	// LRUCache by region name
+	private static Map caches = new TreeMap();
+
+	/*
+	 * @see net.sf.hibernate.cache.CacheProvider#buildCache(java.lang.String, java.util.Properties)
+	 */
+	public Cache buildCache(String regionName, Properties properties) throws CacheException {
+		int maxElements;
+		long timeToLive;
+		if (UpdateTimestampsCache.REGION_NAME.equals(regionName)) {
+			// Holds one timestamp per table, evicting it would let stale
+			// query results be taken as up to date
+			maxElements = Integer.MAX_VALUE;
+			timeToLive = 0;
+		} else {
+			maxElements = Math.max(1, getIntProperty(properties, regionName, "max_elements", MAX_ELEMENTS, DEFAULT_MAX_ELEMENTS));
+			timeToLive = Math.max(0, getIntProperty(properties, regionName, "time_to_live", TIME_TO_LIVE, 0)) * 1000L;
+		}
+		LRUCache cache = new LRUCache(regionName, maxElements, timeToLive);
+		synchronized (LRUCacheProvider.class) {
+			caches.put(regionName, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Read a setting of a region, or the setting of all regions if the
+	 * region has none.
+	 */
+	private static int getIntProperty(Properties properties, String regionName, String name, 
+			String defaultName, int defaultValue) throws CacheException {
+		String value = properties.getProperty("hibernate.cache.lru." + regionName + "." + name,
+				properties.getProperty(defaultName));
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new CacheException("Invalid " + name + " " + value + " for cache region " + regionName + ".");
+		}
+	}
+
+	/*
+	 * @see net.sf.hibernate.cache.CacheProvider#nextTimestamp()
+	 */
+	public long nextTimestamp() {
+		return Timestamper.next();
+	}
+
+	/**
+	 * Recover the regions built, to read their statistics.
+	 * @return LRUCache by region name, ordered by name
+	 */
+	public synchronized static Map getCaches() {
+		return new TreeMap(caches);
+	}
+
+	/**
+	 * Forget a region destroyed by Hibernate.
+	 */
+	synchronized static void removeCache(LRUCache cache) {
+		if (caches.get(cache.getRegionName()) == cache) {
+			caches.remove(cache.getRegionName());
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package net.sf.recombo.common.persistence;
+
+/**
+ * Receives the results of a query one at a time.
+ * 
+ * @see HibernateUtil#scroll(String, Object[], net.sf.hibernate.type.Type[], ResultVisitor)
+ */
+public interface ResultVisitor {
+
+	/**
+	 * This method is called for every result of the query, in order.
+	 * Persistent objects of a result are evicted from the session once
+	 * this method returns.
+	 * 
+	 * @param result The persistent object or value of a single column
+	 * query, an Object[] otherwise
+	 */
+	public void visit(Object result);
+}
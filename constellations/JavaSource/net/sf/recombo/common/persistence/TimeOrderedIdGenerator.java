@@ -0,0 +1,155 @@
+package net.sf.recombo.common.persistence;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+import net.sf.hibernate.MappingException;
+import net.sf.hibernate.dialect.Dialect;
+import net.sf.hibernate.engine.SessionImplementor;
+import net.sf.hibernate.id.Configurable;
+import net.sf.hibernate.id.IdentifierGenerator;
+import net.sf.hibernate.type.Type;
+
+/**
+ * Hibernate identifier generator of 64-bit ids ordered by creation time.
+ * An id holds, from the most significant bit:
+ * <ul>
+ * <li>41 bits: milliseconds since EPOCH, enough until 2073</li>
+ * <li>10 bits: node that generated the id</li>
+ * <li>12 bits: sequence within the millisecond</li>
+ * </ul>
+ * Ids are formatted as 16 lower case hexadecimal digits, so that the
+ * string order is the order of creation, and are half the length of
+ * uuid.hex ids.
+ * <p>
+ * Every process inserting rows must have a distinct node, between 0 and
+ * MAX_NODE. The node is read from the node parameter of the generator
+ * mapping and may be overridden with the net.sf.recombo.node system
+ * property. More than 4096 ids in a millisecond borrow from the next
+ * millisecond, and ids keep growing if the clock is set back.
+ */
+public class TimeOrderedIdGenerator implements IdentifierGenerator, Configurable {
+	public static final String NODE = "node";
+	public static final String NODE_PROPERTY = "net.sf.recombo.node";
+	// 01/01/2004 00:00 GMT
+	public static final long EPOCH = 1072915200000L;
+	public static final int MAX_NODE = 1023;
+	// Length of the formatted ids
+	public static final int LENGTH = 16;
+	private static final int NODE_SHIFT = 12;
+	private static final int TIME_SHIFT = 22;
+	private static final int MAX_SEQUENCE = 4095;
+
+	// Node of this process
+	private static int node = 0;
+	// Time and sequence of the last id generated
+	private static long lastTime = 0;
+	private static int sequence = 0;
+
+	/*
+	 * @see net.sf.hibernate.id.Configurable#configure(net.sf.hibernate.type.Type, java.util.Properties, net.sf.hibernate.dialect.Dialect)
+	 */
+	public void configure(Type type, Properties params, Dialect d) throws MappingException {
+		String value = System.getProperty(NODE_PROPERTY, params.getProperty(NODE, "0"));
+		try {
+			setNode(Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			throw new MappingException("Invalid node " + value + ".");
+		} catch (IllegalArgumentException e) {
+			throw new MappingException(e.getMessage());
+		}
+	}
+
+	/*
+	 * @see net.sf.hibernate.id.IdentifierGenerator#generate(net.sf.hibernate.engine.SessionImplementor, java.lang.Object)
+	 */
+	public Serializable generate(SessionImplementor session, Object object) {
+		return format(nextId());
+	}
+
+	/**
+	 * Set the node of this process.
+	 * @param node Node between 0 and MAX_NODE
+	 * @throws IllegalArgumentException If the node is out of range
+	 */
+	public synchronized static void setNode(int node) {
+		if (node < 0 || node > MAX_NODE) {
+			throw new IllegalArgumentException("Invalid node " + node + ", must be between 0 and " + MAX_NODE + ".");
+		}
+		TimeOrderedIdGenerator.node = node;
+	}
+
+	/**
+	 * Recover the node of this process.
+	 */
+	public synchronized static int getNode() {
+		return node;
+	}
+
+	/**
+	 * Generate the next id of this process.
+	 */
+	public synchronized static long nextId() {
+		long now = System.currentTimeMillis();
+		if (now > lastTime) {
+			lastTime = now;
+			sequence = 0;
+		} else if (++sequence > MAX_SEQUENCE) {
+			lastTime++;
+			sequence = 0;
+		}
+		return toId(lastTime, node, sequence);
+	}
+
+	/**
+	 * Build an id.
+	 * @param time Time in milliseconds, times before EPOCH are taken as EPOCH
+	 * @param node Node between 0 and MAX_NODE
+	 * @param sequence Sequence within the millisecond, between 0 and 4095
+	 */
+	public static long toId(long time, int node, int sequence) {
+		return (Math.max(0, time - EPOCH) << TIME_SHIFT) | ((long)node << NODE_SHIFT) | sequence;
+	}
+
+	/**
+	 * Build the id following an id, with the same node and the next 
+	 * sequence or, past the last sequence, the next millisecond. Used to 
+	 * number rows in order when their times are not distinct.
+	 */
+	public static long successor(long id) {
+		if ((id & MAX_SEQUENCE) < MAX_SEQUENCE) {
+			return id + 1;
+		}
+		return toId(getTime(id) + 1, (int)((id >>> NODE_SHIFT) & MAX_NODE), 0);
+	}
+
+	/**
+	 * Recover the time in milliseconds an id was generated at.
+	 */
+	public static long getTime(long id) {
+		return (id >>> TIME_SHIFT) + EPOCH;
+	}
+
+	/**
+	 * Format an id as LENGTH hexadecimal digits.
+	 */
+	public static String format(long id) {
+		String hex = Long.toHexString(id);
+		StringBuffer buffer = new StringBuffer(LENGTH);
+		for (int i = hex.length(); i < LENGTH; i++) {
+			buffer.append('0');
+		}
+		return buffer.append(hex).toString();
+	}
+
+	/**
+	 * Parse an id formatted by format.
+	 * @throws NumberFormatException If the id was not formatted by format
+	 */
+	public static long parse(String id) {
+		if (id.length() != LENGTH) {
+			throw new NumberFormatException("Invalid id " + id + ".");
+		}
+		return Long.parseLong(id, 16);
+	}
+}
@@ -20,11 +20,15 @@ import org.xml.sax.helpers.DefaultHandler;
 
 
 /**
- * Utility class used to represent transaction configuration. 
+ * Utility class used to represent transaction configuration. Methods
+ * marked read-only="true" are not transactional; they query in the
+ * read-only mode of HibernateUtil instead.
  */
 public class TransactionConfiguration extends DefaultHandler {
 	private static String className;
 	Map classes = new HashMap();
+	// Read-only methods (HashSet of method names) by class name
+	Map readOnlyClasses = new HashMap();
 	private static TransactionConfiguration instance;
 	
 	public static TransactionConfiguration getInstance() {
@@ -120,6 +124,27 @@ public class TransactionConfiguration extends DefaultHandler {
 		return val;
 	}
 	
+	/**
+	 * The method returns true if the given Method instance is specified
+	 * as read-only.
+	 * 
+	 * @param method
+	 *            Method instance
+	 * @return true if the Method instance is specified as read-only.
+	 */
+	public boolean isReadOnly(Method method) {
+		Class classObj = method.getDeclaringClass();
+		if (hasReadOnlyMethod(classObj.getName(), method.getName())) {
+			return true;
+		}
+		for (int i = 0; i < classObj.getInterfaces().length; i++) {
+			if (hasReadOnlyMethod(classObj.getInterfaces()[i].getName(), method.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.xml.sax.ContentHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
 	 */
@@ -131,7 +156,11 @@ public class TransactionConfiguration extends DefaultHandler {
 			addClass(className);
 		}
 		if (qName.equals("method")) {
-			addMethod(className, attributes.getValue("name"));
+			if ("true".equals(attributes.getValue("read-only"))) {
+				addReadOnlyMethod(className, attributes.getValue("name"));
+			} else {
+				addMethod(className, attributes.getValue("name"));
+			}
 		}
 	}
 	
@@ -184,6 +213,23 @@ public class TransactionConfiguration extends DefaultHandler {
 		methods.add(methodName);
 	}
 	
+	/**
+	 * Add a read-only method of the specified class to the transaction
+	 * configuration. Any calls to isReadOnly for the specified method
+	 * should then return true.
+	 *  
+	 * @param className Fully qualified name of the class
+	 * @param methodName Method name
+	 */
+	public void addReadOnlyMethod(String className, String methodName) {
+		HashSet methods = (HashSet)readOnlyClasses.get(className);
+		if (methods == null) {
+			methods = new HashSet();
+			readOnlyClasses.put(className, methods);
+		}
+		methods.add(methodName);
+	}
+	
 	/**
 	 * Add the specified method instance to the transaction
 	 * configuration. Any calls to isTransaction for the
@@ -237,6 +283,18 @@ public class TransactionConfiguration extends DefaultHandler {
 		return has;
 	}
 	
+	/**
+	 * Check if the method of the specified class is read-only.
+	 * 
+	 * @param className
+	 * @param methodName
+	 * @return true if the specified method is read-only
+	 */
+	public boolean hasReadOnlyMethod(String className, String methodName) {
+		HashSet methods = (HashSet)readOnlyClasses.get(className);
+		return methods != null && methods.contains(methodName);
+	}
+	
 	/**
 	 * Check if the transaction configuration has the 
 	 * specified class.
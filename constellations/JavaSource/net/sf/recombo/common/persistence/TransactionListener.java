@@ -0,0 +1,18 @@
+package net.sf.recombo.common.persistence;
+
+/**
+ * Receives a notification when the database transaction of the thread 
+ * that registered it completes.
+ * 
+ * @see HibernateUtil#addTransactionListener(TransactionListener)
+ */
+public interface TransactionListener {
+
+	/**
+	 * This method is called after the outer-most transaction has been
+	 * committed or rolled back, in the thread that ran the transaction.
+	 * 
+	 * @param committed True if the transaction was committed
+	 */
+	public void afterCompletion(boolean committed);
+}
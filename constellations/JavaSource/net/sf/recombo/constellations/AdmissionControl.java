@@ -0,0 +1,111 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+/**
+ * Limits the number of requests processed concurrently. Requests that
+ * arrive when the limit has been reached wait in a queue of limited depth
+ * for a limited time. Requests that cannot be queued, or that time out
+ * waiting, are rejected so that the caller can fail fast instead of
+ * holding a container thread and a database connection.
+ */
+public class AdmissionControl {
+
+    private int maxConcurrent;
+    private int maxQueued;
+    private long queueTimeout; // milliseconds
+
+    // Counters
+    private int inFlight = 0;
+    private int queued = 0;
+    private long admitted = 0;
+    private long rejected = 0;
+
+    /**
+     * Constructor.
+     * @param maxConcurrent Maximum number of requests processed concurrently
+     * @param maxQueued Maximum number of requests waiting to be processed
+     * @param queueTimeout Maximum time in milliseconds a request waits to be processed
+     */
+    public AdmissionControl(int maxConcurrent, int maxQueued, long queueTimeout) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Request permission to process a request. Every successful call
+     * must be followed by a call to release.
+     * @return true if the request was admitted, false if it was rejected
+     */
+    public synchronized boolean acquire() {
+        if (inFlight < maxConcurrent) {
+            inFlight++;
+            admitted++;
+            return true;
+        }
+        if (queued >= maxQueued) {
+            rejected++;
+            return false;
+        }
+
+        queued++;
+        try {
+            long deadline = System.currentTimeMillis() + queueTimeout;
+            long remaining = queueTimeout;
+            while (inFlight >= maxConcurrent && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queued--;
+        }
+
+        if (inFlight < maxConcurrent) {
+            inFlight++;
+            admitted++;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    /**
+     * Signal that an admitted request has been processed.
+     */
+    public synchronized void release() {
+        inFlight--;
+        notify();
+    }
+
+    /**
+     * Number of requests being processed.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Number of requests waiting to be processed.
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Number of requests admitted since startup.
+     */
+    public synchronized long getAdmitted() {
+        return admitted;
+    }
+
+    /**
+     * Number of requests rejected since startup.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
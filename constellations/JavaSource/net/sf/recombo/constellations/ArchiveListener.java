@@ -0,0 +1,124 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import net.sf.recombo.common.ControllerFactory;
+import net.sf.recombo.common.persistence.HibernateUtil;
+
+/**
+ * Opens the MessageArchive of each sky with the web application and 
+ * periodically moves the SMSMessages older than the horizon from the table
+ * to the archives. The archives are configured with the archiveDirectory, 
+ * archiveHorizonDays and archiveInterval context parameters; they are not
+ * opened if archiveDirectory is empty, and messages are not archived if 
+ * archiveHorizonDays is 0. The archive of the default sky is kept in 
+ * archiveDirectory, those of the other skies in a subdirectory named after
+ * the sky. A sky whose archive fails to open keeps its messages in the
+ * table.
+ */
+public class ArchiveListener implements ServletContextListener {
+    private static final int INTERVAL = 60; // minutes
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private Timer timer;
+
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        String archiveDirectory = context.getInitParameter("archiveDirectory");
+        if (archiveDirectory == null || archiveDirectory.trim().length() == 0) {
+            return;
+        }
+        // the directory is relative to the web application, unless
+        // the application is not deployed as a directory
+        String path = context.getRealPath(archiveDirectory.trim());
+        File root = new File(path != null ? path : archiveDirectory.trim());
+        for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+            String sky = (String)i.next();
+            File directory = sky.equals(Sky.DEFAULT) ? root : new File(root, sky);
+            try {
+                MessageArchive.getInstance(sky).open(directory);
+            } catch (IOException e) {
+                System.err.println("ArchiveListener: failed to open message archive in " + directory + ".");
+                e.printStackTrace(System.err);
+            }
+        }
+        final int horizonDays = getIntParameter(context, "archiveHorizonDays", 0);
+        if (horizonDays <= 0) {
+            return;
+        }
+        long interval = getIntParameter(context, "archiveInterval", INTERVAL) * 60000L;
+        timer = new Timer(true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                archive(new Date(System.currentTimeMillis() - horizonDays * DAY));
+            }
+        }, interval, interval);
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+            try {
+                MessageArchive.getInstance((String)i.next()).close();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Archive the messages of every sky older than the horizon, a segment
+     * at a time. A sky that fails to archive does not stop the others.
+     */
+    private void archive(Date horizon) {
+        ConstellationController constellationController = 
+            (ConstellationController)ControllerFactory.getController(ConstellationController.class);
+        int total = 0;
+        for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+            String sky = (String)i.next();
+            try {
+                int archived;
+                do {
+                    archived = constellationController.archiveSMSMessages(sky, horizon);
+                    total += archived;
+                } while (archived > 0);
+            } catch (RuntimeException e) {
+                System.err.println("ArchiveListener: failed to archive messages of sky " + sky + ".");
+                e.printStackTrace(System.err);
+            } finally {
+                HibernateUtil.getInstance().closeSession();
+            }
+        }
+        if (total > 0) {
+            System.out.println("ArchiveListener: archived " + total + " messages before " + horizon + ".");
+        }
+    }
+
+    private int getIntParameter(ServletContext context, String name, int defaultValue) {
+        String value = context.getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("ArchiveListener: invalid value " + value + " for " + name + ", using " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the body of a bulk request one line at a time. Each line contains
+ * the sender and the message separated by a tab, optionally followed by a
+ * tab and the carrier message id. Empty lines are skipped. Reading stops
+ * as soon as the body has more lines than the maximum or a line is longer
+ * than the maximum, so an oversized body is never read in full.
+ */
+public class BulkMessageReader {
+
+    private Reader in;
+    private int maxLines;
+    private int maxLineLength;
+    // Number of lines read
+    private int lines = 0;
+    // True once a limit was exceeded
+    private boolean exceeded = false;
+
+    /**
+     * Constructor.
+     * @param in Body of the request
+     * @param maxLines Maximum number of lines that are not empty
+     * @param maxLineLength Maximum number of characters in a line
+     */
+    public BulkMessageReader(Reader in, int maxLines, int maxLineLength) {
+        this.in = in;
+        this.maxLines = maxLines;
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Read the next line that is not empty.
+     * @return Line without its terminator, null at the end of the body or
+     * once a limit was exceeded
+     */
+    public String readLine() throws IOException {
+        if (exceeded) {
+            return null;
+        }
+        StringBuffer line = new StringBuffer();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                if (line.length() > 0) {
+                    break;
+                }
+            } else if (c != '\r') {
+                if (line.length() == maxLineLength) {
+                    exceeded = true;
+                    return null;
+                }
+                line.append((char)c);
+            }
+        }
+        if (line.length() == 0) {
+            return null;
+        }
+        if (lines == maxLines) {
+            exceeded = true;
+            return null;
+        }
+        lines++;
+        return line.toString();
+    }
+
+    /**
+     * Verify if reading stopped because the body exceeded a limit.
+     */
+    public boolean isExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * Split a line into the sender, the message and the carrier message
+     * id. A blank carrier message id is taken as absent.
+     * @param line Line read
+     * @param maxCarrierMessageIdLength Maximum length of the carrier message id
+     * @return Sender, message and carrier message id, which may be null,
+     * or null if the line is invalid
+     */
+    public static String[] parse(String line, int maxCarrierMessageIdLength) {
+        int tab = line.indexOf('\t');
+        if (tab < 0 || tab == line.length() - 1) {
+            return null;
+        }
+        String sender = line.substring(0, tab);
+        String message = line.substring(tab + 1);
+        String carrierMessageId = null;
+        int idTab = message.lastIndexOf('\t');
+        if (idTab >= 0) {
+            carrierMessageId = message.substring(idTab + 1).trim();
+            if (carrierMessageId.length() == 0) {
+                carrierMessageId = null;
+            }
+            message = message.substring(0, idTab);
+            if (message.length() == 0 || (carrierMessageId != null
+                    && carrierMessageId.length() > maxCarrierMessageIdLength)) {
+                return null;
+            }
+        }
+        return new String[] {sender, message, carrierMessageId};
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.Date;
+
+/**
+ * Detects redelivered messages by the message id assigned by the carrier
+ * or SMS aggregator. Ids seen before are recorded in a Bloom filter, which
+ * never reports a seen id as new but may report a new id as seen with a
+ * small probability. Only when the filter reports an id as possibly seen
+ * does the caller need to verify it against the database.
+ * <p>
+ * To keep memory bounded the filter has two generations of fixed size.
+ * When the current generation is full it becomes the previous one and the
+ * oldest generation is discarded, so ids are remembered for at least
+ * <code>capacity</code> messages. Ids accepted recently are also kept in an
+ * exact index, which covers messages that have not been committed yet.
+ */
+public class CarrierMessageIdFilter {
+
+    /** The id has definitely not been seen before. */
+    public static final int NEW = 0;
+    /** The id was accepted recently. */
+    public static final int DUPLICATE = 1;
+    /** The id may have been seen before, verify against the database. */
+    public static final int POSSIBLE_DUPLICATE = 2;
+
+    private int capacity;
+    private int bits;
+    private int hashes;
+    // Bit sets of the current and previous generations
+    private long[] current;
+    private long[] previous;
+    // Number of ids added to the current generation
+    private int count = 0;
+    // Ids accepted within the recent window
+    private DuplicateMessageIndex recent;
+
+    /**
+     * Constructor.
+     * @param capacity Number of ids per generation
+     * @param falsePositiveRate Probability of reporting a new id as possibly seen
+     * @param recentInterval Time in seconds accepted ids are known exactly
+     */
+    public CarrierMessageIdFilter(int capacity, double falsePositiveRate, int recentInterval) {
+        this.capacity = capacity;
+        double ln2 = Math.log(2);
+        long size = (long)Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bits = (int)Math.max(64, Math.min(size, Integer.MAX_VALUE - 63));
+        this.hashes = Math.max(1, (int)Math.round((double)bits / capacity * ln2));
+        this.current = new long[(bits + 63) / 64];
+        this.previous = new long[current.length];
+        this.recent = new DuplicateMessageIndex(recentInterval, false);
+    }
+
+    /**
+     * Classify the id and record it as seen. The classification and the
+     * recording happen atomically, so of two deliveries of the same id
+     * arriving at the same time only one can be classified as NEW.
+     * @param id Carrier message id
+     * @param arrivalDate Arrival date of the message
+     * @return NEW, DUPLICATE or POSSIBLE_DUPLICATE
+     */
+    public synchronized int check(String id, Date arrivalDate) {
+        if (recent.isDuplicate(id, null, arrivalDate)) {
+            return DUPLICATE;
+        }
+        int h1 = id.hashCode();
+        int h2 = hash(id);
+        if (!contains(current, h1, h2) && !contains(previous, h1, h2)) {
+            add(h1, h2);
+            return NEW;
+        }
+        return POSSIBLE_DUPLICATE;
+    }
+
+    /**
+     * Record an id as seen, without classifying it.
+     * @param id Carrier message id
+     */
+    public synchronized void add(String id) {
+        int h1 = id.hashCode();
+        int h2 = hash(id);
+        if (!contains(current, h1, h2)) {
+            add(h1, h2);
+        }
+    }
+
+    /**
+     * Forget an id recorded at the given arrival date because the message
+     * could not be saved. The id remains in the Bloom filter, so a retry is
+     * verified against the database.
+     * @param id Carrier message id
+     * @param arrivalDate Arrival date used when the id was checked
+     */
+    public synchronized void remove(String id, Date arrivalDate) {
+        recent.remove(id, null, arrivalDate);
+    }
+
+    /**
+     * Number of ids added to the current generation.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Memory used by the Bloom filter.
+     * @return Size in bytes
+     */
+    public int getFilterSize() {
+        return (current.length + previous.length) * 8;
+    }
+
+    private void add(int h1, int h2) {
+        if (count >= capacity) {
+            long[] bitSet = previous;
+            previous = current;
+            current = bitSet;
+            for (int i = 0; i < current.length; i++) {
+                current[i] = 0;
+            }
+            count = 0;
+        }
+        for (int i = 0; i < hashes; i++) {
+            int bit = index(h1, h2, i);
+            current[bit >>> 6] |= 1L << (bit & 63);
+        }
+        count++;
+    }
+
+    private boolean contains(long[] bitSet, int h1, int h2) {
+        for (int i = 0; i < hashes; i++) {
+            int bit = index(h1, h2, i);
+            if ((bitSet[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bit for the i-th hash function, derived from two independent
+     * hashes (Kirsch-Mitzenmacher double hashing).
+     */
+    private int index(int h1, int h2, int i) {
+        return (int)(((h1 + (long)i * h2) & 0x7fffffffffffffffL) % bits);
+    }
+
+    /**
+     * 32 bit FNV-1a hash, independent of String.hashCode.
+     */
+    private static int hash(String id) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+}
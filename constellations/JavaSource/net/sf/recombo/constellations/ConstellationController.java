@@ -3,74 +3,1025 @@
  */
 package net.sf.recombo.constellations;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import net.sf.hibernate.Hibernate;
+import net.sf.hibernate.type.Type;
 import net.sf.recombo.common.Controller;
+import net.sf.recombo.common.SystemRuntimeException;
 import net.sf.recombo.common.persistence.PersistentObjectNotFoundException;
+import net.sf.recombo.common.persistence.ResultVisitor;
+import net.sf.recombo.common.persistence.TimeOrderedIdGenerator;
+import net.sf.recombo.common.persistence.TransactionListener;
 
 /**
  * @author Devendra Tewari
  */
 public class ConstellationController extends Controller {
+    private static final int MAX_IN_PARAMETERS = 100;
+    private static final int TEXT_INDEX_PAGE_SIZE = 1000;
+    private static final int COUNTERS_PAGE_SIZE = 10000;
+    private static final int ARCHIVE_SEGMENT_SIZE = 10000;
+    private static final int SEQUENCE_BATCH_SIZE = 1000;
+    // Query cache region of the popular SMSMessage queries
+    private static final String QUERY_REGION = "net.sf.recombo.constellations.SMSMessage.queries";
+    
+    // Length of the ids generated by uuid.hex before TimeOrderedIdGenerator
+    private static final int UUID_HEX_LENGTH = 32;
+    
+    // Orders SMSMessages by arrivalDate and id
+    private static final Comparator MESSAGE_ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            SMSMessage m1 = (SMSMessage)o1;
+            SMSMessage m2 = (SMSMessage)o2;
+            return compareKeys(m1.getArrivalDate(), m1.getId(), m2.getArrivalDate(), m2.getId());
+        }
+    };
+    // Orders SMSMessageSummaries by arrivalDate and id
+    private static final Comparator SUMMARY_ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            SMSMessageSummary s1 = (SMSMessageSummary)o1;
+            SMSMessageSummary s2 = (SMSMessageSummary)o2;
+            return compareKeys(s1.getArrivalDate(), s1.getId(), s2.getArrivalDate(), s2.getId());
+        }
+    };
+    
+    private static Object textIndexLock = new Object();
+    private static Object idMigrationLock = new Object();
     
     /**
-     * List all SMS Messages ordered by arrivalDate. 
+     * List all SMS Messages of a sky ordered by arrivalDate, archived 
+     * ones included. The query is not cached: its result can hold more 
+     * messages than the SMSMessage cache region, which would then load
+     * them one at a time.
+     * @param sky Sky identifier
      * @return
      */
-    public List findAllSMSMessages() {
-        return hibernateUtil.find("from SMSMessage order by arrivalDate");
+    public List findAllSMSMessages(String sky) {
+        return merge(findArchivedSMSMessages(sky, null, null, Integer.MAX_VALUE),
+                hibernateUtil.find("from SMSMessage m where m.sky = ? order by m.arrivalDate, m.id", 
+                new Object[] {sky}, new Type[] {Hibernate.STRING}), MESSAGE_ORDER, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * List the id, text length and arrival date of all SMSMessages of a
+     * sky ordered by arrivalDate, without loading the messages. Archived
+     * messages are read from the archive.
+     * @param sky Sky identifier
+     * @return List of SMSMessageSummary
+     */
+    public List findAllSMSMessageSummaries(String sky) {
+        List rows = hibernateUtil.find("select m.id, length(m.message), m.arrivalDate from SMSMessage m where m.sky = ? order by m.arrivalDate, m.id",
+                sky, Hibernate.STRING);
+        List archived = new ArrayList();
+        for (Iterator i = MessageArchive.getInstance(sky).iterate(null, null); i.hasNext();) {
+            archived.add(new SMSMessageSummary((SMSMessage)i.next()));
+        }
+        List summaries = new ArrayList(rows.size());
+        for (Iterator i = rows.iterator(); i.hasNext();) {
+            Object[] row = (Object[])i.next();
+            summaries.add(new SMSMessageSummary((String)row[0], 
+                    row[1] == null ? 0 : ((Number)row[1]).intValue(), (Date)row[2]));
+        }
+        return merge(archived, summaries, SUMMARY_ORDER, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Recover the texts of the SMSMessages of a sky with the ids specified.
+     * Ids not found in the table are looked up in the archive.
+     * @param sky Sky identifier
+     * @param ids Ids of the SMSMessages
+     * @return Texts in the order of the ids, null for ids not found
+     */
+    public String[] findSMSMessageTexts(String sky, String[] ids) {
+        String[] texts = new String[ids.length];
+        if (ids.length == 0) {
+            return texts;
+        }
+        StringBuffer query = new StringBuffer("select m.id, m.message from SMSMessage m where m.sky = ? and m.id in (");
+        Object[] values = new Object[ids.length + 1];
+        Type[] types = new Type[ids.length + 1];
+        values[0] = sky;
+        types[0] = Hibernate.STRING;
+        for (int i = 0; i < ids.length; i++) {
+            query.append(i == 0 ? "?" : ", ?");
+            values[i + 1] = ids[i];
+            types[i + 1] = Hibernate.STRING;
+        }
+        query.append(")");
+        Map found = new HashMap();
+        for (Iterator i = hibernateUtil.find(query.toString(), values, types).iterator(); i.hasNext();) {
+            Object[] row = (Object[])i.next();
+            found.put(row[0], row[1]);
+        }
+        MessageArchive archive = MessageArchive.getInstance(sky);
+        for (int i = 0; i < ids.length; i++) {
+            texts[i] = (String)found.get(ids[i]);
+            if (texts[i] == null) {
+                SMSMessage archived = archive.find(ids[i]);
+                if (archived != null) {
+                    texts[i] = archived.getMessage();
+                }
+            }
+        }
+        return texts;
+    }
+    
+    /**
+     * List a page of SMSMessages of a sky ordered by arrivalDate and id, starting
+     * after the given message. The page is located by its key rather than
+     * by an offset, so the cost of a page does not depend on how many 
+     * pages precede it. Archived messages are merged into the page.
+     * @param sky Sky identifier
+     * @param afterArrivalDate Arrival date of the last message of the 
+     * previous page, null for the first page
+     * @param afterId Id of the last message of the previous page, null to
+     * start after all the messages that arrived at afterArrivalDate
+     * @param limit Maximum number of messages in the page
+     */
+    public List findSMSMessagePage(String sky, Date afterArrivalDate, String afterId, int limit) {
+        List archived;
+        List page;
+        if (afterArrivalDate == null) {
+            archived = findArchivedSMSMessages(sky, null, null, limit);
+            page = hibernateUtil.findCached("from SMSMessage m where m.sky = ? order by m.arrivalDate, m.id",
+                    new Object[] {sky}, new Type[] {Hibernate.STRING}, limit, QUERY_REGION);
+        } else if (afterId == null) {
+            // the archive is read from the next millisecond on
+            archived = findArchivedSMSMessages(sky, new Date(afterArrivalDate.getTime() + 1), null, limit);
+            page = hibernateUtil.find("from SMSMessage m where m.sky = ? and m.arrivalDate > ? order by m.arrivalDate, m.id",
+                    new Object[] {sky, afterArrivalDate}, new Type[] {Hibernate.STRING, Hibernate.TIMESTAMP}, limit);
+        } else {
+            archived = findArchivedSMSMessages(sky, afterArrivalDate, afterId, limit);
+            page = hibernateUtil.find("from SMSMessage m where m.sky = ? and (m.arrivalDate > ? or (m.arrivalDate = ? and m.id > ?)) order by m.arrivalDate, m.id",
+                    new Object[] {sky, afterArrivalDate, afterArrivalDate, afterId}, 
+                    new Type[] {Hibernate.STRING, Hibernate.TIMESTAMP, Hibernate.TIMESTAMP, Hibernate.STRING}, limit);
+        }
+        return merge(archived, page, MESSAGE_ORDER, limit);
     }
     
     /**
-     * Locate an SMS Message by id.
+     * Walk all SMSMessages of a sky ordered by arrivalDate and id, one 
+     * page at a time. Messages of a page are evicted from the session when
+     * the next page is read, so memory use does not grow with the number 
+     * of messages.
+     * @param sky Sky identifier
+     * @param pageSize Number of messages read at a time
+     * @return Iterator of SMSMessages
+     */
+    public Iterator iterateSMSMessages(String sky, int pageSize) {
+        return new SMSMessagePageIterator(this, sky, pageSize);
+    }
+    
+    /**
+     * Visit all SMSMessages of a sky ordered by arrivalDate and id, 
+     * archived ones included. Messages are read one at a time from the 
+     * archive and from a scrollable result set, so exports and 
+     * recomputations over the whole history run in constant memory.
+     * @param sky Sky identifier
+     * @param visitor Receives the SMSMessages
+     * @return Number of messages visited
+     */
+    public int visitSMSMessages(String sky, final ResultVisitor visitor) {
+        final ArchiveMerge archived = new ArchiveMerge(MessageArchive.getInstance(sky).iterate(null, null));
+        final int[] count = new int[1];
+        hibernateUtil.scroll("from SMSMessage m where m.sky = ? order by m.arrivalDate, m.id",
+                new Object[] {sky}, new Type[] {Hibernate.STRING}, new ResultVisitor() {
+            public void visit(Object result) {
+                SMSMessage message = (SMSMessage)result;
+                if (!archived.visitBefore(message.getArrivalDate(), message.getId(), visitor)) {
+                    visitor.visit(message);
+                    count[0]++;
+                }
+            }
+        });
+        archived.visitRest(visitor);
+        return count[0] + archived.getCount();
+    }
+    
+    /**
+     * Locate an SMS Message by id. Messages loaded recently are served 
+     * from the second-level cache, and messages not found in the table 
+     * are looked up in the archives.
      * @param message
      */
     public SMSMessage findSMSMessage(String id) throws PersistentObjectNotFoundException {
-        return (SMSMessage)hibernateUtil.load(SMSMessage.class, id);
+        try {
+            return (SMSMessage)hibernateUtil.load(SMSMessage.class, id);
+        } catch (PersistentObjectNotFoundException e) {
+            for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+                SMSMessage archived = MessageArchive.getInstance((String)i.next()).find(id);
+                if (archived != null) {
+                    return archived;
+                }
+            }
+            throw e;
+        }
     }
     
     /**
-     * Locate SMS messages by message text ordered by arrivalDate.
+     * Locate SMS messages of a sky by message text ordered by arrivalDate. 
+     * The text index is used if it is loaded and the only wildcards of the
+     * pattern are a leading or trailing '%'.
+     * @param sky Sky identifier
      * @param message
      */
-    public List findSMSMessageByText(String message) {
-        return hibernateUtil.find("from SMSMessage where message like ? order by arrivalDate", message, Hibernate.STRING);
+    public List findSMSMessageByText(String sky, String message) {
+        MessageTextIndex index = MessageTextIndex.getInstance(sky);
+        if (index.isLoaded()) {
+            List ids = index.findLike(message, Integer.MAX_VALUE);
+            if (ids != null) {
+                return findSMSMessagesById(ids);
+            }
+        }
+        return hibernateUtil.find("from SMSMessage m where m.sky = ? and m.message like ? order by m.arrivalDate", 
+                new Object[] {sky, message}, new Type[] {Hibernate.STRING, Hibernate.STRING});
+    }
+    
+    /**
+     * Locate the SMS messages of a sky containing a text, ignoring case,
+     * ordered by arrivalDate.
+     * @param sky Sky identifier
+     * @param text
+     * @param limit Maximum number of messages
+     */
+    public List findSMSMessagesContaining(String sky, String text, int limit) {
+        MessageTextIndex index = MessageTextIndex.getInstance(sky);
+        if (index.isLoaded()) {
+            List ids = index.findSubstring(text, limit);
+            if (ids != null) {
+                return findSMSMessagesById(ids);
+            }
+        }
+        return hibernateUtil.find("from SMSMessage m where m.sky = ? and lower(m.message) like ? order by m.arrivalDate",
+                new Object[] {sky, "%" + text.toLowerCase() + "%"}, new Type[] {Hibernate.STRING, Hibernate.STRING}, limit);
+    }
+    
+    /**
+     * Locate the SMS messages of a sky containing a word, or a word 
+     * starting with a prefix, ignoring case, ordered by arrivalDate. 
+     * Requires the text index to be loaded.
+     * @param sky Sky identifier
+     * @param word
+     * @param prefix True to find words starting with the word
+     * @param limit Maximum number of messages
+     */
+    public List findSMSMessagesByWord(String sky, String word, boolean prefix, int limit) {
+        loadTextIndex(sky);
+        MessageTextIndex index = MessageTextIndex.getInstance(sky);
+        return findSMSMessagesById(prefix ? index.findWordPrefix(word, limit) : index.findWord(word, limit));
     }
     
     /**
-     * Locate all SMSMessages with arrival date greater than or equal
-     * to the date specified ordered by arrivalDate.
+     * List a page of the SMS messages of a region of a sky ordered by 
+     * arrivalDate and id.
+     * @param sky Sky identifier
+     * @param region Area code of the senders
+     * @param afterArrivalDate Arrival date of the last message of the 
+     * previous page, null for the first page
+     * @param afterId Id of the last message of the previous page, null to
+     * start after all the messages that arrived at afterArrivalDate
+     * @param limit Maximum number of messages
+     */
+    public List findSMSMessagesByRegion(String sky, String region, Date afterArrivalDate, String afterId, int limit) {
+        if (afterArrivalDate == null) {
+            return hibernateUtil.find("from SMSMessage m where m.sky = ? and m.region = ? order by m.arrivalDate, m.id",
+                    new Object[] {sky, region}, new Type[] {Hibernate.STRING, Hibernate.STRING}, limit);
+        }
+        if (afterId == null) {
+            return hibernateUtil.find("from SMSMessage m where m.sky = ? and m.region = ? and m.arrivalDate > ? order by m.arrivalDate, m.id",
+                    new Object[] {sky, region, afterArrivalDate}, new Type[] {Hibernate.STRING, Hibernate.STRING, Hibernate.TIMESTAMP}, limit);
+        }
+        return hibernateUtil.find("from SMSMessage m where m.sky = ? and m.region = ? and (m.arrivalDate > ? or (m.arrivalDate = ? and m.id > ?)) order by m.arrivalDate, m.id",
+                new Object[] {sky, region, afterArrivalDate, afterArrivalDate, afterId}, 
+                new Type[] {Hibernate.STRING, Hibernate.STRING, Hibernate.TIMESTAMP, Hibernate.TIMESTAMP, Hibernate.STRING}, limit);
+    }
+    
+    /**
+     * Count the SMS messages of a sky of each region that arrived in a 
+     * period, archived ones included. Messages whose region is unknown 
+     * are not counted.
+     * @param sky Sky identifier
+     * @param from Start of the period, null for no start
+     * @param to End of the period, exclusive, null for no end
+     * @return RegionCounts ordered by region
+     */
+    public List countSMSMessagesByRegion(String sky, Date from, Date to) {
+        StringBuffer query = new StringBuffer("select m.region, count(*) from SMSMessage m where m.sky = ? and m.region is not null");
+        List values = new ArrayList(3);
+        values.add(sky);
+        if (from != null) {
+            query.append(" and m.arrivalDate >= ?");
+            values.add(from);
+        }
+        if (to != null) {
+            query.append(" and m.arrivalDate < ?");
+            values.add(to);
+        }
+        query.append(" group by m.region order by m.region");
+        Type[] types = new Type[values.size()];
+        Arrays.fill(types, Hibernate.TIMESTAMP);
+        types[0] = Hibernate.STRING;
+        List rows = hibernateUtil.find(query.toString(), values.toArray(), types);
+        // counts by region, from the archive and the table
+        Map counts = new TreeMap();
+        for (Iterator i = MessageArchive.getInstance(sky).iterate(from, null); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (to != null && !message.getArrivalDate().before(to)) {
+                break;
+            }
+            if (message.getRegion() != null) {
+                addCount(counts, message.getRegion(), 1);
+            }
+        }
+        for (Iterator i = rows.iterator(); i.hasNext();) {
+            Object[] row = (Object[])i.next();
+            addCount(counts, (String)row[0], ((Number)row[1]).intValue());
+        }
+        List result = new ArrayList(counts.size());
+        for (Iterator i = counts.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry)i.next();
+            result.add(new RegionCount((String)entry.getKey(), ((int[])entry.getValue())[0]));
+        }
+        return result;
+    }
+    
+    private static void addCount(Map counts, String region, int count) {
+        int[] total = (int[])counts.get(region);
+        if (total == null) {
+            total = new int[1];
+            counts.put(region, total);
+        }
+        total[0] += count;
+    }
+    
+    /**
+     * Load the SMSMessages with the ids specified, ordered by arrivalDate.
+     */
+    private List findSMSMessagesById(List ids) {
+        List messages = new ArrayList(ids.size());
+        for (int start = 0; start < ids.size(); start += MAX_IN_PARAMETERS) {
+            List chunk = ids.subList(start, Math.min(start + MAX_IN_PARAMETERS, ids.size()));
+            StringBuffer query = new StringBuffer("from SMSMessage m where m.id in (");
+            Type[] types = new Type[chunk.size()];
+            for (int i = 0; i < types.length; i++) {
+                query.append(i == 0 ? "?" : ", ?");
+                types[i] = Hibernate.STRING;
+            }
+            query.append(")");
+            messages.addAll(hibernateUtil.find(query.toString(), chunk.toArray(), types));
+        }
+        Collections.sort(messages, MESSAGE_ORDER);
+        return messages;
+    }
+    
+    /**
+     * Locate all SMSMessages of a sky with arrival date greater than or 
+     * equal to the date specified ordered by arrivalDate, archived ones 
+     * included. The query is not cached: an old date returns as many 
+     * messages as findAllSMSMessages.
+     * @param sky Sky identifier
      * @param message
      */
-    public List findAllSMSMessagesFromArrivalDate(Date arrivalDate) {
-        return hibernateUtil.find("from SMSMessage where arrivalDate >= ? order by arrivalDate", arrivalDate, Hibernate.TIMESTAMP);
+    public List findAllSMSMessagesFromArrivalDate(String sky, Date arrivalDate) {
+        return merge(findArchivedSMSMessages(sky, arrivalDate, null, Integer.MAX_VALUE),
+                hibernateUtil.find("from SMSMessage m where m.sky = ? and m.arrivalDate >= ? order by m.arrivalDate, m.id", 
+                new Object[] {sky, arrivalDate}, new Type[] {Hibernate.STRING, Hibernate.TIMESTAMP}), 
+                MESSAGE_ORDER, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Read archived SMSMessages of a sky ordered by arrivalDate and id.
+     * @param sky Sky identifier
+     * @param afterArrivalDate Arrival date of the message to start after, 
+     * null to start from the first message
+     * @param afterId Id of the message to start after, null to include 
+     * every message that arrived on afterArrivalDate
+     * @param limit Maximum number of messages
+     */
+    private List findArchivedSMSMessages(String sky, Date afterArrivalDate, String afterId, int limit) {
+        List messages = new ArrayList();
+        for (Iterator i = MessageArchive.getInstance(sky).iterate(afterArrivalDate, afterId); i.hasNext() && messages.size() < limit;) {
+            messages.add(i.next());
+        }
+        return messages;
+    }
+    
+    /**
+     * Merge archived messages with messages read from the table, both
+     * ordered by arrivalDate and id. Messages of the table also found in 
+     * the archive, while the transaction removing them from the table 
+     * commits, are left out.
+     * @param archived Archived messages
+     * @param table Messages read from the table
+     * @param order Order of the messages
+     * @param limit Maximum number of messages
+     */
+    private static List merge(List archived, List table, Comparator order, int limit) {
+        List merged = new ArrayList(Math.min(limit, archived.size() + table.size()));
+        int i = 0;
+        int j = 0;
+        while (merged.size() < limit && (i < archived.size() || j < table.size())) {
+            int result = i == archived.size() ? 1 : (j == table.size() ? -1 : order.compare(archived.get(i), table.get(j)));
+            if (result <= 0) {
+                merged.add(archived.get(i++));
+                if (result == 0) {
+                    j++;
+                }
+            } else {
+                merged.add(table.get(j++));
+            }
+        }
+        return merged;
+    }
+    
+    /**
+     * Compare two keys of arrivalDate and id.
+     */
+    private static int compareKeys(Date arrivalDate1, String id1, Date arrivalDate2, String id2) {
+        long time1 = arrivalDate1.getTime();
+        long time2 = arrivalDate2.getTime();
+        if (time1 != time2) {
+            return time1 < time2 ? -1 : 1;
+        }
+        return id1.compareTo(id2);
+    }
+    
+    /**
+     * Leave out messages read from the table that were also found in the
+     * archive of the sky, while the transaction removing them from the 
+     * table commits.
+     */
+    private List withoutArchived(String sky, List messages) {
+        MessageArchive archive = MessageArchive.getInstance(sky);
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (archive.contains(message.getArrivalDate(), message.getId())) {
+                i.remove();
+            }
+        }
+        return messages;
+    }
+    
+    /**
+     * Locate the SMSMessages of a sky added after the cursor, ordered by
+     * sequence number. Only messages up to the high water mark of the 
+     * message sequence are returned, so a message committed later can 
+     * never have a sequence number lower than the returned cursor. The
+     * sequence is shared by all skies, so the cursors of a sky are not
+     * consecutive.
+     * @param sky Sky identifier
+     * @param cursor Cursor returned by the previous call, null to start
+     * from the first message
+     * @return SMSMessages added after the cursor and the next cursor
+     * @throws IllegalArgumentException If the cursor is invalid
+     */
+    public SMSMessageDelta findSMSMessagesAfter(String sky, String cursor) {
+        long after = 0;
+        if (cursor != null) {
+            try {
+                after = Long.parseLong(cursor);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor " + cursor + ".");
+            }
+        }
+        ensureMessageSequence();
+        long highWaterMark = MessageSequence.getInstance().getHighWaterMark();
+        if (highWaterMark <= after) {
+            return new SMSMessageDelta(new ArrayList(), String.valueOf(after));
+        }
+        String query = "from SMSMessage m where m.sky = ? and m.sequenceNumber > ? and m.sequenceNumber <= ? order by m.sequenceNumber";
+        Object[] values = new Object[] {sky, new Long(after), new Long(highWaterMark)};
+        Type[] types = new Type[] {Hibernate.STRING, Hibernate.LONG, Hibernate.LONG};
+        // without a cursor the whole sky is read, like findAllSMSMessages
+        List messages = cursor == null ? hibernateUtil.find(query, values, types) 
+                : hibernateUtil.findCached(query, values, types, QUERY_REGION);
+        MessageArchive archive = MessageArchive.getInstance(sky);
+        if (archive.getLastSequenceNumber() > after) {
+            List archived = new ArrayList();
+            for (Iterator i = archive.iterateAfterSequenceNumber(after); i.hasNext();) {
+                SMSMessage message = (SMSMessage)i.next();
+                if (message.getSequenceNumber().longValue() <= highWaterMark) {
+                    archived.add(message);
+                }
+            }
+            archived.addAll(withoutArchived(sky, messages));
+            Collections.sort(archived, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    return ((SMSMessage)o1).getSequenceNumber().compareTo(((SMSMessage)o2).getSequenceNumber());
+                }
+            });
+            messages = archived;
+        }
+        return new SMSMessageDelta(messages, String.valueOf(highWaterMark));
+    }
+    
+    /**
+     * Verify if an SMSMessage of a sky with the carrier message id 
+     * specified exists. Archived messages are only searched from a date
+     * on, as reading the whole archive is too slow; carriers redeliver 
+     * messages within hours.
+     * @param sky Sky identifier
+     * @param carrierMessageId
+     * @param archivedFrom Arrival date from which archived messages are searched
+     */
+    public boolean existsSMSMessageByCarrierMessageId(String sky, String carrierMessageId, Date archivedFrom) {
+        if (!hibernateUtil.find("select m.id from SMSMessage m where m.sky = ? and m.carrierMessageId = ?",
+                new Object[] {sky, carrierMessageId}, new Type[] {Hibernate.STRING, Hibernate.STRING}).isEmpty()) {
+            return true;
+        }
+        for (Iterator i = MessageArchive.getInstance(sky).iterate(archivedFrom, null); i.hasNext();) {
+            if (carrierMessageId.equals(((SMSMessage)i.next()).getCarrierMessageId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * List the carrier message ids of all SMSMessages of a sky with 
+     * arrival date greater than or equal to the date specified, archived
+     * ones included.
+     * @param sky Sky identifier
+     * @param arrivalDate
+     */
+    public List findCarrierMessageIdsFromArrivalDate(String sky, Date arrivalDate) {
+        List ids = hibernateUtil.find("select m.carrierMessageId from SMSMessage m where m.sky = ? and m.carrierMessageId is not null and m.arrivalDate >= ?", 
+                new Object[] {sky, arrivalDate}, new Type[] {Hibernate.STRING, Hibernate.TIMESTAMP});
+        for (Iterator i = MessageArchive.getInstance(sky).iterate(arrivalDate, null); i.hasNext();) {
+            String id = ((SMSMessage)i.next()).getCarrierMessageId();
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
     }
     
     /**
      * Add a new SMSMessage. The id of the message
      * is generated automatically if the save
-     * was successful.
+     * was successful. Messages without a sky
+     * are added to the default sky.
      * @param message
      */
     public void addSMSMessage(SMSMessage message) {
+        assignSkiesAndRegions(Collections.singletonList(message));
+        assignSequenceNumbers(Collections.singletonList(message));
 		hibernateUtil.save(message);
     }
     
+    /**
+     * Add a list of new SMSMessages in a single transaction. The 
+     * messages are inserted in JDBC batches.
+     * @param messages SMSMessages to add
+     */
+    public void addSMSMessages(List messages) {
+        assignSkiesAndRegions(messages);
+        assignSequenceNumbers(new ArrayList(messages));
+        hibernateUtil.saveAll(messages);
+    }
+    
+    /**
+     * Give the SMSMessages saved with uuid.hex ids the time-ordered ids 
+     * of TimeOrderedIdGenerator, built from their arrival dates and the 
+     * node of this process, so that they sort among the new ids in
+     * arrival order. Each message is saved again under its new id and 
+     * the old row deleted. Archived messages keep their ids.
+     * <p>
+     * Each batch starts after the largest id migrated before, read from 
+     * the database so that a restarted migration does not reuse ids. 
+     * Messages with uuid.hex ids all arrived before the first time-ordered
+     * id was generated, so the time-ordered ids up to the arrival date of 
+     * the batch were all migrated. Only one node may migrate ids.
+     * @param limit Maximum number of messages migrated
+     * @return Number of messages migrated, 0 once every message has a
+     * time-ordered id
+     */
+    public int migrateSMSMessageIds(int limit) {
+        List messages = hibernateUtil.find("from SMSMessage m where length(m.id) = ? order by m.arrivalDate, m.id",
+                new Object[] {new Integer(UUID_HEX_LENGTH)}, new Type[] {Hibernate.INTEGER}, limit);
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        int node = TimeOrderedIdGenerator.getNode();
+        synchronized (idMigrationLock) {
+            List result = hibernateUtil.find("select max(m.id) from SMSMessage m where length(m.id) = ? and m.arrivalDate <= ?",
+                    new Object[] {new Integer(TimeOrderedIdGenerator.LENGTH), ((SMSMessage)messages.get(0)).getArrivalDate()}, 
+                    new Type[] {Hibernate.INTEGER, Hibernate.TIMESTAMP});
+            String lastId = result.isEmpty() ? null : (String)result.get(0);
+            long lastMigratedId = lastId == null ? 0 : TimeOrderedIdGenerator.parse(lastId);
+            for (Iterator i = messages.iterator(); i.hasNext();) {
+                SMSMessage message = (SMSMessage)i.next();
+                long id = TimeOrderedIdGenerator.toId(message.getArrivalDate().getTime(), node, 0);
+                if (id <= lastMigratedId) {
+                    id = TimeOrderedIdGenerator.successor(lastMigratedId);
+                }
+                lastMigratedId = id;
+                SMSMessage migrated = new SMSMessage();
+                migrated.setMessage(message.getMessage());
+                migrated.setArrivalDate(message.getArrivalDate());
+                migrated.setCarrierMessageId(message.getCarrierMessageId());
+                migrated.setSequenceNumber(message.getSequenceNumber());
+                migrated.setSender(message.getSender());
+                migrated.setRegion(message.getRegion());
+                migrated.setSky(message.getSky());
+                hibernateUtil.delete(message);
+                hibernateUtil.save(migrated, TimeOrderedIdGenerator.format(id));
+            }
+        }
+        return messages.size();
+    }
+    
+    /**
+     * Initialize the message sequence with the largest sequence number 
+     * in the database. Messages saved before sequence numbers were 
+     * introduced are numbered first, in arrival order, SEQUENCE_BATCH_SIZE
+     * at a time so that the session does not hold the whole table.
+     */
+    public void initializeMessageSequence() {
+        MessageSequence sequence = MessageSequence.getInstance();
+        synchronized (sequence) {
+            if (sequence.isInitialized()) {
+                return;
+            }
+            List result = hibernateUtil.find("select max(m.sequenceNumber) from SMSMessage m");
+            long last = 0;
+            for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+                last = Math.max(last, MessageArchive.getInstance((String)i.next()).getLastSequenceNumber());
+            }
+            if (!result.isEmpty() && result.get(0) != null) {
+                last = Math.max(last, ((Long)result.get(0)).longValue());
+            }
+            List messages;
+            do {
+                // numbered messages are flushed, so the next batch starts after them
+                messages = hibernateUtil.find("from SMSMessage m where m.sequenceNumber is null order by m.arrivalDate, m.id",
+                        new Object[0], new Type[0], SEQUENCE_BATCH_SIZE);
+                for (Iterator i = messages.iterator(); i.hasNext();) {
+                    ((SMSMessage)i.next()).setSequenceNumber(new Long(++last));
+                }
+                hibernateUtil.updateAll(messages);
+            } while (messages.size() == SEQUENCE_BATCH_SIZE);
+            sequence.initialize(last);
+            MessageHub.getInstance().initialize(last);
+        }
+    }
+    
+    /**
+     * Initialize the message sequence unless it already is, so that read
+     * methods do not begin a transaction for initializeMessageSequence
+     * once it has run at startup.
+     */
+    private void ensureMessageSequence() {
+        if (!MessageSequence.getInstance().isInitialized()) {
+            initializeMessageSequence();
+        }
+    }
+    
+    /**
+     * Add new messages without a sky to the default sky and derive their
+     * region from their sender.
+     */
+    private void assignSkiesAndRegions(List messages) {
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (message.getSky() == null) {
+                message.setSky(Sky.DEFAULT);
+            }
+            if (message.getRegion() == null) {
+                message.setRegion(SenderRegion.getRegion(message.getSender()));
+            }
+        }
+    }
+    
+    /**
+     * Assign sequence numbers to messages about to be saved in the 
+     * current transaction. Once the transaction commits the messages are
+     * added to the snapshot and text index of their sky and handed to the
+     * message hub, before their sequence numbers are released.
+     */
+    private void assignSequenceNumbers(final List messages) {
+        ensureMessageSequence();
+        hibernateUtil.addTransactionListener(new TransactionListener() {
+            public void afterCompletion(boolean committed) {
+                if (committed) {
+                    for (Iterator i = Sky.group(messages).entrySet().iterator(); i.hasNext();) {
+                        Map.Entry entry = (Map.Entry)i.next();
+                        String sky = (String)entry.getKey();
+                        List skyMessages = (List)entry.getValue();
+                        SkySnapshot.getInstance(sky).add(skyMessages);
+                        MessageTextIndex index = MessageTextIndex.getInstance(sky);
+                        for (Iterator j = skyMessages.iterator(); j.hasNext();) {
+                            index.add((SMSMessage)j.next());
+                        }
+                    }
+                    MessageHub.getInstance().add(messages);
+                }
+            }
+        });
+        TransactionListener listener = MessageSequence.getInstance().assign(messages);
+        try {
+            hibernateUtil.addTransactionListener(listener);
+        } catch (RuntimeException e) {
+            listener.afterCompletion(false);
+            throw e;
+        }
+        hibernateUtil.addTransactionListener(new TransactionListener() {
+            public void afterCompletion(boolean committed) {
+                MessageHub.getInstance().advance();
+            }
+        });
+    }
+    
     /**
      * Deletes the SMSMessage.
      * @param message
      */
-    public void deleteSMSMessage(SMSMessage message) {
+    public void deleteSMSMessage(final SMSMessage message) {
 		hibernateUtil.delete(message);
+		hibernateUtil.addTransactionListener(new TransactionListener() {
+		    public void afterCompletion(boolean committed) {
+		        if (committed) {
+		            SkySnapshot.getInstance(message.getSky()).remove(message.getId());
+		            MessageTextIndex.getInstance(message.getSky()).remove(message.getId());
+		            MessageCounters.getInstance(message.getSky()).remove(message);
+		            StarSlotTable.getInstance(message.getSky()).remove(message.getId());
+		        }
+		    }
+		});
+    }
+    
+    /**
+     * Move up to ARCHIVE_SEGMENT_SIZE of the SMSMessages of a sky that 
+     * arrived before the horizon from the table to a new segment of the
+     * archive of the sky. The
+     * segment is written before the messages are deleted, and discarded
+     * if the transaction rolls back. Messages that arrive late, before
+     * messages already archived, go to the new segment as well. Messages 
+     * found in a segment, left in the table if the application stopped 
+     * before the transaction committed, are deleted without being 
+     * archived again. Archived messages are no longer found by text 
+     * searches; they are still counted and shown in the sky.
+     * @param sky Sky identifier
+     * @param horizon Arrival date of the oldest message to keep in the table
+     * @return Number of messages archived, 0 if there are no more or the
+     * archive is not open
+     */
+    public int archiveSMSMessages(final String sky, Date horizon) {
+        final MessageArchive archive = MessageArchive.getInstance(sky);
+        if (!archive.isOpen()) {
+            return 0;
+        }
+        ensureMessageSequence();
+        List messages = hibernateUtil.find("from SMSMessage m where m.sky = ? and m.arrivalDate < ? order by m.arrivalDate, m.id",
+                new Object[] {sky, horizon}, new Type[] {Hibernate.STRING, Hibernate.TIMESTAMP}, ARCHIVE_SEGMENT_SIZE);
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        List fresh = new ArrayList(messages.size());
+        final List ids = new ArrayList(messages.size());
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (!archive.contains(message.getArrivalDate(), message.getId())) {
+                fresh.add(message);
+            }
+            ids.add(message.getId());
+        }
+        File written = null;
+        if (!fresh.isEmpty()) {
+            try {
+                written = archive.write(fresh);
+            } catch (IOException e) {
+                throw new SystemRuntimeException("Failed to write archive segment.", null, e);
+            }
+        }
+        final File segment = written;
+        hibernateUtil.deleteAll(messages);
+		hibernateUtil.addTransactionListener(new TransactionListener() {
+		    public void afterCompletion(boolean committed) {
+		        if (committed) {
+		            MessageTextIndex index = MessageTextIndex.getInstance(sky);
+		            for (Iterator i = ids.iterator(); i.hasNext();) {
+		                index.remove((String)i.next());
+		            }
+		        } else if (segment != null) {
+		            try {
+		                archive.discard(segment);
+		            } catch (IOException e) {
+		                System.err.println("Failed to discard archive segment " + segment + ".");
+		                e.printStackTrace(System.err);
+		            }
+		        }
+		    }
+		});
+        return messages.size();
     }
     
     /**
      * Update the SMSMessage.
      * @param message
      */
-    public void updateSMSMessage(SMSMessage message) {
+    public void updateSMSMessage(final SMSMessage message) {
 		hibernateUtil.update(message);
+		hibernateUtil.addTransactionListener(new TransactionListener() {
+		    public void afterCompletion(boolean committed) {
+		        if (committed) {
+		            SkySnapshot.getInstance(message.getSky()).update(message);
+		            MessageTextIndex.getInstance(message.getSky()).add(message);
+		            StarSlotTable.getInstance(message.getSky()).update(message);
+		        }
+		    }
+		});
+    }
+    
+    /**
+     * Load the snapshot of a sky with its most recent SMSMessages.
+     * @param sky Sky identifier
+     */
+    public void loadSkySnapshot(String sky) {
+        SkySnapshot snapshot = SkySnapshot.getInstance(sky);
+        if (snapshot.isLoaded()) {
+            return;
+        }
+        List messages = hibernateUtil.find("from SMSMessage m where m.sky = ? order by m.arrivalDate desc, m.sequenceNumber desc",
+                new Object[] {sky}, new Type[] {Hibernate.STRING}, snapshot.getMaxMessages() + 1);
+        boolean complete = messages.size() <= snapshot.getMaxMessages();
+        if (!complete) {
+            messages = messages.subList(0, snapshot.getMaxMessages());
+        }
+        messages = new ArrayList(messages);
+        Collections.reverse(messages);
+        snapshot.load(messages, complete);
+    }
+    
+    /**
+     * Load the star slot table of a sky with its messages saved up to the
+     * cursor of the message hub.
+     * @param sky Sky identifier
+     */
+    public void loadStarSlots(String sky) {
+        StarSlotTable table = StarSlotTable.getInstance(sky);
+        if (table.isLoaded()) {
+            return;
+        }
+        ensureMessageSequence();
+        // the table is subscribed to the hub, messages after the cursor will be published to it
+        Long last = new Long(MessageHub.getInstance().getCursor());
+        List result = hibernateUtil.find("select count(m) from SMSMessage m where m.sky = ? and m.message <> '' and m.sequenceNumber <= ?", 
+                new Object[] {sky, last}, new Type[] {Hibernate.STRING, Hibernate.LONG});
+        long count = ((Number)result.get(0)).longValue();
+        List messages = hibernateUtil.find("from SMSMessage m where m.sky = ? and m.message <> '' and m.sequenceNumber <= ? order by m.sequenceNumber desc",
+                new Object[] {sky, last}, new Type[] {Hibernate.STRING, Hibernate.LONG}, table.getCapacity());
+        messages = new ArrayList(messages);
+        Collections.reverse(messages);
+        table.load(count, messages, last.longValue());
+    }
+    
+    /**
+     * Load the text index of a sky with all its SMSMessages, read one at
+     * a time and indexed a page at a time.
+     * @param sky Sky identifier
+     */
+    public void loadTextIndex(String sky) {
+        final MessageTextIndex index = MessageTextIndex.getInstance(sky);
+        // commits keep updating the index while it is loaded
+        synchronized (textIndexLock) {
+            if (index.isLoaded()) {
+                return;
+            }
+            // archived messages are not indexed
+            final MessageArchive archive = MessageArchive.getInstance(sky);
+            final List page = new ArrayList(TEXT_INDEX_PAGE_SIZE);
+            hibernateUtil.scroll("from SMSMessage m where m.sky = ? order by m.arrivalDate, m.id", new Object[] {sky}, new Type[] {Hibernate.STRING}, new ResultVisitor() {
+                public void visit(Object result) {
+                    SMSMessage message = (SMSMessage)result;
+                    if (archive.contains(message.getArrivalDate(), message.getId())) {
+                        return;
+                    }
+                    page.add(message);
+                    if (page.size() == TEXT_INDEX_PAGE_SIZE) {
+                        index.load(page);
+                        page.clear();
+                    }
+                }
+            });
+            index.load(page);
+            index.setLoaded();
+        }
+    }
+    
+    /**
+     * Load the message counters of a sky with the arrival dates of its 
+     * messages saved up to the cursor of the message hub, read one at a
+     * time and counted a page at a time.
+     * @param sky Sky identifier
+     */
+    public void loadMessageCounters(String sky) {
+        final MessageCounters counters = MessageCounters.getInstance(sky);
+        if (counters.isLoaded()) {
+            return;
+        }
+        ensureMessageSequence();
+        // the counters are subscribed to the hub, messages after the cursor will be published to them
+        Long last = new Long(MessageHub.getInstance().getCursor());
+        // archived messages first, then the messages of the table not found in the archive
+        final MessageArchive archive = MessageArchive.getInstance(sky);
+        Iterator archived = archive.iterate(null, null);
+        while (archived.hasNext()) {
+            List ids = new ArrayList();
+            List arrivalDates = new ArrayList();
+            for (int i = 0; i < COUNTERS_PAGE_SIZE && archived.hasNext(); i++) {
+                SMSMessage message = (SMSMessage)archived.next();
+                ids.add(message.getId());
+                arrivalDates.add(message.getArrivalDate());
+            }
+            counters.load(ids, arrivalDates);
+        }
+        final List ids = new ArrayList();
+        final List arrivalDates = new ArrayList();
+        ResultVisitor visitor = new ResultVisitor() {
+            public void visit(Object result) {
+                Object[] row = (Object[])result;
+                if (archive.contains((Date)row[1], (String)row[0])) {
+                    return;
+                }
+                ids.add(row[0]);
+                arrivalDates.add(row[1]);
+                if (ids.size() == COUNTERS_PAGE_SIZE) {
+                    counters.load(ids, arrivalDates);
+                    ids.clear();
+                    arrivalDates.clear();
+                }
+            }
+        };
+        hibernateUtil.scroll("select m.id, m.arrivalDate from SMSMessage m where m.sky = ? and m.sequenceNumber <= ? and m.arrivalDate is not null",
+                new Object[] {sky, last}, new Type[] {Hibernate.STRING, Hibernate.LONG}, visitor);
+        counters.load(ids, arrivalDates);
+        counters.setLoaded(last.longValue());
+    }
+    
+    /**
+     * Visits archived messages, ordered by arrivalDate and id, merged 
+     * with the messages of a scroll over the table in the same order.
+     */
+    private static class ArchiveMerge {
+        private final Iterator archived;
+        private SMSMessage next;
+        private int count = 0;
+        
+        ArchiveMerge(Iterator archived) {
+            this.archived = archived;
+            this.next = archived.hasNext() ? (SMSMessage)archived.next() : null;
+        }
+        
+        /**
+         * Visit the archived messages before a message of the table.
+         * @return true if the message of the table is archived, it is
+         * visited from the archive
+         */
+        boolean visitBefore(Date arrivalDate, String id, ResultVisitor visitor) {
+            while (next != null) {
+                int result = compareKeys(next.getArrivalDate(), next.getId(), arrivalDate, id);
+                if (result > 0) {
+                    return false;
+                }
+                visitor.visit(next);
+                count++;
+                next = archived.hasNext() ? (SMSMessage)archived.next() : null;
+                if (result == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Visit the archived messages after the last message of the table.
+         */
+        void visitRest(ResultVisitor visitor) {
+            while (next != null) {
+                visitor.visit(next);
+                count++;
+                next = archived.hasNext() ? (SMSMessage)archived.next() : null;
+            }
+        }
+        
+        /**
+         * Number of archived messages visited.
+         */
+        int getCount() {
+            return count;
+        }
     }
 }
@@ -0,0 +1,152 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time windowed index of recently accepted SMS messages. It answers the
+ * question "was this message accepted within the last N seconds?" without
+ * querying the database. Entries are kept in arrival order so that
+ * expired entries can be purged from the head of the index.
+ */
+public class DuplicateMessageIndex {
+
+    // Window in milliseconds
+    private long interval;
+    // Include the sender in the key
+    private boolean perSender;
+    // Key -> Long arrival time, oldest first
+    private LinkedHashMap entries = new LinkedHashMap();
+
+    /**
+     * Constructor.
+     * @param intervalSeconds Duplicate window in seconds
+     * @param perSender True if the same text sent by different
+     * senders should not be considered a duplicate
+     */
+    public DuplicateMessageIndex(int intervalSeconds, boolean perSender) {
+        this.interval = intervalSeconds * 1000L;
+        this.perSender = perSender;
+    }
+
+    /**
+     * Verify if the message was accepted within the duplicate window
+     * preceding the arrival date. If it was not, the message is recorded
+     * as accepted at the arrival date. The verification and the recording
+     * happen atomically so two identical messages arriving at the same time
+     * cannot both be accepted.
+     *
+     * @param message Message text
+     * @param sender Sender
+     * @param arrivalDate Arrival date of the message
+     * @return true if the message is a duplicate and should be ignored
+     */
+    public synchronized boolean isDuplicate(String message, String sender, Date arrivalDate) {
+        long time = arrivalDate.getTime();
+        Object key = getKey(message, sender);
+
+        expire(time);
+        Long last = (Long)entries.get(key);
+        if (last != null && last.longValue() > time - interval) {
+            return true;
+        }
+        record(key, time);
+        return false;
+    }
+
+    /**
+     * Record a message as accepted at the given arrival date.
+     * @param message Message text
+     * @param sender Sender
+     * @param arrivalDate Arrival date of the message
+     */
+    public synchronized void add(String message, String sender, Date arrivalDate) {
+        Object key = getKey(message, sender);
+        long time = arrivalDate.getTime();
+        Long last = (Long)entries.get(key);
+        if (last == null || last.longValue() < time) {
+            record(key, time);
+        }
+    }
+
+    /**
+     * Forget a message recorded at the given arrival date, e.g. because
+     * it could not be saved after all. Newer records are kept.
+     * @param message Message text
+     * @param sender Sender
+     * @param arrivalDate Arrival date used when the message was recorded
+     */
+    public synchronized void remove(String message, String sender, Date arrivalDate) {
+        Object key = getKey(message, sender);
+        Long last = (Long)entries.get(key);
+        if (last != null && last.longValue() == arrivalDate.getTime()) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Rebuild the index from the given list of SMSMessages, replacing
+     * any existing entries.
+     * @param messages SMSMessages ordered by arrivalDate
+     */
+    public synchronized void rebuild(List messages) {
+        entries.clear();
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage smsMessage = (SMSMessage)i.next();
+            add(smsMessage.getMessage(), smsMessage.getSender(), smsMessage.getArrivalDate());
+        }
+    }
+
+    /**
+     * Recover the duplicate window.
+     * @return Window in seconds
+     */
+    public int getInterval() {
+        return (int)(interval / 1000);
+    }
+
+    /**
+     * Number of messages currently in the index.
+     * @return Number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * (Re)insert the key so that it becomes the youngest entry.
+     */
+    private void record(Object key, long time) {
+        entries.remove(key);
+        entries.put(key, new Long(time));
+    }
+
+    /**
+     * Remove entries older than the duplicate window. Entries are
+     * ordered by arrival so we can stop at the first young entry.
+     */
+    private void expire(long now) {
+        long lowerLimit = now - interval;
+        for (Iterator i = entries.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry)i.next();
+            if (((Long)entry.getValue()).longValue() > lowerLimit) {
+                break;
+            }
+            i.remove();
+        }
+    }
+
+    private Object getKey(String message, String sender) {
+        String key = String.valueOf(message);
+        if (perSender) {
+            key = sender + "\u0000" + key;
+        }
+        return key;
+    }
+}
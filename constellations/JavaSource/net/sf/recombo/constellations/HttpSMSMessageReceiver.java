@@ -3,10 +3,17 @@
  */
 package net.sf.recombo.constellations;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -14,21 +21,184 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.sf.recombo.common.ControllerFactory;
+import net.sf.recombo.common.persistence.DataPersistenceException;
+import net.sf.recombo.common.persistence.HibernateUtil;
+import net.sf.recombo.common.persistence.LRUCache;
+import net.sf.recombo.common.persistence.LRUCacheProvider;
 
 
 /**
+ * Messages are received into the sky named by the optional sky request 
+ * parameter, or the default sky. Requests for skies that are not served
+ * are answered with 400 (Bad Request).
  * @author Devendra Tewari
  */
 public class HttpSMSMessageReceiver extends HttpServlet {
     
     private static final int DUPLICATE_MESSAGE_IGNORE_INTERVAL = 5; // seconds 
+    private static final int SENDER_MESSAGES_PER_MINUTE = 10;
+    private static final int SENDER_BURST = 5; // messages
+    
+    private static final int CARRIER_MESSAGE_ID_CAPACITY = 1000000; // ids per filter generation
+    private static final double CARRIER_MESSAGE_ID_FALSE_POSITIVE_RATE = 0.01;
+    private static final int CARRIER_MESSAGE_ID_RECENT_INTERVAL = 300; // seconds
+    private static final int CARRIER_MESSAGE_ID_SEED_PERIOD = 24; // hours
+    private static final int MAX_CARRIER_MESSAGE_ID_LENGTH = 64;
+    
+    private static final int WRITER_BATCH_SIZE = 50;
+    private static final int WRITER_BATCH_LINGER = 100; // milliseconds
+    private static final int WRITER_QUEUE_CAPACITY = 1000;
+    private static final int WRITER_QUEUE_TIMEOUT = 1000; // milliseconds
+    private static final int JOURNAL_SIZE = 4 * 1024 * 1024; // bytes
+    private static final String JOURNAL_FILE = "messages.journal";
+    
+    private static final int BULK_MAX_MESSAGES = 500;
+    private static final int BULK_MAX_LINE_LENGTH = 1024; // characters
+    
+    private static final int MAX_CONCURRENT_REQUESTS = 10;
+    private static final int MAX_QUEUED_REQUESTS = 50;
+    private static final int REQUEST_QUEUE_TIMEOUT = 2000; // milliseconds
+    private static final int RETRY_AFTER = 5; // seconds
+    
+    // Message status returned to the sender
+    private static final String OK = "OK";
+    private static final String IGNORED = "IGNORED";
+    private static final String ERROR = "ERROR";
         
     private static ConstellationController constellationController;
     
+    // DuplicateMessageIndex by sky
+    private static Map duplicateMessageIndexes;
+    
+    // Per sender rate limiter, null if senders are not limited
+    private static SenderRateLimiter senderRateLimiter;
+    
+    // Detects messages redelivered with the same carrier message id
+    // CarrierMessageIdFilters by sky
+    private static Map carrierMessageIdFilters;
+    // Hours of carrier message ids that may still be redelivered
+    private static int carrierMessageIdSeedPeriod;
+    
+    // Group commit writer, null if messages are saved synchronously
+    private static SMSMessageWriter writer;
+    // Write-ahead journal used by the writer, may be null
+    private static MessageJournal journal;
+    // Milliseconds a request waits for room in the writer queue
+    private static int writerQueueTimeout;
+    
+    // Maximum number of messages accepted in a bulk request
+    private static int bulkMaxMessages;
+    
+    // Limits the number of requests processed concurrently
+    private static AdmissionControl admissionControl;
+    // Seconds after which a rejected request should be retried
+    private static int retryAfter;
+    
     public HttpSMSMessageReceiver() {
         constellationController = (ConstellationController)ControllerFactory.getController(ConstellationController.class);
     }
 
+    /**
+     * Read the receiver configuration from the servlet init parameters
+     * and rebuild the duplicate message index of each sky from the 
+     * messages received within the duplicate window.
+     */
+    public void init() throws ServletException {
+        int interval = getIntParameter("duplicateMessageIgnoreInterval", DUPLICATE_MESSAGE_IGNORE_INTERVAL);
+        boolean perSender = getBooleanParameter("duplicateMessagePerSender", false);
+        
+        duplicateMessageIndexes = new HashMap();
+        for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+            duplicateMessageIndexes.put(i.next(), new DuplicateMessageIndex(interval, perSender));
+        }
+        
+        int messagesPerMinute = getIntParameter("senderMessagesPerMinute", SENDER_MESSAGES_PER_MINUTE);
+        if (messagesPerMinute > 0) {
+            senderRateLimiter = new SenderRateLimiter(messagesPerMinute, 
+                    getIntParameter("senderBurst", SENDER_BURST));
+        }
+        int carrierMessageIdCapacity = getIntParameter("carrierMessageIdCapacity", CARRIER_MESSAGE_ID_CAPACITY);
+        int carrierMessageIdRecentInterval = getIntParameter("carrierMessageIdRecentInterval", CARRIER_MESSAGE_ID_RECENT_INTERVAL);
+        carrierMessageIdFilters = new HashMap();
+        for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+            carrierMessageIdFilters.put(i.next(), new CarrierMessageIdFilter(carrierMessageIdCapacity,
+                    CARRIER_MESSAGE_ID_FALSE_POSITIVE_RATE, carrierMessageIdRecentInterval));
+        }
+        carrierMessageIdSeedPeriod = getIntParameter("carrierMessageIdSeedPeriod", CARRIER_MESSAGE_ID_SEED_PERIOD);
+        try {
+            Date lowerLimit = new Date(System.currentTimeMillis() - interval * 1000L);
+            constellationController.initializeMessageSequence();
+            for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+                String sky = (String)i.next();
+                constellationController.loadSkySnapshot(sky);
+                getDuplicateMessageIndex(sky).rebuild(constellationController.findAllSMSMessagesFromArrivalDate(sky, lowerLimit));
+            }
+            
+            // seed the filters with the ids of messages that may still be redelivered
+            lowerLimit = getCarrierMessageIdSeedLimit();
+            for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+                String sky = (String)i.next();
+                CarrierMessageIdFilter filter = getCarrierMessageIdFilter(sky);
+                List ids = constellationController.findCarrierMessageIdsFromArrivalDate(sky, lowerLimit);
+                for (Iterator j = ids.iterator(); j.hasNext();) {
+                    filter.add((String)j.next());
+                }
+            }
+        } finally {
+            HibernateUtil.getInstance().closeSession();
+        }
+        
+        bulkMaxMessages = getIntParameter("bulkMaxMessages", BULK_MAX_MESSAGES);
+        
+        admissionControl = new AdmissionControl(
+                getIntParameter("maxConcurrentRequests", MAX_CONCURRENT_REQUESTS),
+                getIntParameter("maxQueuedRequests", MAX_QUEUED_REQUESTS),
+                getIntParameter("requestQueueTimeout", REQUEST_QUEUE_TIMEOUT));
+        retryAfter = getIntParameter("retryAfter", RETRY_AFTER);
+        
+        if ("async".equals(getInitParameter("ingestMode"))) {
+            writer = new SMSMessageWriter(constellationController,
+                    getIntParameter("writerBatchSize", WRITER_BATCH_SIZE),
+                    getIntParameter("writerBatchLinger", WRITER_BATCH_LINGER),
+                    getIntParameter("writerQueueCapacity", WRITER_QUEUE_CAPACITY));
+            writerQueueTimeout = getIntParameter("writerQueueTimeout", WRITER_QUEUE_TIMEOUT);
+            String journalDirectory = getInitParameter("journalDirectory");
+            if (journalDirectory != null && journalDirectory.trim().length() > 0) {
+                // the directory is relative to the web application, unless
+                // the application is not deployed as a directory
+                String path = getServletContext().getRealPath(journalDirectory.trim());
+                File directory = new File(path != null ? path : journalDirectory.trim());
+                directory.mkdirs();
+                try {
+                    journal = new MessageJournal(new File(directory, JOURNAL_FILE),
+                            getIntParameter("journalSize", JOURNAL_SIZE));
+                } catch (IOException e) {
+                    throw new ServletException("Failed to open message journal in " + directory + ".", e);
+                }
+                writer.setJournal(journal);
+            }
+            writer.start();
+        }
+    }
+    
+    /**
+     * Write any queued messages before the servlet is taken out of service.
+     */
+    public void destroy() {
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+            journal = null;
+        }
+    }
+
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
         process(req, resp);
@@ -40,55 +210,451 @@ public class HttpSMSMessageReceiver extends HttpServlet {
     
     private void process(HttpServletRequest req, HttpServletResponse resp) 
     		throws ServletException, IOException {
+        String path = req.getPathInfo();
+        if (path == null || path.equals("/")) {
+            if (admit(resp)) {
+                try {
+                    receiveMessage(req, resp);
+                } finally {
+                    release();
+                }
+            }
+        } else if (path.equals("/bulk")) {
+            if (!"POST".equals(req.getMethod())) {
+                resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            } else if (admit(resp)) {
+                try {
+                    receiveMessages(req, resp);
+                } finally {
+                    release();
+                }
+            }
+        } else if (path.equals("/status")) {
+            writeStatus(resp);
+        } else {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+    
+    /**
+     * Admit the request for processing or answer it with 503 (Service 
+     * Unavailable) and a Retry-After header, so that the gateway retries
+     * later instead of waiting for a database connection. Requests are
+     * not admitted while the writer keeps failing to save a message.
+     * @return true if the request was admitted
+     */
+    private boolean admit(HttpServletResponse resp) throws IOException {
+        if ((writer == null || !writer.isFailing()) && admissionControl.acquire()) {
+            return true;
+        }
+        writeBusy(resp);
+        return false;
+    }
+    
+    /**
+     * Answer a request with 503 (Service Unavailable) and a Retry-After
+     * header.
+     */
+    private void writeBusy(HttpServletResponse resp) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        resp.setIntHeader("Retry-After", retryAfter);
+        resp.setContentType("text/plain");
+        PrintWriter out = new PrintWriter(resp.getOutputStream());
+        out.write("BUSY");
+        out.flush();
+    }
+    
+    /**
+     * Close the Hibernate session used by an admitted request and
+     * let the next request in.
+     */
+    private void release() {
+        try {
+            HibernateUtil.getInstance().closeSession();
+        } finally {
+            admissionControl.release();
+        }
+    }
+    
+    /**
+     * Write the receiver counters and the statistics of the second-level
+     * cache regions, one name=value pair per line.
+     */
+    private void writeStatus(HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain");
+        PrintWriter out = new PrintWriter(resp.getOutputStream());
+        out.write("inFlight=" + admissionControl.getInFlight() + "\n");
+        out.write("queued=" + admissionControl.getQueued() + "\n");
+        out.write("admitted=" + admissionControl.getAdmitted() + "\n");
+        out.write("rejected=" + admissionControl.getRejected() + "\n");
+        if (senderRateLimiter != null) {
+            out.write("senders=" + senderRateLimiter.getSenderCount() + "\n");
+            out.write("rateLimited=" + senderRateLimiter.getLimited() + "\n");
+        }
+        int carrierMessageIds = 0;
+        for (Iterator i = carrierMessageIdFilters.values().iterator(); i.hasNext();) {
+            carrierMessageIds += ((CarrierMessageIdFilter)i.next()).size();
+        }
+        out.write("carrierMessageIds=" + carrierMessageIds + "\n");
+        if (writer != null) {
+            out.write("writerRunning=" + writer.isRunning() + "\n");
+            out.write("writerFailing=" + writer.isFailing() + "\n");
+            out.write("writerQueueSize=" + writer.getQueueSize() + "\n");
+        }
+        if (journal != null) {
+            out.write("journalPending=" + journal.getPendingCount() + "\n");
+        }
+        for (Iterator i = LRUCacheProvider.getCaches().values().iterator(); i.hasNext();) {
+            LRUCache cache = (LRUCache)i.next();
+            String prefix = "cache." + cache.getRegionName() + ".";
+            out.write(prefix + "size=" + cache.getSize() + "\n");
+            out.write(prefix + "hits=" + cache.getHits() + "\n");
+            out.write(prefix + "misses=" + cache.getMisses() + "\n");
+            out.write(prefix + "evictions=" + cache.getEvictions() + "\n");
+        }
+        out.flush();
+    }
+    
+    /**
+     * Receive a single message specified by the message and sender
+     * request parameters. The optional carrierMessageId parameter is
+     * used to ignore messages redelivered by the carrier.
+     */
+    private void receiveMessage(HttpServletRequest req, HttpServletResponse resp) 
+            throws ServletException, IOException {
+        String sky = getSky(req, resp);
+        if (sky == null) {
+            return;
+        }
         resp.setContentType("text/plain");
         
         boolean ignoreMessage = false;
         SMSMessage smsMessage;
-        List list;
         Calendar currentDate = Calendar.getInstance();
-        Calendar lowerLimit;
-        Calendar messageArrivalDate;
         String message = req.getParameter("message");
         String sender = req.getParameter("sender");
+        String carrierMessageId = getCarrierMessageId(req.getParameter("carrierMessageId"));
         PrintWriter out = new PrintWriter(resp.getOutputStream());
         
-        // Query messages to see if our message is a duplicate
-        // message.
-        list = constellationController.findSMSMessageByText(message);
-        if (!list.isEmpty()) {
-            // There is a message with the same text.
-            // Verify if it was received within the last
-            // DUPLICATE_MESSAGE_IGNORE_INTERVAL seconds.
-            smsMessage = (SMSMessage)list.get(list.size() - 1); // last message
-
-            lowerLimit = Calendar.getInstance();
-            lowerLimit.set(currentDate.get(Calendar.YEAR), currentDate
-                    .get(Calendar.MONTH), currentDate
-                    .get(Calendar.DAY_OF_MONTH), currentDate
-                    .get(Calendar.HOUR_OF_DAY), currentDate
-                    .get(Calendar.MINUTE), currentDate.get(Calendar.SECOND)
-                    - DUPLICATE_MESSAGE_IGNORE_INTERVAL);
-            
-            messageArrivalDate = Calendar.getInstance();
-            messageArrivalDate.setTime(smsMessage.getArrivalDate());
-            
-            if (messageArrivalDate.after(lowerLimit)) ignoreMessage = true;
+        if (carrierMessageId != null && carrierMessageId.length() > MAX_CARRIER_MESSAGE_ID_LENGTH) {
+            out.write(ERROR + " [" + sender + ": " + message + "]");
+            out.flush();
+            return;
         }
         
+        ignoreMessage = !accept(sky, message, sender, carrierMessageId, currentDate.getTime());
+        
         if (ignoreMessage) {
-            out.write("IGNORED [" + sender + ": " + message + "]");
+            out.write(IGNORED + " [" + sender + ": " + message + "]");
         } else {
             // Save message.
-            smsMessage = new SMSMessage();
-            smsMessage.setMessage(message);
-            smsMessage.setArrivalDate(currentDate.getTime());
-            smsMessage.setSender(sender);
+            smsMessage = createSMSMessage(sky, message, sender, carrierMessageId, currentDate.getTime());
+            List messages = new ArrayList(1);
+            messages.add(smsMessage);
+            if (!save(messages)) {
+                writeBusy(resp);
+                return;
+            }
             
-            constellationController.addSMSMessage(smsMessage);
-            
-            out.write("OK [" + sender + ": " + message + "]");
+            out.write(OK + " [" + sender + ": " + message + "]");
+        }
+        
+        out.flush();
+    }
+    
+    /**
+     * Receive many messages in the body of a POST request. Each line of
+     * the body contains the sender and the message separated by a tab,
+     * optionally followed by a tab and the carrier message id. 
+     * Duplicates are ignored and the remaining messages are saved in a 
+     * single transaction; if it fails in sync mode they are saved one 
+     * by one. One status line (OK, IGNORED or ERROR) is written per 
+     * input line, in the order of the input. The sky request parameter 
+     * applies to all the messages. A body with more than bulkMaxMessages
+     * lines, or a line longer than BULK_MAX_LINE_LENGTH, is answered 
+     * with 413 (Request Entity Too Large) as soon as it is read that far.
+     */
+    private void receiveMessages(HttpServletRequest req, HttpServletResponse resp) 
+            throws ServletException, IOException {
+        String sky = getSky(req, resp);
+        if (sky == null) {
+            return;
+        }
+        resp.setContentType("text/plain");
+        
+        BulkMessageReader reader = new BulkMessageReader(req.getReader(), bulkMaxMessages, BULK_MAX_LINE_LENGTH);
+        List lines = new ArrayList();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        if (reader.isExceeded()) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "At most " + bulkMaxMessages 
+                    + " lines of " + BULK_MAX_LINE_LENGTH + " characters are accepted.");
+            return;
+        }
+        
+        Date currentDate = new Date();
+        List statuses = new ArrayList(lines.size());
+        List accepted = new ArrayList();
+        // Index of the line of each accepted message
+        List acceptedLines = new ArrayList();
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = BulkMessageReader.parse((String)lines.get(i), MAX_CARRIER_MESSAGE_ID_LENGTH);
+            if (fields == null) {
+                statuses.add(ERROR);
+            } else if (!accept(sky, fields[1], fields[0], fields[2], currentDate)) {
+                statuses.add(IGNORED);
+            } else {
+                accepted.add(createSMSMessage(sky, fields[1], fields[0], fields[2], currentDate));
+                acceptedLines.add(new Integer(i));
+                statuses.add(OK);
+            }
+        }
+        
+        try {
+            if (!save(accepted)) {
+                writeBusy(resp);
+                return;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("HttpSMSMessageReceiver: failed to save " + accepted.size() + " messages.");
+            e.printStackTrace(System.err);
+            HibernateUtil.getInstance().closeSession();
+            for (int i = 0; i < accepted.size(); i++) {
+                // nothing is queued if the writer fails, in sync mode each message is tried again
+                if (writer != null || !saveOne((SMSMessage)accepted.get(i))) {
+                    statuses.set(((Integer)acceptedLines.get(i)).intValue(), ERROR);
+                }
+            }
         }
         
+        PrintWriter out = new PrintWriter(resp.getOutputStream());
+        for (int i = 0; i < lines.size(); i++) {
+            line = (String)lines.get(i);
+            int tab = line.indexOf('\t');
+            if (tab >= 0) {
+                int idTab = line.lastIndexOf('\t');
+                if (idTab > tab) {
+                    line = line.substring(0, idTab);
+                }
+                line = line.substring(0, tab) + ": " + line.substring(tab + 1);
+            }
+            out.write(statuses.get(i) + " [" + line + "]\n");
+        }
         out.flush();
     }
+    
+    /**
+     * Save a single message in sync mode, after the transaction saving it
+     * with others failed and it was removed from the duplicate message 
+     * index.
+     * @return false if the message could not be saved
+     */
+    private boolean saveOne(SMSMessage smsMessage) throws ServletException {
+        try {
+            save(Collections.singletonList(smsMessage));
+            getDuplicateMessageIndex(smsMessage.getSky()).add(smsMessage.getMessage(), smsMessage.getSender(), smsMessage.getArrivalDate());
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("HttpSMSMessageReceiver: failed to save [" + smsMessage.getSender() + ": " + smsMessage.getMessage() + "]");
+            e.printStackTrace(System.err);
+            return false;
+        } finally {
+            HibernateUtil.getInstance().closeSession();
+        }
+    }
+    
+    /**
+     * Read the sky of a request, answering it with 400 (Bad Request) if 
+     * the sky is not served.
+     * @return Sky identifier, null if the request was answered
+     */
+    private String getSky(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        try {
+            return Sky.check(req.getParameter("sky"));
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+    }
+    
+    private DuplicateMessageIndex getDuplicateMessageIndex(String sky) {
+        return (DuplicateMessageIndex)duplicateMessageIndexes.get(sky);
+    }
+    
+    /**
+     * Decide if a message should be saved. Messages from senders over
+     * their rate limit are ignored, as are messages redelivered with a
+     * carrier message id seen before and messages with the same text 
+     * received in the same sky within the last 
+     * DUPLICATE_MESSAGE_IGNORE_INTERVAL seconds.
+     * @return true if the message should be saved
+     */
+    private boolean accept(String sky, String message, String sender, String carrierMessageId, Date arrivalDate) {
+        if (senderRateLimiter != null && sender != null 
+                && !senderRateLimiter.tryAcquire(sender, arrivalDate.getTime())) {
+            return false;
+        }
+        if (carrierMessageId != null && isRedelivery(sky, carrierMessageId, arrivalDate)) {
+            return false;
+        }
+        return !getDuplicateMessageIndex(sky).isDuplicate(message, sender, arrivalDate);
+    }
+    
+    /**
+     * Verify if a message with the carrier message id was received before
+     * in the sky. The database, and the archive for the messages that 
+     * arrived within carrierMessageIdSeedPeriod, are only queried if the 
+     * filter cannot tell.
+     */
+    private boolean isRedelivery(String sky, String carrierMessageId, Date arrivalDate) {
+        switch (getCarrierMessageIdFilter(sky).check(carrierMessageId, arrivalDate)) {
+        case CarrierMessageIdFilter.NEW:
+            return false;
+        case CarrierMessageIdFilter.DUPLICATE:
+            return true;
+        default:
+            return constellationController.existsSMSMessageByCarrierMessageId(sky, carrierMessageId, 
+                    getCarrierMessageIdSeedLimit());
+        }
+    }
+    
+    /**
+     * Recover the carrier message id filter of a sky.
+     */
+    private CarrierMessageIdFilter getCarrierMessageIdFilter(String sky) {
+        return (CarrierMessageIdFilter)carrierMessageIdFilters.get(sky);
+    }
+    
+    /**
+     * Arrival date of the oldest messages that may still be redelivered.
+     */
+    private Date getCarrierMessageIdSeedLimit() {
+        return new Date(System.currentTimeMillis() - carrierMessageIdSeedPeriod * 3600000L);
+    }
+    
+    /**
+     * Normalize the carrier message id, null if absent.
+     */
+    private String getCarrierMessageId(String carrierMessageId) {
+        if (carrierMessageId == null || carrierMessageId.trim().length() == 0) {
+            return null;
+        }
+        return carrierMessageId.trim();
+    }
+    
+    /**
+     * Create a new SMSMessage.
+     */
+    private SMSMessage createSMSMessage(String sky, String message, String sender, String carrierMessageId, Date arrivalDate) {
+        SMSMessage smsMessage = new SMSMessage();
+        smsMessage.setSky(sky);
+        smsMessage.setMessage(message);
+        smsMessage.setArrivalDate(arrivalDate);
+        smsMessage.setSender(sender);
+        smsMessage.setCarrierMessageId(carrierMessageId);
+        return smsMessage;
+    }
+    
+    /**
+     * Save accepted messages in a single transaction or queue them for
+     * the writer in async mode. In async mode with a journal the messages 
+     * are durable once this method returns. If the messages cannot be 
+     * saved they are removed from the duplicate message index so that the 
+     * sender can retry within the duplicate window.
+     * @param messages SMSMessages accepted
+     * @return false if the writer queue stayed full for writerQueueTimeout
+     * or the writer is not running, the messages were not saved and the
+     * request should be retried
+     */
+    private boolean save(List messages) throws ServletException {
+        if (messages.isEmpty()) {
+            return true;
+        }
+        try {
+            if (writer != null) {
+                if (!queue(messages)) {
+                    forget(messages);
+                    return false;
+                }
+            } else if (messages.size() == 1) {
+                constellationController.addSMSMessage((SMSMessage)messages.get(0));
+            } else {
+                constellationController.addSMSMessages(messages);
+            }
+        } catch (InterruptedException e) {
+            forget(messages);
+            throw new ServletException(e);
+        } catch (IOException e) {
+            forget(messages);
+            throw new DataPersistenceException(e);
+        } catch (RuntimeException e) {
+            forget(messages);
+            throw e;
+        }
+        return true;
+    }
+    
+    /**
+     * Queue messages for the writer.
+     * @return false if the writer queue stayed full for writerQueueTimeout
+     * or the writer has been shut down
+     */
+    private boolean queue(List messages) throws IOException, InterruptedException {
+        if (!writer.isRunning()) {
+            return false;
+        }
+        try {
+            return writer.add(messages, writerQueueTimeout);
+        } catch (IllegalStateException e) {
+            // shut down since isRunning
+            return false;
+        }
+    }
+    
+    /**
+     * Remove messages from the duplicate message index.
+     */
+    private void forget(List messages) {
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage smsMessage = (SMSMessage)i.next();
+            getDuplicateMessageIndex(smsMessage.getSky()).remove(smsMessage.getMessage(), smsMessage.getSender(), smsMessage.getArrivalDate());
+            if (smsMessage.getCarrierMessageId() != null) {
+                getCarrierMessageIdFilter(smsMessage.getSky()).remove(smsMessage.getCarrierMessageId(), smsMessage.getArrivalDate());
+            }
+        }
+    }
+    
+    /**
+     * Read an integer servlet init parameter.
+     * @param name Parameter name
+     * @param defaultValue Value used if the parameter is not specified
+     * @return Parameter value
+     */
+    private int getIntParameter(String name, int defaultValue) throws ServletException {
+        String value = getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value for init parameter " + name + ": " + value, e);
+        }
+    }
+    
+    /**
+     * Read a boolean servlet init parameter.
+     * @param name Parameter name
+     * @param defaultValue Value used if the parameter is not specified
+     * @return Parameter value
+     */
+    private boolean getBooleanParameter(String name, boolean defaultValue) {
+        String value = getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return Boolean.valueOf(value.trim()).booleanValue();
+    }
 }
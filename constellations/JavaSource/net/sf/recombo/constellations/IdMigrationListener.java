@@ -0,0 +1,47 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import net.sf.recombo.common.ControllerFactory;
+import net.sf.recombo.common.persistence.HibernateUtil;
+
+/**
+ * Gives the SMSMessages saved with uuid.hex ids time-ordered ids when the
+ * web application starts, before the servlets and the ServiceFacade load
+ * any messages. Only one node sharing the database may migrate ids; the
+ * others must set the migrateIds context parameter to false.
+ */
+public class IdMigrationListener implements ServletContextListener {
+    private static final int BATCH_SIZE = 1000;
+
+    public void contextInitialized(ServletContextEvent event) {
+        if ("false".equals(event.getServletContext().getInitParameter("migrateIds"))) {
+            return;
+        }
+        ConstellationController constellationController =
+            (ConstellationController)ControllerFactory.getController(ConstellationController.class);
+        int total = 0;
+        try {
+            int migrated;
+            while ((migrated = constellationController.migrateSMSMessageIds(BATCH_SIZE)) > 0) {
+                total += migrated;
+                HibernateUtil.getInstance().closeSession();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("IdMigrationListener: failed to migrate message ids, " + total + " messages were migrated.");
+            e.printStackTrace(System.err);
+        } finally {
+            HibernateUtil.getInstance().closeSession();
+        }
+        if (total > 0) {
+            System.out.println("IdMigrationListener: migrated the ids of " + total + " messages.");
+        }
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+    }
+}
@@ -0,0 +1,726 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.sf.recombo.common.SystemRuntimeException;
+
+/**
+ * Archive of old SMSMessages, moved out of the SMSMessage table by
+ * ConstellationController.archiveSMSMessages so that the table, and the
+ * database script replayed at startup, do not grow without bound. Archived
+ * messages are kept in immutable segment files ordered by arrivalDate and
+ * id. Segments are usually consecutive, but messages saved late, with an
+ * arrival date before already archived messages, are archived in a later
+ * segment that overlaps the earlier ones; iterations merge the segments.
+ * Whether a message was archived is decided by looking its id up in the
+ * segments, never by its position relative to the archived messages.
+ * <p>
+ * Layout of a segment:
+ * <pre>
+ * blocks: BLOCK_SIZE records per block, each block compressed on its own
+ * record: UTF id, long arrivalDate, long sequenceNumber (0 if none), UTF message,
+ *         then carrierMessageId, sender and region as boolean present, [UTF value]
+ * index: int block count,
+ *        per block: long offset, int length, int count, long arrivalDate, UTF id of its first message,
+ *                   UTF lowest and highest id of its messages,
+ *        long lowest and highest sequence number, long arrivalDate, UTF id of the last message
+ * trailer: long index offset, int MAGIC
+ * </pre>
+ * The index is sparse, one entry per block, and is kept in memory. A
+ * range is read by locating the block holding its first message and
+ * decompressing the blocks from there. A message is looked up by its
+ * arrival date and id in the block holding that key, or by its id alone
+ * in the blocks whose lowest and highest ids surround it. Time-ordered
+ * ids grow with the time the message was saved, so the id ranges of the
+ * blocks rarely overlap and a lookup reads one block at most.
+ */
+public class MessageArchive {
+    static final int BLOCK_SIZE = 256;
+    private static final int MAGIC = 0x534d5341; // SMSA
+    private static final String SUFFIX = ".segment";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    // Instance of each sky (String)
+    private static Map instances = new HashMap();
+    // Orders segments by their first message
+    private static final Comparator FIRST_MESSAGE_ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            Segment s1 = (Segment)o1;
+            Segment s2 = (Segment)o2;
+            return MessageArchive.compare(s1.firstArrivalDates[0], s1.firstIds[0], s2.firstArrivalDates[0], s2.firstIds[0]);
+        }
+    };
+
+    /**
+     * Archived segment and its sparse index.
+     */
+    private static class Segment {
+        File file;
+        RandomAccessFile input;
+        long[] offsets;
+        int[] lengths;
+        int[] counts;
+        long[] firstArrivalDates;
+        String[] firstIds;
+        String[] lowestIds;
+        String[] highestIds;
+        long minSequenceNumber;
+        long maxSequenceNumber;
+        long lastArrivalDate;
+        String lastId;
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            input = new RandomAccessFile(file, "r");
+            try {
+                long length = input.length();
+                if (length < 12) {
+                    throw new IOException("Truncated archive segment " + file + ".");
+                }
+                input.seek(length - 12);
+                long indexOffset = input.readLong();
+                if (input.readInt() != MAGIC || indexOffset < 0 || indexOffset > length - 12) {
+                    throw new IOException("Invalid archive segment " + file + ".");
+                }
+                byte[] index = new byte[(int)(length - 12 - indexOffset)];
+                input.seek(indexOffset);
+                input.readFully(index);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+                int blocks = in.readInt();
+                offsets = new long[blocks];
+                lengths = new int[blocks];
+                counts = new int[blocks];
+                firstArrivalDates = new long[blocks];
+                firstIds = new String[blocks];
+                lowestIds = new String[blocks];
+                highestIds = new String[blocks];
+                for (int i = 0; i < blocks; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    counts[i] = in.readInt();
+                    firstArrivalDates[i] = in.readLong();
+                    firstIds[i] = in.readUTF();
+                    lowestIds[i] = in.readUTF();
+                    highestIds[i] = in.readUTF();
+                }
+                minSequenceNumber = in.readLong();
+                maxSequenceNumber = in.readLong();
+                lastArrivalDate = in.readLong();
+                lastId = in.readUTF();
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Locate the first block that may hold messages after a key.
+         */
+        int findBlock(long arrivalDate, String id) {
+            int low = 0;
+            int high = firstIds.length - 1;
+            int found = 0;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (compare(firstArrivalDates[middle], firstIds[middle], arrivalDate, id) <= 0) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Verify if a key is between the first and the last message.
+         */
+        boolean spans(long arrivalDate, String id) {
+            return compare(firstArrivalDates[0], firstIds[0], arrivalDate, id) <= 0
+                    && compare(arrivalDate, id, lastArrivalDate, lastId) <= 0;
+        }
+
+        /**
+         * Read the message with an arrival date and id from the only
+         * block that may hold it.
+         * @return SMSMessage, null if the segment does not hold it
+         */
+        SMSMessage find(long arrivalDate, String id) throws IOException {
+            if (!spans(arrivalDate, id)) {
+                return null;
+            }
+            return find(findBlock(arrivalDate, id), id);
+        }
+
+        /**
+         * Read the message with an id from the blocks whose id range
+         * holds it.
+         * @return SMSMessage, null if the segment does not hold it
+         */
+        SMSMessage find(String id) throws IOException {
+            for (int i = 0; i < counts.length; i++) {
+                if (lowestIds[i].compareTo(id) <= 0 && id.compareTo(highestIds[i]) <= 0) {
+                    SMSMessage message = find(i, id);
+                    if (message != null) {
+                        return message;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private SMSMessage find(int block, String id) throws IOException {
+            for (Iterator i = readBlock(block).iterator(); i.hasNext();) {
+                SMSMessage message = (SMSMessage)i.next();
+                if (message.getId().equals(id)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        List readBlock(int block) throws IOException {
+            byte[] compressed = new byte[lengths[block]];
+            synchronized (this) {
+                input.seek(offsets[block]);
+                input.readFully(compressed);
+            }
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+            List messages = new ArrayList(counts[block]);
+            for (int i = 0; i < counts[block]; i++) {
+                messages.add(decode(in));
+            }
+            return messages;
+        }
+
+        synchronized void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Position of an iteration in a segment.
+     */
+    private static class SegmentCursor {
+        private Segment segment;
+        private int block;
+        private List messages;
+        private int index = 0;
+        // Next message of the segment in the iteration, null at the end
+        SMSMessage next;
+
+        SegmentCursor(Segment segment, int block) throws IOException {
+            this.segment = segment;
+            this.block = block;
+            messages = segment.readBlock(block);
+        }
+
+        /**
+         * Move to the next message after a key and a sequence number.
+         * @return false at the end of the segment
+         */
+        boolean advance(long afterArrivalDate, String afterId, long afterSequenceNumber) throws IOException {
+            next = null;
+            while (next == null) {
+                if (index < messages.size()) {
+                    SMSMessage message = (SMSMessage)messages.get(index++);
+                    long sequenceNumber = message.getSequenceNumber() == null ? 0 : message.getSequenceNumber().longValue();
+                    if (sequenceNumber > afterSequenceNumber
+                            && compare(message.getArrivalDate().getTime(), message.getId(), afterArrivalDate, afterId) > 0) {
+                        next = message;
+                    }
+                } else if (block + 1 < segment.counts.length) {
+                    messages = segment.readBlock(++block);
+                    index = 0;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Iterator over the archived messages after a key and a sequence
+     * number, in the order of arrivalDate and id. Segments are opened
+     * when their first message may come next, so consecutive segments
+     * are read one at a time and overlapping segments are merged.
+     */
+    private static class MessageIterator implements Iterator {
+        // Segments ordered by their first message
+        private Segment[] segments;
+        private long afterArrivalDate;
+        private String afterId;
+        private long afterSequenceNumber;
+
+        // Next segment to be opened
+        private int segment = 0;
+        // Cursors of the opened segments that have messages left
+        private List cursors = new ArrayList();
+        private SMSMessage next;
+        private SMSMessage previous;
+
+        MessageIterator(Segment[] segments, long afterArrivalDate, String afterId, long afterSequenceNumber) {
+            this.segments = segments;
+            this.afterArrivalDate = afterArrivalDate;
+            this.afterId = afterId;
+            this.afterSequenceNumber = afterSequenceNumber;
+        }
+
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    SegmentCursor lowest = open();
+                    if (lowest == null) {
+                        return false;
+                    }
+                    SMSMessage message = lowest.next;
+                    if (!lowest.advance(afterArrivalDate, afterId, afterSequenceNumber)) {
+                        cursors.remove(lowest);
+                    }
+                    // a message archived twice is returned once
+                    if (previous == null || compare(previous.getArrivalDate().getTime(), previous.getId(), 
+                            message.getArrivalDate().getTime(), message.getId()) != 0) {
+                        next = message;
+                    }
+                }
+            } catch (IOException e) {
+                throw new SystemRuntimeException("Failed to read archive segment.", null, e);
+            }
+            return true;
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            previous = next;
+            next = null;
+            return previous;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Open the segments whose first message comes before the next 
+         * message of the opened segments.
+         * @return Cursor with the lowest next message, null at the end
+         */
+        private SegmentCursor open() throws IOException {
+            SegmentCursor lowest = lowest();
+            while (segment < segments.length && (lowest == null 
+                    || compare(segments[segment].firstArrivalDates[0], segments[segment].firstIds[0],
+                            lowest.next.getArrivalDate().getTime(), lowest.next.getId()) <= 0)) {
+                Segment candidate = segments[segment++];
+                // skip the segments before the key or the sequence number
+                if (compare(candidate.lastArrivalDate, candidate.lastId, afterArrivalDate, afterId) <= 0
+                        || candidate.maxSequenceNumber <= afterSequenceNumber) {
+                    continue;
+                }
+                SegmentCursor cursor = new SegmentCursor(candidate, candidate.findBlock(afterArrivalDate, afterId));
+                if (cursor.advance(afterArrivalDate, afterId, afterSequenceNumber)) {
+                    cursors.add(cursor);
+                    lowest = lowest();
+                }
+            }
+            return lowest;
+        }
+
+        private SegmentCursor lowest() {
+            SegmentCursor lowest = null;
+            for (Iterator i = cursors.iterator(); i.hasNext();) {
+                SegmentCursor cursor = (SegmentCursor)i.next();
+                if (lowest == null || compare(cursor.next.getArrivalDate().getTime(), cursor.next.getId(),
+                        lowest.next.getArrivalDate().getTime(), lowest.next.getId()) < 0) {
+                    lowest = cursor;
+                }
+            }
+            return lowest;
+        }
+    }
+
+    // Segments ordered by their messages
+    private List segments = new ArrayList();
+    private File directory;
+
+    MessageArchive() {
+    }
+
+    /**
+     * Recovers the instance of this class that archives the messages of a sky.
+     * @param sky Sky identifier
+     * @return MessageArchive instance
+     */
+    public synchronized static MessageArchive getInstance(String sky) {
+        MessageArchive instance = (MessageArchive)instances.get(sky);
+        if (instance == null) {
+            instance = new MessageArchive();
+            instances.put(sky, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Open the segments in a directory. Until the archive is opened it is
+     * empty and no messages can be archived.
+     * @param directory Directory of the segment files, created if needed
+     * @throws IOException If a segment cannot be read
+     */
+    public synchronized void open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create archive directory " + directory + ".");
+        }
+        File[] files = directory.listFiles();
+        List opened = new ArrayList();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].getName().endsWith(TEMPORARY_SUFFIX)) {
+                    // left behind by an interrupted write
+                    files[i].delete();
+                } else if (files[i].getName().endsWith(SUFFIX)) {
+                    opened.add(new Segment(files[i]));
+                }
+            }
+        } catch (IOException e) {
+            for (Iterator i = opened.iterator(); i.hasNext();) {
+                ((Segment)i.next()).close();
+            }
+            throw e;
+        }
+        Collections.sort(opened, FIRST_MESSAGE_ORDER);
+        close();
+        this.directory = directory;
+        segments = opened;
+    }
+
+    /**
+     * Verify if the archive was opened.
+     */
+    public synchronized boolean isOpen() {
+        return directory != null;
+    }
+
+    /**
+     * Close the segments.
+     */
+    public synchronized void close() throws IOException {
+        for (Iterator i = segments.iterator(); i.hasNext();) {
+            ((Segment)i.next()).close();
+        }
+        segments = new ArrayList();
+        directory = null;
+    }
+
+    /**
+     * Number of segments in the archive.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Arrival date of the last archived message.
+     * @return Arrival date, null if the archive is empty
+     */
+    public synchronized Date getLastArrivalDate() {
+        return segments.isEmpty() ? null : new Date(last().lastArrivalDate);
+    }
+
+    /**
+     * Id of the last archived message.
+     * @return Id, null if the archive is empty
+     */
+    public synchronized String getLastId() {
+        return segments.isEmpty() ? null : last().lastId;
+    }
+
+    /**
+     * Verify if a message was archived. Only the block of each segment
+     * that would hold the arrival date and id of the message is read.
+     * @param arrivalDate Arrival date of the message
+     * @param id Id of the message
+     */
+    public boolean contains(Date arrivalDate, String id) {
+        Segment[] all = getSegments();
+        try {
+            for (int i = 0; i < all.length; i++) {
+                if (all[i].find(arrivalDate.getTime(), id) != null) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            throw new SystemRuntimeException("Failed to read archive segment.", null, e);
+        }
+        return false;
+    }
+
+    /**
+     * Read an archived message. Only the blocks whose id range holds the
+     * id are read.
+     * @param id Id of the message
+     * @return SMSMessage, null if the message was not archived
+     */
+    public SMSMessage find(String id) {
+        Segment[] all = getSegments();
+        try {
+            for (int i = 0; i < all.length; i++) {
+                SMSMessage message = all[i].find(id);
+                if (message != null) {
+                    return message;
+                }
+            }
+        } catch (IOException e) {
+            throw new SystemRuntimeException("Failed to read archive segment.", null, e);
+        }
+        return null;
+    }
+
+    /**
+     * Highest sequence number of the archived messages.
+     * @return Sequence number, 0 if the archive is empty
+     */
+    public synchronized long getLastSequenceNumber() {
+        long last = 0;
+        for (Iterator i = segments.iterator(); i.hasNext();) {
+            last = Math.max(last, ((Segment)i.next()).maxSequenceNumber);
+        }
+        return last;
+    }
+
+    /**
+     * Write messages to a new segment. The segment is written to a
+     * temporary file and forced to disk before it is renamed, so that it
+     * either appears whole or not at all. The messages may arrive before
+     * messages already archived; the caller verifies that they were not
+     * archived already.
+     * @param messages At least one SMSMessage, ordered by arrivalDate and
+     * id
+     * @return Segment file, to be discarded if the messages cannot be
+     * removed from the table
+     * @throws IOException If the segment cannot be written
+     * @throws IllegalArgumentException If the messages are out of order
+     */
+    public synchronized File write(List messages) throws IOException {
+        if (directory == null) {
+            throw new IOException("Archive not open.");
+        }
+        SMSMessage first = (SMSMessage)messages.get(0);
+        SMSMessage previous = null;
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (previous != null && compare(previous.getArrivalDate().getTime(), previous.getId(),
+                    message.getArrivalDate().getTime(), message.getId()) >= 0) {
+                throw new IllegalArgumentException("Message " + message.getId() + " out of order.");
+            }
+            previous = message;
+        }
+
+        String name = first.getArrivalDate().getTime() + "-" + previous.getArrivalDate().getTime();
+        File file = new File(directory, name + SUFFIX);
+        // late messages may span the same dates as an earlier segment
+        for (int i = 1; file.exists(); i++) {
+            file = new File(directory, name + "-" + i + SUFFIX);
+        }
+        File temporary = new File(directory, file.getName() + TEMPORARY_SUFFIX);
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(output);
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            int blocks = (messages.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            indexOut.writeInt(blocks);
+            long offset = 0;
+            long minSequenceNumber = Long.MAX_VALUE;
+            long maxSequenceNumber = 0;
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            for (int start = 0; start < messages.size(); start += BLOCK_SIZE) {
+                List block = messages.subList(start, Math.min(start + BLOCK_SIZE, messages.size()));
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                deflater.reset();
+                DeflaterOutputStream deflated = new DeflaterOutputStream(compressed, deflater);
+                DataOutputStream blockOut = new DataOutputStream(deflated);
+                String lowestId = null;
+                String highestId = null;
+                for (Iterator i = block.iterator(); i.hasNext();) {
+                    SMSMessage message = (SMSMessage)i.next();
+                    encode(blockOut, message);
+                    if (lowestId == null || message.getId().compareTo(lowestId) < 0) {
+                        lowestId = message.getId();
+                    }
+                    if (highestId == null || message.getId().compareTo(highestId) > 0) {
+                        highestId = message.getId();
+                    }
+                    long sequenceNumber = message.getSequenceNumber() == null ? 0 : message.getSequenceNumber().longValue();
+                    minSequenceNumber = Math.min(minSequenceNumber, sequenceNumber);
+                    maxSequenceNumber = Math.max(maxSequenceNumber, sequenceNumber);
+                }
+                blockOut.flush();
+                deflated.finish();
+                SMSMessage blockFirst = (SMSMessage)block.get(0);
+                indexOut.writeLong(offset);
+                indexOut.writeInt(compressed.size());
+                indexOut.writeInt(block.size());
+                indexOut.writeLong(blockFirst.getArrivalDate().getTime());
+                indexOut.writeUTF(blockFirst.getId());
+                indexOut.writeUTF(lowestId);
+                indexOut.writeUTF(highestId);
+                compressed.writeTo(out);
+                offset += compressed.size();
+            }
+            deflater.end();
+            indexOut.writeLong(minSequenceNumber);
+            indexOut.writeLong(maxSequenceNumber);
+            indexOut.writeLong(previous.getArrivalDate().getTime());
+            indexOut.writeUTF(previous.getId());
+            indexOut.flush();
+            index.writeTo(out);
+            out.writeLong(offset);
+            out.writeInt(MAGIC);
+            out.flush();
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Failed to rename archive segment " + temporary + ".");
+        }
+        Segment segment = new Segment(file);
+        int position = Collections.binarySearch(segments, segment, FIRST_MESSAGE_ORDER);
+        segments.add(position < 0 ? -position - 1 : position + 1, segment);
+        return file;
+    }
+
+    /**
+     * Remove a segment that was just written, when its messages could
+     * not be removed from the table.
+     * @param file Segment file returned by write
+     */
+    public synchronized void discard(File file) throws IOException {
+        for (Iterator i = segments.iterator(); i.hasNext();) {
+            Segment segment = (Segment)i.next();
+            if (segment.file.equals(file)) {
+                i.remove();
+                segment.close();
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Iterate over the archived messages that arrived after a message,
+     * ordered by arrivalDate and id.
+     * @param afterArrivalDate Arrival date of the message, null to start
+     * from the first message
+     * @param afterId Id of the message, null to include every message
+     * that arrived on afterArrivalDate
+     * @return Iterator of SMSMessages
+     */
+    public Iterator iterate(Date afterArrivalDate, String afterId) {
+        return new MessageIterator(getSegments(),
+                afterArrivalDate == null ? Long.MIN_VALUE : afterArrivalDate.getTime(), afterId, -1);
+    }
+
+    /**
+     * Iterate over the archived messages with sequence number greater
+     * than the one specified, ordered by arrivalDate and id. Segments
+     * holding only lower sequence numbers are not read.
+     * @param afterSequenceNumber Sequence number
+     * @return Iterator of SMSMessages
+     */
+    public Iterator iterateAfterSequenceNumber(long afterSequenceNumber) {
+        return new MessageIterator(getSegments(), Long.MIN_VALUE, null, afterSequenceNumber);
+    }
+
+    private synchronized Segment[] getSegments() {
+        return (Segment[])segments.toArray(new Segment[segments.size()]);
+    }
+
+    /**
+     * Segment holding the last archived message.
+     */
+    private Segment last() {
+        Segment last = null;
+        for (Iterator i = segments.iterator(); i.hasNext();) {
+            Segment segment = (Segment)i.next();
+            if (last == null || compare(segment.lastArrivalDate, segment.lastId, last.lastArrivalDate, last.lastId) > 0) {
+                last = segment;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Compare two keys of arrivalDate and id. A null id comes before any
+     * other id.
+     */
+    private static int compare(long arrivalDate1, String id1, long arrivalDate2, String id2) {
+        if (arrivalDate1 != arrivalDate2) {
+            return arrivalDate1 < arrivalDate2 ? -1 : 1;
+        }
+        if (id1 == null || id2 == null) {
+            return id1 == null ? (id2 == null ? 0 : -1) : 1;
+        }
+        return id1.compareTo(id2);
+    }
+
+    private static void encode(DataOutputStream out, SMSMessage message) throws IOException {
+        out.writeUTF(message.getId());
+        out.writeLong(message.getArrivalDate().getTime());
+        out.writeLong(message.getSequenceNumber() == null ? 0 : message.getSequenceNumber().longValue());
+        out.writeUTF(String.valueOf(message.getMessage()));
+        String[] optional = {message.getCarrierMessageId(), message.getSender(), message.getRegion()};
+        for (int i = 0; i < optional.length; i++) {
+            out.writeBoolean(optional[i] != null);
+            if (optional[i] != null) {
+                out.writeUTF(optional[i]);
+            }
+        }
+    }
+
+    private static SMSMessage decode(DataInputStream in) throws IOException {
+        SMSMessage message = new SMSMessage();
+        message.setId(in.readUTF());
+        message.setArrivalDate(new Date(in.readLong()));
+        long sequenceNumber = in.readLong();
+        if (sequenceNumber != 0) {
+            message.setSequenceNumber(new Long(sequenceNumber));
+        }
+        message.setMessage(in.readUTF());
+        String[] optional = new String[3];
+        for (int i = 0; i < optional.length; i++) {
+            if (in.readBoolean()) {
+                optional[i] = in.readUTF();
+            }
+        }
+        message.setCarrierMessageId(optional[0]);
+        message.setSender(optional[1]);
+        message.setRegion(optional[2]);
+        message.onLoad();
+        return message;
+    }
+}
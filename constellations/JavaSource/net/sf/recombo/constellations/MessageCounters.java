@@ -0,0 +1,186 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Number of SMSMessages that arrived in each minute, so that messages per
+ * minute or hour over a period are counted without reading the messages.
+ * The counters are loaded from the database once and then incremented as
+ * the MessageHub publishes committed messages; ConstellationController
+ * decrements them when messages are deleted.
+ * <p>
+ * Buckets longer than a minute are aligned to the local time of the
+ * server, so hour buckets start on the hour.
+ */
+public class MessageCounters implements MessageHub.Subscriber {
+    private static final long MINUTE = 60000; // milliseconds
+
+    // Instance of each sky (String)
+    private static Map instances = new HashMap();
+
+    private TimeZone timeZone;
+    // Count (int[1]) by minute since the epoch (Long)
+    private TreeMap counts = new TreeMap();
+    // Sequence number up to which messages were counted, -1 if not loaded
+    private long cursor = -1;
+    // Messages published and ids removed before the counters were loaded
+    private List publishedBeforeLoad = new ArrayList();
+    private Set removedBeforeLoad = new HashSet();
+
+    MessageCounters(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Recovers the instance of this class that counts the messages of a sky,
+     * subscribed to the messages of the sky published by the hub.
+     * @param sky Sky identifier
+     * @return MessageCounters instance
+     */
+    public synchronized static MessageCounters getInstance(String sky) {
+        MessageCounters instance = (MessageCounters)instances.get(sky);
+        if (instance == null) {
+            instance = new MessageCounters(TimeZone.getDefault());
+            MessageHub.getInstance().addSubscriber(sky, instance);
+            instances.put(sky, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Verify if the counters were loaded from the database.
+     */
+    public synchronized boolean isLoaded() {
+        return cursor >= 0;
+    }
+
+    /**
+     * Count messages read from the database while loading the counters.
+     * Messages removed since are ignored.
+     * @param ids Ids of the SMSMessages
+     * @param arrivalDates Arrival dates of the SMSMessages
+     */
+    public synchronized void load(List ids, List arrivalDates) {
+        for (int i = 0; i < ids.size(); i++) {
+            if (!removedBeforeLoad.contains(ids.get(i))) {
+                increment((Date)arrivalDates.get(i), 1);
+            }
+        }
+    }
+
+    /**
+     * Mark the counters as loaded once every message saved up to a
+     * sequence number was passed to load.
+     * @param last Sequence number
+     */
+    public synchronized void setLoaded(long last) {
+        if (isLoaded()) {
+            return;
+        }
+        cursor = last;
+        List published = publishedBeforeLoad;
+        Set removed = removedBeforeLoad;
+        publishedBeforeLoad = null;
+        removedBeforeLoad = null;
+        for (Iterator i = published.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (message.getSequenceNumber().longValue() > last && !removed.contains(message.getId())) {
+                increment(message.getArrivalDate(), 1);
+            }
+        }
+    }
+
+    /**
+     * Count the messages published by the hub.
+     * @see MessageHub.Subscriber#messagesPublished(List, long)
+     */
+    public synchronized void messagesPublished(List messages, long next) {
+        if (!isLoaded()) {
+            publishedBeforeLoad.addAll(messages);
+            return;
+        }
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (message.getSequenceNumber().longValue() > cursor) {
+                increment(message.getArrivalDate(), 1);
+            }
+        }
+    }
+
+    /**
+     * Stop counting a message deleted from the database.
+     * @param message SMSMessage
+     */
+    public synchronized void remove(SMSMessage message) {
+        if (!isLoaded()) {
+            removedBeforeLoad.add(message.getId());
+            return;
+        }
+        increment(message.getArrivalDate(), -1);
+    }
+
+    /**
+     * Count the messages that arrived in each bucket of a period. The
+     * first bucket starts at or before the start of the period.
+     * @param from Start of the period
+     * @param to End of the period, exclusive
+     * @param bucketMinutes Length of each bucket in minutes
+     * @return MessageCounts
+     */
+    public synchronized MessageCounts count(Date from, Date to, int bucketMinutes) {
+        long bucket = bucketMinutes * MINUTE;
+        long local = from.getTime() + timeZone.getOffset(from.getTime());
+        long start = local - mod(local, bucket) - timeZone.getOffset(from.getTime());
+        int buckets = (int)Math.max(0, (to.getTime() - start + bucket - 1) / bucket);
+        int[] result = new int[buckets];
+        Map minutes = counts.subMap(new Long(floorDiv(start, MINUTE)), new Long(floorDiv(to.getTime() - 1, MINUTE) + 1));
+        for (Iterator i = minutes.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry)i.next();
+            int index = (int)floorDiv(((Long)entry.getKey()).longValue() * MINUTE - start, bucket);
+            if (index >= 0 && index < buckets) {
+                result[index] += ((int[])entry.getValue())[0];
+            }
+        }
+        return new MessageCounts(new Date(start), bucketMinutes, result);
+    }
+
+    private void increment(Date arrivalDate, int delta) {
+        if (arrivalDate == null) {
+            return;
+        }
+        Long minute = new Long(floorDiv(arrivalDate.getTime(), MINUTE));
+        int[] count = (int[])counts.get(minute);
+        if (count == null) {
+            if (delta < 0) {
+                return;
+            }
+            count = new int[1];
+            counts.put(minute, count);
+        }
+        count[0] += delta;
+        if (count[0] <= 0) {
+            counts.remove(minute);
+        }
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        return (value - mod(value, divisor)) / divisor;
+    }
+
+    private static long mod(long value, long divisor) {
+        long result = value % divisor;
+        return result < 0 ? result + divisor : result;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Number of SMSMessages that arrived in consecutive time buckets.
+ */
+public class MessageCounts implements Serializable {
+    private Date start;
+    private int bucketMinutes;
+    private int[] counts;
+
+    public MessageCounts() {
+    }
+    public MessageCounts(Date start, int bucketMinutes, int[] counts) {
+        this.start = start;
+        this.bucketMinutes = bucketMinutes;
+        this.counts = counts;
+    }
+
+    /**
+     * Start of the first bucket.
+     */
+    public Date getStart() {
+        return start;
+    }
+    public void setStart(Date start) {
+        this.start = start;
+    }
+    /**
+     * Length of each bucket in minutes.
+     */
+    public int getBucketMinutes() {
+        return bucketMinutes;
+    }
+    public void setBucketMinutes(int bucketMinutes) {
+        this.bucketMinutes = bucketMinutes;
+    }
+    /**
+     * Number of messages in each bucket.
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+    public void setCounts(int[] counts) {
+        this.counts = counts;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Publishes SMSMessages to push subscribers as they are committed. The
+ * messages are published in sequence number order and only up to the high
+ * water mark of the MessageSequence, so that a client that has seen every
+ * message up to a cursor never misses a message committed later with a
+ * lower sequence number. The most recently published messages of each sky
+ * are kept so that clients can catch up from a recent cursor without a 
+ * database query. Every sky keeps up to the capacity of the hub, so a busy
+ * sky does not push the messages of quieter skies out.
+ * <p>
+ * ConstellationController hands committed messages to the hub before the
+ * sequence numbers of their transaction are released, and asks the hub to
+ * advance afterwards.
+ */
+public class MessageHub {
+    private static final int CAPACITY = 1000;
+
+    private static MessageHub instance;
+
+    /**
+     * Receives the messages published by the hub.
+     */
+    public interface Subscriber {
+        /**
+         * Called whenever messages are published, outside of the lock
+         * guarding the hub and never by two threads at once.
+         * @param messages SMSMessages published, ordered by sequence number
+         * @param cursor Cursor following the last message
+         */
+        public void messagesPublished(List messages, long cursor);
+    }
+
+    /**
+     * Passes on the messages of a sky.
+     */
+    private static class SkySubscriber implements Subscriber {
+        private String sky;
+        private Subscriber subscriber;
+
+        SkySubscriber(String sky, Subscriber subscriber) {
+            this.sky = sky;
+            this.subscriber = subscriber;
+        }
+
+        public void messagesPublished(List messages, long cursor) {
+            List selected = Sky.select(messages, sky);
+            if (!selected.isEmpty()) {
+                subscriber.messagesPublished(selected, cursor);
+            }
+        }
+    }
+
+    private int capacity;
+    private MessageSequence sequence;
+    // Sequence number up to which every message was published, -1 if not initialized
+    private long cursor = -1;
+    // Published messages still kept (LinkedList, oldest first) by sky
+    private Map published = new HashMap();
+    // Messages of a sky with sequence numbers at or below this one (Long by sky) are no longer kept
+    private Map droppedUpTo = new HashMap();
+    // Messages published before the hub was initialized are not kept
+    private long initializedAt = -1;
+    // Committed messages (Long sequence number -> SMSMessage) waiting to be published
+    private TreeMap pending = new TreeMap();
+    private List subscribers = new ArrayList();
+    // Held while subscribers are notified, so that they see the messages in order
+    private Object notifyLock = new Object();
+
+    MessageHub(int capacity, MessageSequence sequence) {
+        this.capacity = capacity;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Recovers the singleton instance of this class.
+     * @return MessageHub instance
+     */
+    public synchronized static MessageHub getInstance() {
+        if (instance == null) {
+            instance = new MessageHub(CAPACITY, MessageSequence.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * Initialize the hub with the largest sequence number saved before
+     * startup. Only the first call has any effect.
+     * @param last Largest sequence number in the database
+     */
+    public synchronized void initialize(long last) {
+        if (cursor < 0) {
+            cursor = last;
+            initializedAt = last;
+        }
+    }
+
+    /**
+     * Register a subscriber.
+     * @param subscriber Subscriber
+     */
+    public synchronized void addSubscriber(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Register a subscriber to the messages of a sky. It is notified only
+     * when messages of the sky are published.
+     * @param sky Sky identifier
+     * @param subscriber Subscriber
+     */
+    public synchronized void addSubscriber(String sky, Subscriber subscriber) {
+        subscribers.add(new SkySubscriber(sky, subscriber));
+    }
+
+    /**
+     * Unregister a subscriber.
+     * @param subscriber Subscriber
+     */
+    public synchronized void removeSubscriber(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Hand over committed messages. They are published once the
+     * high water mark reaches their sequence numbers.
+     * @param messages SMSMessages with sequence numbers
+     */
+    public synchronized void add(List messages) {
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (message.getSequenceNumber() != null) {
+                pending.put(message.getSequenceNumber(), message);
+            }
+        }
+    }
+
+    /**
+     * Publish the pending messages at or below the high water mark.
+     * Subscribers are notified by one thread at a time, in the order the
+     * messages were published.
+     */
+    public void advance() {
+        synchronized (notifyLock) {
+            List messages = new ArrayList();
+            long next;
+            List notified;
+            synchronized (this) {
+                if (cursor < 0) {
+                    return;
+                }
+                long highWaterMark = sequence.getHighWaterMark();
+                while (!pending.isEmpty() && ((Long)pending.firstKey()).longValue() <= highWaterMark) {
+                    SMSMessage message = (SMSMessage)pending.remove(pending.firstKey());
+                    messages.add(message);
+                    LinkedList kept = getPublished(message.getSky());
+                    kept.addLast(message);
+                    if (kept.size() > capacity) {
+                        droppedUpTo.put(message.getSky(), ((SMSMessage)kept.removeFirst()).getSequenceNumber());
+                    }
+                }
+                if (highWaterMark <= cursor) {
+                    return;
+                }
+                cursor = highWaterMark;
+                next = cursor;
+                notified = new ArrayList(subscribers);
+            }
+            if (!messages.isEmpty()) {
+                for (Iterator i = notified.iterator(); i.hasNext();) {
+                    try {
+                        ((Subscriber)i.next()).messagesPublished(messages, next);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(System.err);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cursor following the last message published.
+     * @return Cursor, -1 if not initialized
+     */
+    public synchronized long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * List the published messages of a sky after the cursor.
+     * @param sky Sky identifier
+     * @param after Cursor
+     * @return SMSMessages ordered by sequence number, or null if messages
+     * of the sky after the cursor are no longer kept
+     */
+    public synchronized List getMessagesAfter(String sky, long after) {
+        Long dropped = (Long)droppedUpTo.get(sky);
+        if (after < (dropped == null ? initializedAt : dropped.longValue())) {
+            return null;
+        }
+        LinkedList kept = getPublished(sky);
+        LinkedList messages = new LinkedList();
+        for (ListIterator i = kept.listIterator(kept.size()); i.hasPrevious();) {
+            SMSMessage message = (SMSMessage)i.previous();
+            if (message.getSequenceNumber().longValue() <= after) {
+                break;
+            }
+            messages.addFirst(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Recover the published messages kept for a sky.
+     */
+    private LinkedList getPublished(String sky) {
+        LinkedList kept = (LinkedList)published.get(sky);
+        if (kept == null) {
+            kept = new LinkedList();
+            published.put(sky, kept);
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of accepted SMSMessages, kept in a
+ * single memory-mapped segment file. Messages are appended and forced to
+ * disk before they are acknowledged, and marked as applied once they have
+ * been committed to the database. On startup the messages appended but not
+ * yet applied are recovered so that they can be written again.
+ * <p>
+ * Layout of the segment:
+ * <pre>
+ * header: int applied position, int epoch
+ * record: int length, int crc32, payload
+ * payload: int epoch, long arrivalDate, boolean hasSender, [UTF sender], UTF message,
+ *          boolean hasCarrierMessageId, [UTF carrierMessageId], UTF sky
+ * </pre>
+ * When every record has been applied the segment is rewound and the epoch
+ * incremented, so that stale records left behind from the previous epoch
+ * are never mistaken for new ones.
+ */
+public class MessageJournal {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+
+    // Position following the last applied record
+    private int applied;
+    // Position following the last appended record
+    private int position;
+    private int epoch;
+    // End positions (Integer) of records appended but not yet applied, oldest first
+    private LinkedList pending = new LinkedList();
+
+    /**
+     * Open or create the journal segment.
+     * @param segment Segment file
+     * @param capacity Size of the segment in bytes
+     * @throws IOException If the segment cannot be opened or mapped
+     */
+    public MessageJournal(File segment, int capacity) throws IOException {
+        boolean exists = segment.exists() && segment.length() >= HEADER_SIZE;
+        if (exists) {
+            capacity = Math.max(capacity, (int)segment.length());
+        }
+        this.capacity = capacity;
+        file = new RandomAccessFile(segment, "rw");
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        if (exists) {
+            applied = buffer.getInt(0);
+            epoch = buffer.getInt(4);
+            if (applied < HEADER_SIZE || applied > capacity) {
+                applied = HEADER_SIZE;
+            }
+        } else {
+            epoch = 1;
+            writeHeader(HEADER_SIZE);
+        }
+        position = applied;
+    }
+
+    /**
+     * Read the messages that were appended but not yet applied. This
+     * method must be called once, before any message is appended.
+     * @return SMSMessages in the order they were appended
+     */
+    public synchronized List recover() {
+        List messages = new ArrayList();
+        position = applied;
+        while (position + RECORD_HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > capacity) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int)crc.getValue() != buffer.getInt(position + 4)) {
+                break; // torn write
+            }
+            SMSMessage message = decode(payload);
+            if (message == null) {
+                break; // record from a previous epoch
+            }
+            messages.add(message);
+            position += RECORD_HEADER_SIZE + length;
+            pending.addLast(new Integer(position));
+        }
+        return messages;
+    }
+
+    /**
+     * Append messages to the journal and force them to disk. If there
+     * is not enough room left in the segment the caller waits until the
+     * pending records have been applied and the segment can be rewound.
+     * @param messages SMSMessages to append
+     * @throws IOException If the messages cannot be encoded
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    public void append(List messages) throws IOException, InterruptedException {
+        append(messages, 0);
+    }
+
+    /**
+     * Append messages to the journal and force them to disk, waiting at
+     * most the timeout for room in the segment.
+     * @param messages SMSMessages to append
+     * @param timeout Maximum time in milliseconds to wait for room, 0 to 
+     * wait without limit
+     * @return false if there was no room before the timeout, nothing was
+     * appended
+     * @throws IOException If the messages cannot be encoded
+     * @throws InterruptedException If interrupted while waiting for room
+     */
+    public synchronized boolean append(List messages, long timeout) throws IOException, InterruptedException {
+        List records = encode(messages);
+        int size = 0;
+        for (Iterator i = records.iterator(); i.hasNext();) {
+            size += RECORD_HEADER_SIZE + ((byte[])i.next()).length;
+        }
+        if (HEADER_SIZE + size + 4 > capacity) {
+            throw new IOException("Journal segment too small for " + messages.size() + " messages.");
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        while (position + size + 4 > capacity) {
+            if (pending.isEmpty()) {
+                // everything has been applied, start over
+                epoch++;
+                position = HEADER_SIZE;
+                writeHeader(HEADER_SIZE);
+                records = encode(messages);
+            } else if (timeout == 0) {
+                wait();
+            } else {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+
+        for (Iterator i = records.iterator(); i.hasNext();) {
+            byte[] payload = (byte[])i.next();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            buffer.position(position);
+            buffer.putInt(payload.length);
+            buffer.putInt((int)crc.getValue());
+            buffer.put(payload);
+            position += RECORD_HEADER_SIZE + payload.length;
+            pending.addLast(new Integer(position));
+        }
+        buffer.putInt(position, 0); // terminator
+        buffer.force();
+        return true;
+    }
+
+    /**
+     * Mark the oldest pending messages as applied.
+     * @param count Number of messages that were committed to the database
+     */
+    public synchronized void markApplied(int count) {
+        Integer end = null;
+        for (int i = 0; i < count && !pending.isEmpty(); i++) {
+            end = (Integer)pending.removeFirst();
+        }
+        if (end != null) {
+            writeHeader(end.intValue());
+            buffer.force();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Number of messages appended but not yet applied.
+     * @return Number of pending messages
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Close the journal segment.
+     */
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        file.close();
+    }
+
+    private void writeHeader(int appliedPosition) {
+        applied = appliedPosition;
+        buffer.putInt(0, appliedPosition);
+        buffer.putInt(4, epoch);
+    }
+
+    private List encode(List messages) throws IOException {
+        List records = new ArrayList(messages.size());
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            records.add(encode((SMSMessage)i.next()));
+        }
+        return records;
+    }
+
+    private byte[] encode(SMSMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(epoch);
+        out.writeLong(message.getArrivalDate().getTime());
+        out.writeBoolean(message.getSender() != null);
+        if (message.getSender() != null) {
+            out.writeUTF(message.getSender());
+        }
+        out.writeUTF(String.valueOf(message.getMessage()));
+        out.writeBoolean(message.getCarrierMessageId() != null);
+        if (message.getCarrierMessageId() != null) {
+            out.writeUTF(message.getCarrierMessageId());
+        }
+        out.writeUTF(message.getSky() != null ? message.getSky() : Sky.DEFAULT);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private SMSMessage decode(byte[] payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readInt() != epoch) {
+                return null;
+            }
+            SMSMessage message = new SMSMessage();
+            message.setArrivalDate(new Date(in.readLong()));
+            if (in.readBoolean()) {
+                message.setSender(in.readUTF());
+            }
+            message.setMessage(in.readUTF());
+            // absent from records written before carrier message ids
+            if (in.available() > 0 && in.readBoolean()) {
+                message.setCarrierMessageId(in.readUTF());
+            }
+            // absent from records written before skies
+            message.setSky(in.available() > 0 ? in.readUTF() : Sky.DEFAULT);
+            return message;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import net.sf.recombo.common.persistence.TransactionListener;
+
+/**
+ * Assigns increasing sequence numbers to SMSMessages as they are saved
+ * and keeps track of the high water mark: the largest sequence number at
+ * or below which every transaction that was assigned a number has either
+ * committed or rolled back. Since transactions may commit out of order,
+ * readers must not look past the high water mark, otherwise a message
+ * committed later with a lower number would be missed.
+ * <p>
+ * Sequence numbers are assigned in memory, so only one instance of the
+ * application may write to the database.
+ */
+public class MessageSequence {
+    private static MessageSequence instance;
+
+    // Last sequence number assigned, -1 if not initialized
+    private long last = -1;
+    // Sequence numbers (Long) assigned to transactions still in progress
+    private TreeSet outstanding = new TreeSet();
+
+    MessageSequence() {
+    }
+
+    /**
+     * Recovers the singleton instance of this class.
+     * @return MessageSequence instance
+     */
+    public synchronized static MessageSequence getInstance() {
+        if (instance == null) {
+            instance = new MessageSequence();
+        }
+        return instance;
+    }
+
+    /**
+     * Initialize the sequence with the largest sequence number in
+     * the database. Only the first call has any effect.
+     * @param last Largest sequence number saved
+     */
+    public synchronized void initialize(long last) {
+        if (this.last < 0) {
+            this.last = last;
+        }
+    }
+
+    /**
+     * Verify if the sequence was initialized.
+     */
+    public synchronized boolean isInitialized() {
+        return last >= 0;
+    }
+
+    /**
+     * Assign sequence numbers to messages about to be saved. The numbers
+     * are outstanding until the returned listener is notified that the
+     * transaction has completed.
+     * @param messages SMSMessages
+     * @return Listener to be registered with the transaction saving the messages
+     */
+    public synchronized TransactionListener assign(List messages) {
+        if (last < 0) {
+            throw new IllegalStateException("MessageSequence is not initialized.");
+        }
+        final Long[] numbers = new Long[messages.size()];
+        int n = 0;
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            numbers[n] = new Long(++last);
+            outstanding.add(numbers[n]);
+            ((SMSMessage)i.next()).setSequenceNumber(numbers[n++]);
+        }
+        return new TransactionListener() {
+            public void afterCompletion(boolean committed) {
+                complete(numbers);
+            }
+        };
+    }
+
+    /**
+     * Largest sequence number at or below which all messages that will
+     * ever be visible have been committed.
+     * @return High water mark, -1 if not initialized
+     */
+    public synchronized long getHighWaterMark() {
+        if (outstanding.isEmpty()) {
+            return last;
+        }
+        return ((Long)outstanding.first()).longValue() - 1;
+    }
+
+    private synchronized void complete(Long[] numbers) {
+        for (int i = 0; i < numbers.length; i++) {
+            outstanding.remove(numbers[i]);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over the text of the SMSMessages, so that
+ * messages containing a word, a word prefix or any substring are found
+ * without scanning the table. Each message gets a document number; the
+ * index keeps, for every word and for every three character sequence
+ * (trigram) of the lower case text, the document numbers containing it.
+ * Substrings of three characters or more are looked up by intersecting
+ * the postings of their trigrams and verifying the candidates against the
+ * text.
+ * <p>
+ * The index is loaded from the database once and then kept up to date by
+ * ConstellationController as transactions commit. Deleted and updated
+ * messages leave stale document numbers in the postings, which are skipped
+ * and dropped when the index is compacted.
+ * <p>
+ * Results are ordered by arrivalDate and id, so that a limited search
+ * returns the first messages that arrived. While messages are indexed in
+ * that order, as they are when loaded, searches stop at the limit;
+ * otherwise every match is collected and sorted until compaction puts
+ * the documents back in order.
+ */
+public class MessageTextIndex {
+    private static final int MIN_COMPACT = 1024;
+
+    // Instance of each sky (String)
+    private static Map instances = new HashMap();
+
+    /**
+     * Growable sorted list of document numbers.
+     */
+    private static class Postings {
+        int[] docs = new int[2];
+        int size = 0;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return;
+            }
+            if (size == docs.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(docs, 0, grown, 0, size);
+                docs = grown;
+            }
+            docs[size++] = doc;
+        }
+
+        boolean contains(int doc) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (docs[middle] < doc) {
+                    low = middle + 1;
+                } else if (docs[middle] > doc) {
+                    high = middle - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Document number by message id
+    private Map docs = new HashMap();
+    // Message id, text and arrival time of each document number
+    private List ids = new ArrayList();
+    private List texts = new ArrayList();
+    private long[] times = new long[16];
+    // True while document numbers follow the order of arrivalDate and id
+    private boolean ordered = true;
+    // Orders document numbers (Integer) by arrivalDate and id
+    private Comparator docOrder = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            return compareDocs(((Integer)o1).intValue(), ((Integer)o2).intValue());
+        }
+    };
+    // Document numbers of deleted and replaced messages
+    private BitSet deleted = new BitSet();
+    private int deletedCount = 0;
+    // Postings by word, sorted for prefix searches
+    private TreeMap words = new TreeMap();
+    // Postings by trigram
+    private Map trigrams = new HashMap();
+    private boolean loaded = false;
+    // Ids of messages removed before the index was loaded
+    private Set removedBeforeLoad = new HashSet();
+
+    MessageTextIndex() {
+    }
+
+    /**
+     * Recovers the instance of this class that indexes the messages of a sky.
+     * @param sky Sky identifier
+     * @return MessageTextIndex instance
+     */
+    public synchronized static MessageTextIndex getInstance(String sky) {
+        MessageTextIndex instance = (MessageTextIndex)instances.get(sky);
+        if (instance == null) {
+            instance = new MessageTextIndex();
+            instances.put(sky, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Verify if the index was loaded from the database.
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Add messages read from the database while loading the index.
+     * Messages already indexed or removed since are ignored.
+     * @param messages SMSMessages
+     */
+    public synchronized void load(List messages) {
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (!docs.containsKey(message.getId()) && !removedBeforeLoad.contains(message.getId())) {
+                index(message.getId(), message.getMessage(), getTime(message));
+            }
+        }
+    }
+
+    /**
+     * Mark the index as loaded once every message in the database was
+     * passed to load.
+     */
+    public synchronized void setLoaded() {
+        loaded = true;
+        removedBeforeLoad = null;
+    }
+
+    /**
+     * Index a message added or updated in the database.
+     * @param message SMSMessage
+     */
+    public synchronized void add(SMSMessage message) {
+        delete(message.getId());
+        index(message.getId(), message.getMessage(), getTime(message));
+    }
+
+    /**
+     * Remove a message deleted from the database.
+     * @param id Id of the SMSMessage
+     */
+    public synchronized void remove(String id) {
+        if (!loaded) {
+            removedBeforeLoad.add(id);
+        }
+        delete(id);
+    }
+
+    /**
+     * Number of messages indexed.
+     */
+    public synchronized int size() {
+        return docs.size();
+    }
+
+    /**
+     * Find the messages containing a word.
+     * @param word Word, case is ignored
+     * @param limit Maximum number of ids
+     * @return Ids of the SMSMessages ordered by arrivalDate and id
+     */
+    public synchronized List findWord(String word, int limit) {
+        Postings postings = (Postings)words.get(word.toLowerCase());
+        List result = new ArrayList();
+        if (postings != null) {
+            for (int i = 0; i < postings.size && !isComplete(result, limit); i++) {
+                int doc = postings.docs[i];
+                if (!deleted.get(doc)) {
+                    result.add(new Integer(doc));
+                }
+            }
+        }
+        return toIds(result, limit);
+    }
+
+    /**
+     * Find the messages containing a word starting with a prefix.
+     * @param prefix Prefix, case is ignored
+     * @param limit Maximum number of ids
+     * @return Ids of the SMSMessages ordered by arrivalDate and id
+     */
+    public synchronized List findWordPrefix(String prefix, int limit) {
+        String lower = prefix.toLowerCase();
+        SortedMap matching = words.subMap(lower, lower + '\uffff');
+        BitSet found = new BitSet();
+        for (Iterator i = matching.values().iterator(); i.hasNext();) {
+            Postings postings = (Postings)i.next();
+            for (int j = 0; j < postings.size; j++) {
+                found.set(postings.docs[j]);
+            }
+        }
+        found.andNot(deleted);
+        List result = new ArrayList();
+        for (int doc = found.nextSetBit(0); doc >= 0 && !isComplete(result, limit); doc = found.nextSetBit(doc + 1)) {
+            result.add(new Integer(doc));
+        }
+        return toIds(result, limit);
+    }
+
+    /**
+     * Find the messages containing a substring.
+     * @param text Substring of at least three characters, case is ignored
+     * @param limit Maximum number of ids
+     * @return Ids of the SMSMessages ordered by arrivalDate and id, or
+     * null if the substring is too short to be looked up
+     */
+    public synchronized List findSubstring(String text, int limit) {
+        return find(text, text.toLowerCase(), false, false, false, limit);
+    }
+
+    /**
+     * Find the messages matching a LIKE pattern, as used by
+     * ConstellationController.findSMSMessageByText. Only patterns whose
+     * wildcards are a leading or trailing '%' are supported.
+     * @param pattern Pattern, case is significant as in the database
+     * @param limit Maximum number of ids
+     * @return Ids of the SMSMessages ordered by arrivalDate and id, or
+     * null if the pattern cannot be answered by the index
+     */
+    public synchronized List findLike(String pattern, int limit) {
+        boolean leading = pattern.startsWith("%");
+        boolean trailing = pattern.length() > 1 && pattern.endsWith("%");
+        String text = pattern.substring(leading ? 1 : 0, pattern.length() - (trailing ? 1 : 0));
+        if (text.indexOf('%') >= 0 || text.indexOf('_') >= 0 || text.indexOf('\\') >= 0) {
+            return null;
+        }
+        return find(text, text.toLowerCase(), true, !leading, !trailing, limit);
+    }
+
+    /**
+     * Intersect the trigram postings of the text and verify the candidates.
+     * @param text Text searched
+     * @param lower Text searched in lower case
+     * @param matchCase True if the case of the text is significant
+     * @param anchorStart True if the message must start with the text
+     * @param anchorEnd True if the message must end with the text
+     */
+    private List find(String text, String lower, boolean matchCase,
+            boolean anchorStart, boolean anchorEnd, int limit) {
+        if (lower.length() < 3) {
+            return null;
+        }
+        List lists = new ArrayList();
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            Postings postings = (Postings)trigrams.get(lower.substring(i, i + 3));
+            if (postings == null) {
+                return new ArrayList();
+            }
+            lists.add(postings);
+        }
+        Postings[] sorted = (Postings[])lists.toArray(new Postings[lists.size()]);
+        Arrays.sort(sorted, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return ((Postings)o1).size - ((Postings)o2).size;
+            }
+        });
+        List result = new ArrayList();
+        Postings smallest = sorted[0];
+        for (int i = 0; i < smallest.size && !isComplete(result, limit); i++) {
+            int doc = smallest.docs[i];
+            if (deleted.get(doc)) {
+                continue;
+            }
+            boolean candidate = true;
+            for (int j = 1; j < sorted.length && candidate; j++) {
+                candidate = sorted[j].contains(doc);
+            }
+            if (candidate && matches((String)texts.get(doc), text, lower, matchCase, anchorStart, anchorEnd)) {
+                result.add(new Integer(doc));
+            }
+        }
+        return toIds(result, limit);
+    }
+
+    /**
+     * Verify if a search found enough documents. Documents indexed out of
+     * order are all collected, as a later one may have arrived earlier.
+     */
+    private boolean isComplete(List found, int limit) {
+        return ordered && found.size() >= limit;
+    }
+
+    /**
+     * Order the documents found by arrivalDate and id and return the ids
+     * of the first ones.
+     * @param found Document numbers (Integer) in increasing order
+     * @param limit Maximum number of ids
+     */
+    private List toIds(List found, int limit) {
+        if (!ordered) {
+            Collections.sort(found, docOrder);
+        }
+        List result = new ArrayList(Math.min(limit, found.size()));
+        for (Iterator i = found.iterator(); i.hasNext() && result.size() < limit;) {
+            result.add(ids.get(((Integer)i.next()).intValue()));
+        }
+        return result;
+    }
+
+    private int compareDocs(int doc1, int doc2) {
+        if (times[doc1] != times[doc2]) {
+            return times[doc1] < times[doc2] ? -1 : 1;
+        }
+        return ((String)ids.get(doc1)).compareTo((String)ids.get(doc2));
+    }
+
+    private static long getTime(SMSMessage message) {
+        return message.getArrivalDate() == null ? 0 : message.getArrivalDate().getTime();
+    }
+
+    private static boolean matches(String message, String text, String lower, boolean matchCase,
+            boolean anchorStart, boolean anchorEnd) {
+        String searched = matchCase ? message : message.toLowerCase();
+        String wanted = matchCase ? text : lower;
+        if (anchorStart && anchorEnd) {
+            return searched.equals(wanted);
+        } else if (anchorStart) {
+            return searched.startsWith(wanted);
+        } else if (anchorEnd) {
+            return searched.endsWith(wanted);
+        }
+        return searched.indexOf(wanted) >= 0;
+    }
+
+    private void index(String id, String text, long time) {
+        if (text == null) {
+            text = "";
+        }
+        int doc = ids.size();
+        docs.put(id, new Integer(doc));
+        ids.add(id);
+        texts.add(text);
+        if (doc == times.length) {
+            long[] grown = new long[doc * 2];
+            System.arraycopy(times, 0, grown, 0, doc);
+            times = grown;
+        }
+        times[doc] = time;
+        if (doc > 0 && ordered && compareDocs(doc - 1, doc) > 0) {
+            ordered = false;
+        }
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                postings(words, lower.substring(start, i)).add(doc);
+                start = -1;
+            }
+        }
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            postings(trigrams, lower.substring(i, i + 3)).add(doc);
+        }
+    }
+
+    private void delete(String id) {
+        Integer doc = (Integer)docs.remove(id);
+        if (doc == null) {
+            return;
+        }
+        deleted.set(doc.intValue());
+        texts.set(doc.intValue(), null);
+        deletedCount++;
+        if (deletedCount >= MIN_COMPACT && deletedCount > docs.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rebuild the index without the deleted documents, numbering the
+     * documents by arrivalDate and id.
+     */
+    private void compact() {
+        List live = new ArrayList(docs.size());
+        for (int doc = 0; doc < ids.size(); doc++) {
+            if (!deleted.get(doc)) {
+                live.add(new Integer(doc));
+            }
+        }
+        if (!ordered) {
+            Collections.sort(live, docOrder);
+        }
+        List oldIds = ids;
+        List oldTexts = texts;
+        long[] oldTimes = times;
+        docs = new HashMap();
+        ids = new ArrayList(live.size());
+        texts = new ArrayList(live.size());
+        times = new long[Math.max(16, live.size())];
+        ordered = true;
+        deleted = new BitSet();
+        deletedCount = 0;
+        words = new TreeMap();
+        trigrams = new HashMap();
+        for (Iterator i = live.iterator(); i.hasNext();) {
+            int doc = ((Integer)i.next()).intValue();
+            index((String)oldIds.get(doc), (String)oldTexts.get(doc), oldTimes[doc]);
+        }
+    }
+
+    private static Postings postings(Map map, String key) {
+        Postings postings = (Postings)map.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            map.put(key, postings);
+        }
+        return postings;
+    }
+}
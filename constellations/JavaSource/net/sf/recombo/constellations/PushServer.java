@@ -0,0 +1,778 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Small HTTP server that pushes new SMSMessages to clients. All
+ * connections are served by a single thread with a NIO selector, so
+ * waiting clients hold neither a container thread nor a Hibernate session.
+ * <p>
+ * Flash clients long poll: a request for <code>/poll?cursor=N</code> is
+ * parked until messages after the cursor are published by the MessageHub
+ * or the timeout passes. The response is an XML document:
+ * <pre>
+ * &lt;messages cursor="N"&gt;
+ *   &lt;message id="..." sequenceNumber="..." arrivalDate="milliseconds"&gt;text&lt;/message&gt;
+ * &lt;/messages&gt;
+ * </pre>
+ * If the messages after the cursor are no longer kept by the hub the
+ * response has <code>truncated="true"</code> and the client should
+ * catch up with ServiceFacade.findSMSMessagesAfter.
+ * <p>
+ * Other clients subscribe to <code>/events?cursor=N</code>, a Server-Sent
+ * Events stream with one event per message whose id is the sequence number
+ * and whose data is the message as JSON. Each batch of published messages
+ * is serialized once and the same bytes are queued on every stream. A
+ * stream whose client does not keep up is either disconnected or has
+ * messages dropped, in which case an <code>overflow</code> event carrying
+ * the last cursor sent tells the client to catch up.
+ * <p>
+ * Flash clients from the domain given to the constructor may read the
+ * server through the cross-domain policy at <code>/crossdomain.xml</code>,
+ * which is not served when no domain is given.
+ * <p>
+ * Connections that do not send a complete request within the request
+ * timeout are closed, so that idle clients cannot hold the connections.
+ * <p>
+ * Both requests take an optional <code>sky</code> parameter, the default
+ * sky if absent, and only receive the messages of that sky. Cursors are
+ * sequence numbers of the hub, shared by all skies. Requests for skies 
+ * that are not served are answered with 404.
+ */
+public class PushServer implements Runnable, MessageHub.Subscriber {
+    private static final int MAX_REQUEST_SIZE = 4096; // bytes
+    private static final long KEEP_ALIVE_INTERVAL = 15000; // milliseconds
+    private static final long REQUEST_TIMEOUT = 10000; // milliseconds
+
+    private MessageHub hub;
+    private int port;
+    private String policyDomain;
+    private long keepAliveInterval = KEEP_ALIVE_INTERVAL; // milliseconds
+    private long requestTimeout = REQUEST_TIMEOUT; // milliseconds
+    private long pollTimeout; // milliseconds
+    private int maxConnections;
+    private int maxBufferedBytes;
+    private boolean dropSlowConsumers;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private boolean running = false;
+    // Set when the hub publishes messages, cleared by the selector thread
+    private boolean published = false;
+    // Events (Event) waiting to be queued on the streams
+    private LinkedList events = new LinkedList();
+    private int connections = 0;
+    private int streams = 0;
+    private long dropped = 0;
+    private long disconnected = 0;
+
+    /**
+     * State of a client connection, attached to its SelectionKey.
+     */
+    private static class Connection {
+        ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        boolean handled = false;
+        // Buffers waiting to be written, oldest first
+        LinkedList outgoing = new LinkedList();
+        int buffered = 0;
+        boolean closeWhenWritten = false;
+        // Parked poll
+        boolean parked = false;
+        // Time the request must be complete by, then the time a parked poll is answered
+        long deadline;
+        // Event stream
+        boolean streaming = false;
+        boolean overflowed = false;
+        long cursor;
+        String sky;
+    }
+
+    /**
+     * Serialized messages of a sky, shared by all streams of the sky.
+     */
+    private static class Event {
+        ByteBuffer data;
+        long cursor;
+        // null for events sent to every stream
+        String sky;
+        Event(ByteBuffer data, long cursor, String sky) {
+            this.data = data;
+            this.cursor = cursor;
+            this.sky = sky;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param port Port to listen on
+     * @param pollTimeout Maximum time in milliseconds a poll is parked
+     * @param maxConnections Maximum number of open connections
+     * @param maxBufferedBytes Maximum number of bytes waiting to be written to a stream
+     * @param dropSlowConsumers True to drop messages for streams over the limit,
+     * false to disconnect them
+     * @param policyDomain Domain of the Flash clients allowed by the
+     * cross-domain policy, null to serve no policy
+     */
+    public PushServer(int port, long pollTimeout, int maxConnections,
+            int maxBufferedBytes, boolean dropSlowConsumers, String policyDomain) {
+        this(MessageHub.getInstance(), port, pollTimeout, maxConnections,
+                maxBufferedBytes, dropSlowConsumers, policyDomain);
+    }
+
+    PushServer(MessageHub hub, int port, long pollTimeout, int maxConnections,
+            int maxBufferedBytes, boolean dropSlowConsumers, String policyDomain) {
+        this.hub = hub;
+        this.port = port;
+        this.policyDomain = policyDomain;
+        this.pollTimeout = pollTimeout;
+        this.maxConnections = maxConnections;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.dropSlowConsumers = dropSlowConsumers;
+    }
+
+    /**
+     * Set the interval between the comments sent on idle event streams so
+     * that proxies do not close them.
+     * @param keepAliveInterval Interval in milliseconds
+     */
+    public synchronized void setKeepAliveInterval(long keepAliveInterval) {
+        this.keepAliveInterval = keepAliveInterval;
+    }
+
+    /**
+     * Set the time clients have to send a complete request after
+     * connecting before they are disconnected.
+     * @param requestTimeout Timeout in milliseconds
+     */
+    public synchronized void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Start listening and subscribe to the message hub.
+     * @throws IOException If the port cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        hub.addSubscriber(this);
+        running = true;
+        thread = new Thread(this, "PushServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the server and close all connections.
+     */
+    public void shutdown() {
+        Thread serverThread;
+        synchronized (this) {
+            running = false;
+            serverThread = thread;
+            thread = null;
+        }
+        hub.removeSubscriber(this);
+        if (serverThread != null) {
+            selector.wakeup();
+            try {
+                serverThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Number of open client connections.
+     */
+    public synchronized int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Number of open event streams.
+     */
+    public synchronized int getStreams() {
+        return streams;
+    }
+
+    /**
+     * Number of times messages were dropped for a slow stream.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Number of slow streams disconnected.
+     */
+    public synchronized long getDisconnected() {
+        return disconnected;
+    }
+
+    /**
+     * Serialize the messages of each sky for the event streams and wake 
+     * the selector thread so that they are sent and parked polls are 
+     * answered. Called by the thread that committed the messages.
+     * @see MessageHub.Subscriber#messagesPublished(List, long)
+     */
+    public void messagesPublished(List messages, long cursor) {
+        List batch = new LinkedList();
+        for (Iterator i = Sky.group(messages).entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry)i.next();
+            batch.add(new Event(encode(toEvents((List)entry.getValue())), cursor, (String)entry.getKey()));
+        }
+        synchronized (this) {
+            published = true;
+            if (streams > 0) {
+                events.addAll(batch);
+            }
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Selector loop.
+     */
+    public void run() {
+        long lastKeepAlive = System.currentTimeMillis();
+        try {
+            while (isRunning()) {
+                selector.select(1000);
+                for (Iterator i = selector.selectedKeys().iterator(); i.hasNext();) {
+                    SelectionKey key = (SelectionKey)i.next();
+                    i.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+                LinkedList pending = takeEvents();
+                if (System.currentTimeMillis() - lastKeepAlive >= getKeepAliveInterval()) {
+                    pending.addLast(new Event(encode(": keep-alive\n\n"), -1, null));
+                    lastKeepAlive = System.currentTimeMillis();
+                }
+                dispatch(takePublished(), pending);
+            }
+        } catch (IOException e) {
+            System.err.println("PushServer: selector failed.");
+            e.printStackTrace(System.err);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        return running;
+    }
+
+    private synchronized long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    private synchronized long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    private synchronized boolean takePublished() {
+        boolean result = published;
+        published = false;
+        return result;
+    }
+
+    private synchronized LinkedList takeEvents() {
+        LinkedList result = events;
+        events = new LinkedList();
+        return result;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        synchronized (this) {
+            if (connections >= maxConnections) {
+                channel.close();
+                return;
+            }
+            connections++;
+        }
+        Connection connection = new Connection();
+        connection.deadline = System.currentTimeMillis() + getRequestTimeout();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection)key.attachment();
+        SocketChannel channel = (SocketChannel)key.channel();
+        if (connection.handled) {
+            // nothing more is expected from the client, only watch for close
+            ByteBuffer discard = ByteBuffer.allocate(256);
+            if (channel.read(discard) < 0) {
+                close(key);
+            }
+            return;
+        }
+        if (channel.read(connection.request) < 0) {
+            close(key);
+            return;
+        }
+        String request = new String(connection.request.array(), 0, connection.request.position(), "ISO-8859-1");
+        if (request.indexOf("\r\n\r\n") >= 0 || request.indexOf("\n\n") >= 0) {
+            connection.handled = true;
+            handle(key, connection, request);
+        } else if (!connection.request.hasRemaining()) {
+            connection.handled = true;
+            respond(key, connection, "400 Bad Request", "text/plain", "Bad Request");
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection)key.attachment();
+        SocketChannel channel = (SocketChannel)key.channel();
+        while (!connection.outgoing.isEmpty()) {
+            ByteBuffer buffer = (ByteBuffer)connection.outgoing.getFirst();
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            connection.outgoing.removeFirst();
+            connection.buffered -= buffer.limit();
+        }
+        if (connection.closeWhenWritten) {
+            close(key);
+            return;
+        }
+        if (connection.overflowed) {
+            // the client has caught up, tell it what was dropped
+            connection.overflowed = false;
+            queue(key, connection, encode("event: overflow\ndata: " + connection.cursor + "\n\n"));
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Dispatch a complete request.
+     */
+    private void handle(SelectionKey key, Connection connection, String request) throws IOException {
+        StringTokenizer tokenizer = new StringTokenizer(request, " \r\n");
+        String method = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
+        String target = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
+        if (!method.equals("GET")) {
+            respond(key, connection, "405 Method Not Allowed", "text/plain", "Method Not Allowed");
+            return;
+        }
+        String path = target;
+        Map parameters = new HashMap();
+        int question = target.indexOf('?');
+        if (question >= 0) {
+            path = target.substring(0, question);
+            parseQuery(target.substring(question + 1), parameters);
+        }
+        if (path.equals("/poll") || path.equals("/events")) {
+            try {
+                connection.sky = Sky.check((String)parameters.get("sky"));
+            } catch (IllegalArgumentException e) {
+                respond(key, connection, "404 Not Found", "text/plain", "Not Found");
+                return;
+            }
+        }
+        if (path.equals("/poll")) {
+            poll(key, connection, parameters);
+        } else if (path.equals("/events")) {
+            String lastEventId = getHeader(request, "Last-Event-ID");
+            if (lastEventId != null) {
+                parameters.put("cursor", lastEventId);
+            }
+            subscribe(key, connection, parameters);
+        } else if (path.equals("/crossdomain.xml") && policyDomain != null) {
+            respond(key, connection, "200 OK", "text/xml", getCrossDomainPolicy());
+        } else {
+            respond(key, connection, "404 Not Found", "text/plain", "Not Found");
+        }
+    }
+
+    /**
+     * Answer a poll at once if there are messages after the cursor,
+     * otherwise park it.
+     */
+    private void poll(SelectionKey key, Connection connection, Map parameters) throws IOException {
+        long cursor;
+        try {
+            cursor = getCursor(parameters);
+        } catch (NumberFormatException e) {
+            respond(key, connection, "400 Bad Request", "text/plain", "Bad Request");
+            return;
+        }
+        connection.cursor = cursor;
+        connection.deadline = System.currentTimeMillis() + pollTimeout;
+        if (!answer(key, connection, false)) {
+            connection.parked = true;
+        }
+    }
+
+    /**
+     * Start an event stream, sending the messages of the sky after the 
+     * cursor that are still kept by the hub.
+     */
+    private void subscribe(SelectionKey key, Connection connection, Map parameters) throws IOException {
+        long cursor;
+        try {
+            cursor = getCursor(parameters);
+        } catch (NumberFormatException e) {
+            respond(key, connection, "400 Bad Request", "text/plain", "Bad Request");
+            return;
+        }
+        connection.streaming = true;
+        synchronized (this) {
+            streams++;
+        }
+        queue(key, connection, encode("HTTP/1.0 200 OK\r\n"
+                + "Content-Type: text/event-stream; charset=UTF-8\r\n"
+                + "Cache-Control: no-cache\r\n\r\n"));
+        // messages published from now on are queued by dispatch
+        connection.cursor = hub.getCursor();
+        List messages = hub.getMessagesAfter(connection.sky, cursor);
+        if (messages == null) {
+            queue(key, connection, encode("event: overflow\ndata: " + cursor + "\n\n"));
+        } else {
+            StringBuffer catchUp = new StringBuffer();
+            for (Iterator i = messages.iterator(); i.hasNext();) {
+                SMSMessage message = (SMSMessage)i.next();
+                if (message.getSequenceNumber().longValue() <= connection.cursor) {
+                    appendEvent(catchUp, message);
+                }
+            }
+            if (catchUp.length() > 0) {
+                queue(key, connection, encode(catchUp.toString()));
+            }
+        }
+    }
+
+    /**
+     * Queue events on the streams, answer parked polls that have
+     * messages to receive or have timed out and close the connections
+     * whose request is not complete in time.
+     * @param published True if messages were published since the last call
+     * @param pending Events to be queued on every stream
+     */
+    private void dispatch(boolean published, List pending) throws IOException {
+        long now = System.currentTimeMillis();
+        for (Iterator i = selector.keys().iterator(); i.hasNext();) {
+            SelectionKey key = (SelectionKey)i.next();
+            if (!key.isValid() || !(key.attachment() instanceof Connection)) {
+                continue;
+            }
+            Connection connection = (Connection)key.attachment();
+            if (!connection.handled) {
+                if (now >= connection.deadline) {
+                    close(key);
+                }
+            } else if (connection.streaming) {
+                for (Iterator j = pending.iterator(); j.hasNext() && key.isValid();) {
+                    Event event = (Event)j.next();
+                    if ((event.sky == null || event.sky.equals(connection.sky))
+                            && (event.cursor < 0 || event.cursor > connection.cursor)) {
+                        send(key, connection, event);
+                    }
+                }
+            } else if (connection.parked && (published || now >= connection.deadline)) {
+                if (answer(key, connection, now >= connection.deadline)) {
+                    connection.parked = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue an event on a stream, applying the slow consumer policy if
+     * the stream has too many bytes waiting. An event is always queued on
+     * a stream with nothing waiting, however large.
+     */
+    private void send(SelectionKey key, Connection connection, Event event) {
+        if (connection.overflowed
+                || (connection.buffered > 0 && connection.buffered + event.data.limit() > maxBufferedBytes)) {
+            if (!dropSlowConsumers) {
+                synchronized (this) {
+                    disconnected++;
+                }
+                close(key);
+                return;
+            }
+            if (!connection.overflowed) {
+                synchronized (this) {
+                    dropped++;
+                }
+                connection.overflowed = true;
+            }
+            return;
+        }
+        queue(key, connection, event.data.duplicate());
+        if (event.cursor >= 0) {
+            connection.cursor = event.cursor;
+        }
+    }
+
+    /**
+     * Write the messages of the sky after the cursor of the connection.
+     * A poll answered without messages returns the cursor of the hub, so
+     * that the messages of other skies are skipped by the next poll.
+     * @param timedOut True if the poll should be answered even without messages
+     * @return true if the poll was answered
+     */
+    private boolean answer(SelectionKey key, Connection connection, boolean timedOut) throws IOException {
+        long cursor = hub.getCursor();
+        List messages = hub.getMessagesAfter(connection.sky, connection.cursor);
+        if (messages != null && messages.isEmpty() && !timedOut) {
+            return false;
+        }
+        StringBuffer xml = new StringBuffer();
+        if (messages == null) {
+            xml.append("<messages cursor=\"").append(cursor).append("\" truncated=\"true\"/>");
+        } else if (messages.isEmpty()) {
+            xml.append("<messages cursor=\"").append(Math.max(cursor, connection.cursor)).append("\"/>");
+        } else {
+            SMSMessage last = (SMSMessage)messages.get(messages.size() - 1);
+            xml.append("<messages cursor=\"").append(last.getSequenceNumber()).append("\">");
+            for (Iterator i = messages.iterator(); i.hasNext();) {
+                SMSMessage message = (SMSMessage)i.next();
+                xml.append("<message id=\"").append(message.getId())
+                        .append("\" sequenceNumber=\"").append(message.getSequenceNumber())
+                        .append("\" arrivalDate=\"").append(message.getArrivalDate().getTime())
+                        .append("\">");
+                appendXML(xml, message.getMessage());
+                xml.append("</message>");
+            }
+            xml.append("</messages>");
+        }
+        respond(key, connection, "200 OK", "text/xml; charset=UTF-8", xml.toString());
+        return true;
+    }
+
+    /**
+     * Queue the response and close the connection once it is written.
+     */
+    private void respond(SelectionKey key, Connection connection, String status,
+            String contentType, String body) throws UnsupportedEncodingException {
+        byte[] content = body.getBytes("UTF-8");
+        String header = "HTTP/1.0 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: close\r\n\r\n";
+        byte[] head = header.getBytes("ISO-8859-1");
+        ByteBuffer response = ByteBuffer.allocate(head.length + content.length);
+        response.put(head).put(content).flip();
+        connection.closeWhenWritten = true;
+        queue(key, connection, response);
+    }
+
+    private void queue(SelectionKey key, Connection connection, ByteBuffer buffer) {
+        connection.outgoing.addLast(buffer);
+        connection.buffered += buffer.limit();
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void close(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // ignore
+        }
+        synchronized (this) {
+            connections--;
+            if (((Connection)key.attachment()).streaming) {
+                streams--;
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (Iterator i = selector.keys().iterator(); i.hasNext();) {
+            SelectionKey key = (SelectionKey)i.next();
+            if (key.attachment() instanceof Connection) {
+                close(key);
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Cross-domain policy allowing the configured domain to connect to
+     * the port of the server only.
+     */
+    private String getCrossDomainPolicy() {
+        StringBuffer xml = new StringBuffer();
+        xml.append("<?xml version=\"1.0\"?>\n<cross-domain-policy>\n<allow-access-from domain=\"");
+        appendXML(xml, policyDomain);
+        xml.append("\" to-ports=\"").append(port).append("\"/>\n</cross-domain-policy>\n");
+        return xml.toString();
+    }
+
+    private long getCursor(Map parameters) throws NumberFormatException {
+        String value = (String)parameters.get("cursor");
+        return value == null ? hub.getCursor() : Long.parseLong(value.trim());
+    }
+
+    private static String getHeader(String request, String name) {
+        StringTokenizer lines = new StringTokenizer(request, "\r\n");
+        while (lines.hasMoreTokens()) {
+            String line = lines.nextToken();
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static void parseQuery(String query, Map parameters) {
+        StringTokenizer tokenizer = new StringTokenizer(query, "&");
+        while (tokenizer.hasMoreTokens()) {
+            String pair = tokenizer.nextToken();
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                try {
+                    parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                            URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    // UTF-8 is always supported
+                } catch (IllegalArgumentException e) {
+                    // ignore malformed parameter
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer encode(String text) {
+        try {
+            return ByteBuffer.wrap(text.getBytes("UTF-8")).asReadOnlyBuffer();
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private static String toEvents(List messages) {
+        StringBuffer events = new StringBuffer();
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            appendEvent(events, (SMSMessage)i.next());
+        }
+        return events.toString();
+    }
+
+    /**
+     * Append a message as a Server-Sent Event with a JSON payload.
+     */
+    private static void appendEvent(StringBuffer events, SMSMessage message) {
+        events.append("id: ").append(message.getSequenceNumber()).append('\n');
+        events.append("data: {\"id\":");
+        appendJSON(events, message.getId());
+        events.append(",\"sequenceNumber\":").append(message.getSequenceNumber());
+        events.append(",\"arrivalDate\":").append(message.getArrivalDate().getTime());
+        events.append(",\"message\":");
+        appendJSON(events, message.getMessage());
+        events.append("}\n\n");
+    }
+
+    private static void appendJSON(StringBuffer json, String text) {
+        if (text == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '"': json.append("\\\""); break;
+            case '\\': json.append("\\\\"); break;
+            case '\n': json.append("\\n"); break;
+            case '\r': json.append("\\r"); break;
+            case '\t': json.append("\\t"); break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                    String hex = Integer.toHexString(c);
+                    json.append("\\u");
+                    for (int j = hex.length(); j < 4; j++) {
+                        json.append('0');
+                    }
+                    json.append(hex);
+                } else {
+                    json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    private static void appendXML(StringBuffer xml, String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<': xml.append("&lt;"); break;
+            case '>': xml.append("&gt;"); break;
+            case '&': xml.append("&amp;"); break;
+            case '"': xml.append("&quot;"); break;
+            default:
+                if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                    xml.append(' ');
+                } else {
+                    xml.append(c);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.IOException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts the PushServer with the web application and stops it when the
+ * application is taken out of service. The server is configured with the
+ * pushServerPort, pushServerPollTimeout, pushServerMaxConnections,
+ * pushServerMaxBufferedBytes, pushServerSlowConsumerPolicy and
+ * pushServerPolicyDomain context parameters; it is not started unless
+ * pushServerPort is set, and serves no cross-domain policy unless
+ * pushServerPolicyDomain is set.
+ */
+public class PushServerListener implements ServletContextListener {
+    private static final int POLL_TIMEOUT = 30; // seconds
+    private static final int MAX_CONNECTIONS = 10000;
+    private static final int MAX_BUFFERED_BYTES = 65536;
+    private static final String SLOW_CONSUMER_POLICY = "drop";
+
+    private PushServer pushServer;
+
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        int port = getIntParameter(context, "pushServerPort", 0);
+        if (port <= 0) {
+            return;
+        }
+        pushServer = new PushServer(port,
+                getIntParameter(context, "pushServerPollTimeout", POLL_TIMEOUT) * 1000L,
+                getIntParameter(context, "pushServerMaxConnections", MAX_CONNECTIONS),
+                getIntParameter(context, "pushServerMaxBufferedBytes", MAX_BUFFERED_BYTES),
+                !"disconnect".equals(getParameter(context, "pushServerSlowConsumerPolicy", SLOW_CONSUMER_POLICY)),
+                getParameter(context, "pushServerPolicyDomain", null));
+        try {
+            pushServer.start();
+            System.out.println("PushServerListener: push server listening on port " + port + ".");
+        } catch (IOException e) {
+            System.err.println("PushServerListener: failed to start push server on port " + port + ".");
+            e.printStackTrace(System.err);
+            pushServer = null;
+        }
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+        if (pushServer != null) {
+            pushServer.shutdown();
+            pushServer = null;
+        }
+    }
+
+    private String getParameter(ServletContext context, String name, String defaultValue) {
+        String value = context.getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    private int getIntParameter(ServletContext context, String name, int defaultValue) {
+        String value = context.getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("PushServerListener: invalid value " + value + " for " + name + ", using " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.Serializable;
+
+/**
+ * Number of SMSMessages sent from a region.
+ */
+public class RegionCount implements Serializable {
+    private String region;
+    private int count;
+
+    public RegionCount() {
+    }
+    public RegionCount(String region, int count) {
+        this.region = region;
+        this.count = count;
+    }
+
+    /**
+     * Area code of the senders.
+     * @see SenderRegion
+     */
+    public String getRegion() {
+        return region;
+    }
+    public void setRegion(String region) {
+        this.region = region;
+    }
+    /**
+     * Number of messages.
+     */
+    public int getCount() {
+        return count;
+    }
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
@@ -16,6 +16,10 @@ public class SMSMessage extends PersistentObject {
     private Date arrivalDate;
     private String message;
     private String sender;
+    private String region;
+    private String sky;
+    private String carrierMessageId;
+    private Long sequenceNumber;
     
     public Date getArrivalDate() {
         return arrivalDate;
@@ -29,12 +33,57 @@ public class SMSMessage extends PersistentObject {
     public void setMessage(String message) {
         this.message = message;
     }
+    /**
+     * Phone number of the sender. Not sent to the Flash clients, see
+     * SMSMessageBeanInfo.
+     */
     public String getSender() {
         return sender;
     }
     public void setSender(String sender) {
         this.sender = sender;
     }
+    /**
+     * Area code of the sender, derived from the sender when the message
+     * is saved. May be null.
+     * @see SenderRegion
+     */
+    public String getRegion() {
+        return region;
+    }
+    public void setRegion(String region) {
+        this.region = region;
+    }
+    /**
+     * Identifier of the sky the message was sent to, Sky.DEFAULT if the
+     * deployment serves a single installation.
+     */
+    public String getSky() {
+        return sky;
+    }
+    public void setSky(String sky) {
+        this.sky = sky;
+    }
+    /**
+     * Message id assigned by the carrier or SMS aggregator, used to
+     * detect redelivered messages. May be null.
+     */
+    public String getCarrierMessageId() {
+        return carrierMessageId;
+    }
+    public void setCarrierMessageId(String carrierMessageId) {
+        this.carrierMessageId = carrierMessageId;
+    }
+    /**
+     * Number assigned when the message is saved, increasing in the 
+     * order messages are saved.
+     */
+    public Long getSequenceNumber() {
+        return sequenceNumber;
+    }
+    public void setSequenceNumber(Long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
     public String getId() {
         return id;
     }
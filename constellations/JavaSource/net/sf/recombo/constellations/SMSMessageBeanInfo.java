@@ -0,0 +1,42 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.beans.SimpleBeanInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hides the sender of SMSMessages from bean introspection, so that the
+ * phone numbers of the senders are not sent to the Flash clients by the
+ * OpenAMF gateway. Hibernate does not use introspection and still
+ * persists the sender.
+ */
+public class SMSMessageBeanInfo extends SimpleBeanInfo {
+    private static final String[] HIDDEN = {"sender"};
+
+    public PropertyDescriptor[] getPropertyDescriptors() {
+        try {
+            BeanInfo info = Introspector.getBeanInfo(SMSMessage.class, Introspector.IGNORE_ALL_BEANINFO);
+            PropertyDescriptor[] all = info.getPropertyDescriptors();
+            List visible = new ArrayList(all.length);
+            for (int i = 0; i < all.length; i++) {
+                boolean hidden = false;
+                for (int j = 0; j < HIDDEN.length; j++) {
+                    hidden |= HIDDEN[j].equals(all[i].getName());
+                }
+                if (!hidden) {
+                    visible.add(all[i]);
+                }
+            }
+            return (PropertyDescriptor[])visible.toArray(new PropertyDescriptor[visible.size()]);
+        } catch (IntrospectionException e) {
+            return null;
+        }
+    }
+}
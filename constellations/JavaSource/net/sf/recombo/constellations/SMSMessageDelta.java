@@ -0,0 +1,42 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * SMSMessages added after a cursor and the cursor to be used in the
+ * next request.
+ */
+public class SMSMessageDelta implements Serializable {
+    private List messages;
+    private String cursor;
+
+    public SMSMessageDelta() {
+    }
+    public SMSMessageDelta(List messages, String cursor) {
+        this.messages = messages;
+        this.cursor = cursor;
+    }
+
+    /**
+     * SMSMessages added after the cursor, ordered by sequence number.
+     */
+    public List getMessages() {
+        return messages;
+    }
+    public void setMessages(List messages) {
+        this.messages = messages;
+    }
+    /**
+     * Opaque cursor to be passed in the next request.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+}
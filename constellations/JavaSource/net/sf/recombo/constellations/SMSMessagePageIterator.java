@@ -0,0 +1,72 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import net.sf.recombo.common.persistence.HibernateUtil;
+
+/**
+ * Iterator over all SMSMessages of a sky that reads them a page at a time with
+ * ConstellationController.findSMSMessagePage. Only the current page is
+ * held in memory; the previous page is evicted from the Hibernate session
+ * when the next one is read.
+ */
+class SMSMessagePageIterator implements Iterator {
+    private ConstellationController constellationController;
+    private String sky;
+    private int pageSize;
+
+    private List page;
+    private int index = 0;
+    private SMSMessage last;
+
+    /**
+     * Constructor.
+     * @param constellationController Controller used to read the pages
+     * @param sky Sky identifier
+     * @param pageSize Number of messages per page
+     */
+    SMSMessagePageIterator(ConstellationController constellationController, String sky, int pageSize) {
+        this.constellationController = constellationController;
+        this.sky = sky;
+        this.pageSize = pageSize;
+    }
+
+    public boolean hasNext() {
+        if (page == null || (index == page.size() && page.size() == pageSize)) {
+            nextPage();
+        }
+        return index < page.size();
+    }
+
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        last = (SMSMessage)page.get(index++);
+        return last;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void nextPage() {
+        if (page != null) {
+            HibernateUtil hibernateUtil = HibernateUtil.getInstance();
+            for (int i = 0; i < page.size(); i++) {
+                hibernateUtil.evict((SMSMessage)page.get(i));
+            }
+        }
+        if (last == null) {
+            page = constellationController.findSMSMessagePage(sky, null, null, pageSize);
+        } else {
+            page = constellationController.findSMSMessagePage(sky, last.getArrivalDate(), last.getId(), pageSize);
+        }
+        index = 0;
+    }
+}
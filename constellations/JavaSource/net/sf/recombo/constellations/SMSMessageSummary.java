@@ -0,0 +1,52 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * What the sky needs to draw the star of an SMSMessage: its id, the
+ * length of its text and its arrival date. The text itself is fetched
+ * with ServiceFacade.findSMSMessageTexts when the message is shown.
+ */
+public class SMSMessageSummary implements Serializable {
+    private String id;
+    private int length;
+    private Date arrivalDate;
+
+    public SMSMessageSummary() {
+    }
+    public SMSMessageSummary(String id, int length, Date arrivalDate) {
+        this.id = id;
+        this.length = length;
+        this.arrivalDate = arrivalDate;
+    }
+    public SMSMessageSummary(SMSMessage message) {
+        this(message.getId(), message.getMessage() == null ? 0 : message.getMessage().length(), 
+                message.getArrivalDate());
+    }
+
+    public String getId() {
+        return id;
+    }
+    public void setId(String id) {
+        this.id = id;
+    }
+    /**
+     * Number of characters of the text.
+     */
+    public int getLength() {
+        return length;
+    }
+    public void setLength(int length) {
+        this.length = length;
+    }
+    public Date getArrivalDate() {
+        return arrivalDate;
+    }
+    public void setArrivalDate(Date arrivalDate) {
+        this.arrivalDate = arrivalDate;
+    }
+}
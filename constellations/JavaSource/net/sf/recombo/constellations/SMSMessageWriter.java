@@ -0,0 +1,343 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.sf.recombo.common.persistence.HibernateUtil;
+
+/**
+ * Writer stage of the asynchronous ingest pipeline. Received SMSMessages
+ * are placed in a bounded queue and a single background thread saves them
+ * in batches, one transaction per batch (group commit). A batch is written
+ * as soon as it is full or when the oldest queued message has waited for
+ * the maximum linger time.
+ * <p>
+ * If a MessageJournal is set the writer also acts as its applier: messages
+ * are appended to the journal before they are queued, and marked as applied
+ * once their transaction has committed. A message that cannot be saved
+ * is tried again, waiting longer after each attempt up to
+ * MAX_RETRY_INTERVAL, until it is saved or the writer is shut down, in
+ * which case it and the messages after it are left in the journal to be
+ * written again at startup. After RETRIES failed attempts the writer
+ * reports that it is failing, so that new messages can be refused until
+ * the database is back. Without a journal such a message is dropped.
+ */
+public class SMSMessageWriter implements Runnable {
+    // Failed attempts to save a message before the writer reports it is failing
+    private static final int RETRIES = 3;
+    private static final long RETRY_INTERVAL = 1000; // milliseconds
+    private static final long MAX_RETRY_INTERVAL = 30000; // milliseconds
+
+    private ConstellationController constellationController;
+    private int batchSize;
+    private long linger; // milliseconds
+    private int capacity;
+
+    // Messages waiting to be written
+    private LinkedList queue = new LinkedList();
+    private boolean running = false;
+    // True while a message keeps failing to be saved
+    private boolean failing = false;
+    private Thread thread;
+    
+    // Write-ahead journal, may be null
+    private MessageJournal journal;
+    // Keeps journal order and queue order the same
+    private Object appendLock = new Object();
+
+    /**
+     * Constructor.
+     * @param constellationController Controller used to save the messages
+     * @param batchSize Maximum number of messages saved per transaction
+     * @param linger Maximum time in milliseconds a message waits for a batch to fill
+     * @param capacity Maximum number of queued messages
+     */
+    public SMSMessageWriter(ConstellationController constellationController,
+            int batchSize, long linger, int capacity) {
+        this.constellationController = constellationController;
+        this.batchSize = batchSize;
+        this.linger = linger;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Set the write-ahead journal. Messages recovered from the journal 
+     * are queued to be written when the writer starts. 
+     * @param journal Journal
+     */
+    public synchronized void setJournal(MessageJournal journal) {
+        this.journal = journal;
+        queue.addAll(journal.recover());
+        if (!queue.isEmpty()) {
+            System.out.println("SMSMessageWriter: recovered " + queue.size() + " messages from journal.");
+        }
+    }
+
+    /**
+     * Start the writer thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this, "SMSMessageWriter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop accepting messages, write everything still queued and
+     * wait for the writer thread to finish.
+     */
+    public void shutdown() {
+        Thread writerThread;
+        synchronized (this) {
+            running = false;
+            notifyAll();
+            writerThread = thread;
+            thread = null;
+        }
+        if (writerThread != null) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait until there is room in the queue for the messages, or until
+     * the queue is empty if they do not fit at all.
+     * @param count Number of messages
+     * @param deadline Time in milliseconds after which to stop waiting
+     * @return false if there was no room before the deadline
+     * @throws IllegalStateException If the writer is not running
+     */
+    private synchronized boolean awaitRoom(int count, long deadline) throws InterruptedException {
+        while (running && !queue.isEmpty() && queue.size() + count > capacity) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        if (!running) {
+            throw new IllegalStateException("SMSMessageWriter is not running.");
+        }
+        return true;
+    }
+
+    /**
+     * Queue a message to be written.
+     * @param message SMSMessage to save
+     */
+    private synchronized void add(SMSMessage message) {
+        queue.addLast(message);
+        notifyAll();
+    }
+
+    /**
+     * Queue messages to be written, waiting at most the timeout for room
+     * in the queue and in the journal. If there is a journal the messages
+     * are first appended to the journal and forced to disk. Only one 
+     * caller waits at a time and only the writer thread takes messages 
+     * from the queue, so the room found is still there once the messages
+     * are journaled.
+     * @param messages SMSMessages to save
+     * @param timeout Maximum time in milliseconds to wait for room
+     * @return false if the queue or the journal stayed full for the 
+     * timeout, the messages were not accepted
+     * @throws IOException If the messages cannot be appended to the journal
+     * @throws IllegalStateException If the writer is not running
+     */
+    public boolean add(List messages, long timeout) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (appendLock) {
+            if (!awaitRoom(messages.size(), deadline)) {
+                return false;
+            }
+            if (journal != null 
+                    && !journal.append(messages, Math.max(1, deadline - System.currentTimeMillis()))) {
+                return false;
+            }
+            for (Iterator i = messages.iterator(); i.hasNext();) {
+                add((SMSMessage)i.next());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Verify if the writer accepts messages, that is it was started and
+     * not shut down.
+     */
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Verify if a message has failed to be saved RETRIES times and is
+     * still being tried again.
+     */
+    public synchronized boolean isFailing() {
+        return failing;
+    }
+
+    private synchronized void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * Number of messages waiting to be written.
+     * @return Queue size
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Writer thread main loop.
+     */
+    public void run() {
+        List batch;
+        while ((batch = nextBatch()) != null) {
+            if (!write(batch)) {
+                abandon();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Give up the queued messages when the writer is shut down while a
+     * message cannot be saved. They are left in the journal.
+     */
+    private synchronized void abandon() {
+        System.err.println("SMSMessageWriter: shut down while failing, " + queue.size()
+                + " queued messages are left in the journal to be written at startup.");
+        queue.clear();
+        notifyAll();
+    }
+
+    /**
+     * Wait before trying a message again, unless the writer is shut down.
+     * @param interval Time to wait in milliseconds
+     * @return false if the writer was shut down
+     */
+    private synchronized boolean pause(long interval) {
+        long deadline = System.currentTimeMillis() + interval;
+        long remaining = interval;
+        try {
+            while (running && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            running = false;
+        }
+        return running;
+    }
+
+    /**
+     * Wait for the next batch. The batch is returned when it is full,
+     * when the linger time has elapsed since the writer woke up for the
+     * first message, or when the writer is shutting down.
+     * @return Next batch or null if the writer has stopped and the queue is empty
+     */
+    private synchronized List nextBatch() {
+        try {
+            while (running && queue.isEmpty()) {
+                wait();
+            }
+            long deadline = System.currentTimeMillis() + linger;
+            long remaining = linger;
+            while (running && queue.size() < batchSize && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            running = false;
+        }
+        if (queue.isEmpty()) {
+            return null;
+        }
+        List batch = new ArrayList(Math.min(batchSize, queue.size()));
+        while (!queue.isEmpty() && batch.size() < batchSize) {
+            batch.add(queue.removeFirst());
+        }
+        notifyAll(); // room for blocked producers
+        return batch;
+    }
+
+    /**
+     * Save a batch in a single transaction. If the transaction fails the
+     * messages are saved one by one so that a single bad message does not
+     * cause the whole batch to be lost. Messages are marked as applied in
+     * the journal only once they are committed.
+     * @return false if the writer was shut down before a message could be
+     * saved and there is a journal
+     */
+    private boolean write(List batch) {
+        try {
+            constellationController.addSMSMessages(batch);
+            if (journal != null) {
+                journal.markApplied(batch.size());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            System.err.println("SMSMessageWriter: failed to save batch of " + batch.size() + " messages, retrying individually.");
+            e.printStackTrace(System.err);
+        } finally {
+            HibernateUtil.getInstance().closeSession();
+        }
+        for (Iterator i = batch.iterator(); i.hasNext();) {
+            if (!write((SMSMessage)i.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Save a single message. If there is a journal the message is tried
+     * again until it is saved or the writer is shut down.
+     * @return false if the writer was shut down before the message could
+     * be saved and there is a journal
+     */
+    private boolean write(SMSMessage message) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                constellationController.addSMSMessage(message);
+                if (journal != null) {
+                    journal.markApplied(1);
+                }
+                if (attempt > 1) {
+                    setFailing(false);
+                }
+                return true;
+            } catch (RuntimeException e) {
+                e.printStackTrace(System.err);
+                if (journal == null) {
+                    System.err.println("SMSMessageWriter: dropped message [" + message.getSender() + ": " + message.getMessage() + "]");
+                    return true;
+                }
+                if (attempt == RETRIES) {
+                    System.err.println("SMSMessageWriter: failed to save message [" + message.getSender() + ": " + message.getMessage() + "], still trying.");
+                    setFailing(true);
+                }
+            } finally {
+                HibernateUtil.getInstance().closeSession();
+            }
+            if (!pause(Math.min(RETRY_INTERVAL * attempt, MAX_RETRY_INTERVAL))) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Per sender token bucket rate limiter. Each sender may send a burst of
+ * messages, after which messages are accepted at a steady rate. Buckets
+ * are kept in a number of independently locked stripes so that senders
+ * hashed to different stripes do not contend. A bucket that has been idle
+ * long enough to refill completely is indistinguishable from a new one,
+ * so such buckets are evicted when their stripe is swept.
+ */
+public class SenderRateLimiter {
+
+    private static final int STRIPES = 16;
+
+    private double burst;
+    private double ratePerMillisecond;
+    // Time after which an idle bucket is full
+    private long refillTime;
+    private Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Token bucket of a single sender.
+     */
+    private static class Bucket {
+        double tokens;
+        long lastRefill;
+    }
+
+    /**
+     * A lock and the buckets it protects.
+     */
+    private static class Stripe {
+        Map buckets = new HashMap();
+        long lastSweep;
+        long limited;
+    }
+
+    /**
+     * Constructor.
+     * @param messagesPerMinute Steady number of messages accepted per sender
+     * @param burst Number of messages a sender may send at once
+     */
+    public SenderRateLimiter(int messagesPerMinute, int burst) {
+        this.burst = burst;
+        this.ratePerMillisecond = messagesPerMinute / 60000.0;
+        this.refillTime = (long)Math.ceil(burst / ratePerMillisecond);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Take a token from the sender's bucket.
+     * @param sender Sender
+     * @param now Current time in milliseconds
+     * @return true if the message is accepted, false if the sender is over the limit
+     */
+    public boolean tryAcquire(String sender, long now) {
+        Stripe stripe = stripes[(sender.hashCode() & 0x7fffffff) % STRIPES];
+        synchronized (stripe) {
+            if (now - stripe.lastSweep > refillTime) {
+                sweep(stripe, now);
+            }
+            Bucket bucket = (Bucket)stripe.buckets.get(sender);
+            if (bucket == null) {
+                bucket = new Bucket();
+                bucket.tokens = burst;
+                bucket.lastRefill = now;
+                stripe.buckets.put(sender, bucket);
+            } else if (now > bucket.lastRefill) {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefill) * ratePerMillisecond);
+                bucket.lastRefill = now;
+            }
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return true;
+            }
+            stripe.limited++;
+            return false;
+        }
+    }
+
+    /**
+     * Number of senders currently tracked.
+     */
+    public int getSenderCount() {
+        int count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (stripes[i]) {
+                count += stripes[i].buckets.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number of messages rejected since startup.
+     */
+    public long getLimited() {
+        long limited = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (stripes[i]) {
+                limited += stripes[i].limited;
+            }
+        }
+        return limited;
+    }
+
+    /**
+     * Evict buckets that would be full by now.
+     */
+    private void sweep(Stripe stripe, long now) {
+        for (Iterator i = stripe.buckets.values().iterator(); i.hasNext();) {
+            Bucket bucket = (Bucket)i.next();
+            if (now - bucket.lastRefill >= refillTime) {
+                i.remove();
+            }
+        }
+        stripe.lastSweep = now;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+/**
+ * Derives the region of a message from the phone number of its sender:
+ * the Brazilian area code (DDD). Numbers may be written with or without
+ * the country code 55, a leading 0 and a carrier selection code, and with
+ * any punctuation, e.g. +55 (81) 9999-1234, 0xx81 99991234 or 8199991234.
+ */
+public final class SenderRegion {
+    // Area codes in use, by their digits
+    private static final boolean[] AREA_CODES = new boolean[100];
+
+    static {
+        int[] codes = {
+            11, 12, 13, 14, 15, 16, 17, 18, 19,
+            21, 22, 24, 27, 28,
+            31, 32, 33, 34, 35, 37, 38,
+            41, 42, 43, 44, 45, 46, 47, 48, 49,
+            51, 53, 54, 55,
+            61, 62, 63, 64, 65, 66, 67, 68, 69,
+            71, 73, 74, 75, 77, 79,
+            81, 82, 83, 84, 85, 86, 87, 88, 89,
+            91, 92, 93, 94, 95, 96, 97, 98, 99
+        };
+        for (int i = 0; i < codes.length; i++) {
+            AREA_CODES[codes[i]] = true;
+        }
+    }
+
+    private SenderRegion() {
+    }
+
+    /**
+     * Recover the area code of a phone number.
+     * @param sender Phone number of the sender, may be null
+     * @return Two digit area code, or null if the number has none
+     */
+    public static String getRegion(String sender) {
+        if (sender == null) {
+            return null;
+        }
+        StringBuffer digits = new StringBuffer(sender.length());
+        for (int i = 0; i < sender.length(); i++) {
+            char c = sender.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        String number = digits.toString();
+        if (number.startsWith("55") && number.length() >= 12) {
+            // country code
+            number = number.substring(2);
+        } else if (number.startsWith("0")) {
+            // trunk prefix, followed by a carrier selection code if the number is long enough
+            number = number.substring(number.length() >= 13 ? 3 : 1);
+        }
+        // area code followed by an 8 or 9 digit subscriber number
+        if (number.length() < 10 || number.length() > 11) {
+            return null;
+        }
+        int code = (number.charAt(0) - '0') * 10 + (number.charAt(1) - '0');
+        return AREA_CODES[code] ? number.substring(0, 2) : null;
+    }
+}
@@ -3,31 +3,374 @@
  */
 package net.sf.recombo.constellations;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import net.sf.recombo.common.ControllerFactory;
+import net.sf.recombo.common.persistence.HibernateUtil;
 
 
 /**
+ * Every method takes the identifier of the sky of the installation, null 
+ * for the default sky, and throws IllegalArgumentException for skies that
+ * are not served. The methods without a sky serve the default sky; they 
+ * keep the signatures called by Flash clients built before skies existed.
  * @author Devendra Tewari
  */
 public class ServiceFacade {
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_TEXTS = 100;
+    private static final int MAX_BUCKETS = 10000;
+    // Distinguishes the versions of the sky issued by different instances
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    
     private static ConstellationController constellationController;
+    // VersionedResponseCaches by sky
+    private static Map messagesCaches = new HashMap();
+    private static Map summariesCaches = new HashMap();
     
     static {
         constellationController = (ConstellationController)ControllerFactory.getController(ConstellationController.class);
+        try {
+            constellationController.initializeMessageSequence();
+            for (Iterator i = Sky.getIds().iterator(); i.hasNext();) {
+                String sky = (String)i.next();
+                constellationController.loadSkySnapshot(sky);
+                constellationController.loadStarSlots(sky);
+                constellationController.loadTextIndex(sky);
+                constellationController.loadMessageCounters(sky);
+            }
+        } finally {
+            HibernateUtil.getInstance().closeSession();
+        }
     }
     
-    public List findAllSMSMessages() {
-        return constellationController.findAllSMSMessages();
+    /**
+     * List the SMSMessages in the sky snapshot ordered by arrivalDate.
+     */
+    public List findAllSMSMessages(String sky) {
+        return findAllSMSMessagesIfModified(sky, null).getMessages();
     }
     
-    public List findAllSMSMessagesFromArrivalDate(Date arrivalDate) {
-        return constellationController.findAllSMSMessagesFromArrivalDate(arrivalDate);
+    /**
+     * List the SMSMessages in the sky snapshot ordered by arrivalDate,
+     * unless the caller already has the current version. The list is
+     * built once per version and shared by all callers.
+     * @param version Version returned by the previous call, null to 
+     * recover the messages in any case
+     */
+    public SkyResponse findAllSMSMessagesIfModified(String sky, String version) {
+        final String checked = Sky.check(sky);
+        return findSky(checked, version, getCache(messagesCaches, checked), new VersionedResponseCache.Loader() {
+            public Object load() {
+                List messages = SkySnapshot.getInstance(checked).findAll();
+                if (messages == null) {
+                    messages = constellationController.findAllSMSMessages(checked);
+                }
+                return messages;
+            }
+        });
+    }
+    
+    /**
+     * List the id, text length and arrival date of the SMSMessages in the
+     * sky snapshot ordered by arrivalDate. The texts are recovered with
+     * findSMSMessageTexts when they are shown.
+     */
+    public List findAllSMSMessageSummaries(String sky) {
+        return findAllSMSMessageSummariesIfModified(sky, null).getMessages();
+    }
+    
+    /**
+     * List the SMSMessageSummaries of the sky snapshot, unless the caller
+     * already has the current version.
+     * @param version Version returned by the previous call, null to 
+     * recover the summaries in any case
+     */
+    public SkyResponse findAllSMSMessageSummariesIfModified(String sky, String version) {
+        final String checked = Sky.check(sky);
+        return findSky(checked, version, getCache(summariesCaches, checked), new VersionedResponseCache.Loader() {
+            public Object load() {
+                List messages = SkySnapshot.getInstance(checked).findAll();
+                if (messages == null) {
+                    return constellationController.findAllSMSMessageSummaries(checked);
+                }
+                List summaries = new ArrayList(messages.size());
+                for (Iterator i = messages.iterator(); i.hasNext();) {
+                    summaries.add(new SMSMessageSummary((SMSMessage)i.next()));
+                }
+                return Collections.unmodifiableList(summaries);
+            }
+        });
+    }
+    
+    /**
+     * Answer a request for the sky from the cache, or with "not modified"
+     * if the caller presents the current version of the sky snapshot.
+     * The cache is bypassed if the snapshot is not loaded.
+     */
+    private SkyResponse findSky(String sky, String version, VersionedResponseCache cache, VersionedResponseCache.Loader loader) {
+        SkySnapshot snapshot = SkySnapshot.getInstance(sky);
+        if (!snapshot.isLoaded()) {
+            return new SkyResponse((List)loader.load(), null, true);
+        }
+        long current = snapshot.getVersion();
+        String currentVersion = EPOCH + ":" + current;
+        if (currentVersion.equals(version)) {
+            return new SkyResponse(null, currentVersion, false);
+        }
+        return new SkyResponse((List)cache.get(current, loader), currentVersion, true);
+    }
+    
+    /**
+     * Recover the cache of a sky, creating it on first use.
+     */
+    private static synchronized VersionedResponseCache getCache(Map caches, String sky) {
+        VersionedResponseCache cache = (VersionedResponseCache)caches.get(sky);
+        if (cache == null) {
+            cache = new VersionedResponseCache();
+            caches.put(sky, cache);
+        }
+        return cache;
+    }
+    
+    /**
+     * Recover the texts of the SMSMessages with the ids specified.
+     * @param ids At most MAX_TEXTS ids
+     * @return Texts in the order of the ids, null for ids not found
+     * @throws IllegalArgumentException If there are too many ids
+     */
+    public String[] findSMSMessageTexts(String sky, String[] ids) {
+        if (ids.length > MAX_TEXTS) {
+            throw new IllegalArgumentException("At most " + MAX_TEXTS + " texts may be recovered at a time.");
+        }
+        return constellationController.findSMSMessageTexts(Sky.check(sky), ids);
+    }
+    
+    /**
+     * List the SMSMessages with arrival date greater than or equal to the
+     * date specified ordered by arrivalDate. The database is only queried 
+     * if the messages are older than the sky snapshot.
+     */
+    public List findAllSMSMessagesFromArrivalDate(String sky, Date arrivalDate) {
+        sky = Sky.check(sky);
+        List messages = SkySnapshot.getInstance(sky).findFromArrivalDate(arrivalDate);
+        if (messages == null) {
+            messages = constellationController.findAllSMSMessagesFromArrivalDate(sky, arrivalDate);
+        }
+        return messages;
+    }
+    
+    /**
+     * List a page of SMSMessages ordered by arrivalDate and id.
+     * @param afterArrivalDate Arrival date of the last message of the 
+     * previous page, null for the first page
+     * @param afterId Id of the last message of the previous page, null to
+     * start after all the messages that arrived at afterArrivalDate
+     * @param limit Maximum number of messages, at most MAX_PAGE_SIZE
+     */
+    public List findSMSMessagePage(String sky, Date afterArrivalDate, String afterId, int limit) {
+        return constellationController.findSMSMessagePage(Sky.check(sky), afterArrivalDate, afterId, 
+                Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+    
+    /**
+     * List the SMSMessages containing a text, ignoring case, ordered by
+     * arrivalDate.
+     * @param text Text of at least three characters to be found quickly
+     * @param limit Maximum number of messages, at most MAX_PAGE_SIZE
+     */
+    public List findSMSMessagesContaining(String sky, String text, int limit) {
+        return constellationController.findSMSMessagesContaining(Sky.check(sky), text, 
+                Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+    
+    /**
+     * List the SMSMessages containing a word, ignoring case, ordered by
+     * arrivalDate. A word ending with '*' finds the words starting with it.
+     * @param word Word
+     * @param limit Maximum number of messages, at most MAX_PAGE_SIZE
+     */
+    public List findSMSMessagesByWord(String sky, String word, int limit) {
+        boolean prefix = word.endsWith("*");
+        return constellationController.findSMSMessagesByWord(Sky.check(sky), prefix ? word.substring(0, word.length() - 1) : word, 
+                prefix, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+    
+    /**
+     * List a page of the SMSMessages sent from a region ordered by 
+     * arrivalDate and id.
+     * @param region Area code of the senders
+     * @param afterArrivalDate Arrival date of the last message of the 
+     * previous page, null for the first page
+     * @param afterId Id of the last message of the previous page, null to
+     * start after all the messages that arrived at afterArrivalDate
+     * @param limit Maximum number of messages, at most MAX_PAGE_SIZE
+     */
+    public List findSMSMessagesByRegion(String sky, String region, Date afterArrivalDate, String afterId, int limit) {
+        return constellationController.findSMSMessagesByRegion(Sky.check(sky), region, afterArrivalDate, afterId, 
+                Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+    
+    /**
+     * Count the SMSMessages sent from each region in a period.
+     * @param from Start of the period, null for no start
+     * @param to End of the period, exclusive, null for no end
+     * @return RegionCounts ordered by region
+     */
+    public List countSMSMessagesByRegion(String sky, Date from, Date to) {
+        return constellationController.countSMSMessagesByRegion(Sky.check(sky), from, to);
+    }
+    
+    /**
+     * Recover the messages added after the cursor and the cursor to be 
+     * used in the next call. Replaces polling with getNewDate and 
+     * findAllSMSMessagesFromArrivalDate.
+     * @param cursor Cursor returned by the previous call, null to 
+     * recover all messages
+     */
+    public SMSMessageDelta findSMSMessagesAfter(String sky, String cursor) {
+        return constellationController.findSMSMessagesAfter(Sky.check(sky), cursor);
+    }
+    
+    /**
+     * Recover the stars of the sky changed after the cursor and the 
+     * cursor to be used in the next call.
+     * @param cursor Cursor returned by the previous call, null to 
+     * recover the whole sky
+     */
+    public StarSlotDelta findStarSlots(String sky, String cursor) {
+        return StarSlotTable.getInstance(Sky.check(sky)).findSlots(cursor);
+    }
+    
+    /**
+     * Count the SMSMessages that arrived in each bucket of a period, for
+     * instance per minute or per hour.
+     * @param from Start of the period
+     * @param to End of the period, exclusive
+     * @param bucketMinutes Length of each bucket in minutes
+     * @throws IllegalArgumentException If the bucket length is not positive
+     * or the period has more than MAX_BUCKETS buckets
+     */
+    public MessageCounts countSMSMessages(String sky, Date from, Date to, int bucketMinutes) {
+        sky = Sky.check(sky);
+        if (bucketMinutes <= 0) {
+            throw new IllegalArgumentException("Invalid bucket length " + bucketMinutes + ".");
+        }
+        if ((to.getTime() - from.getTime()) / (bucketMinutes * 60000L) >= MAX_BUCKETS) {
+            throw new IllegalArgumentException("At most " + MAX_BUCKETS + " buckets may be counted at a time.");
+        }
+        return MessageCounters.getInstance(sky).count(from, to, bucketMinutes);
     }
     
     public Date getNewDate() {
         return new Date();
     }
+    
+    /*
+     * Methods of the default sky.
+     */
+    
+    /**
+     * @see #findAllSMSMessages(String)
+     */
+    public List findAllSMSMessages() {
+        return findAllSMSMessages(Sky.DEFAULT);
+    }
+    
+    /**
+     * @see #findAllSMSMessagesIfModified(String, String)
+     */
+    public SkyResponse findAllSMSMessagesIfModified(String version) {
+        return findAllSMSMessagesIfModified(Sky.DEFAULT, version);
+    }
+    
+    /**
+     * @see #findAllSMSMessageSummaries(String)
+     */
+    public List findAllSMSMessageSummaries() {
+        return findAllSMSMessageSummaries(Sky.DEFAULT);
+    }
+    
+    /**
+     * @see #findAllSMSMessageSummariesIfModified(String, String)
+     */
+    public SkyResponse findAllSMSMessageSummariesIfModified(String version) {
+        return findAllSMSMessageSummariesIfModified(Sky.DEFAULT, version);
+    }
+    
+    /**
+     * @see #findSMSMessageTexts(String, String[])
+     */
+    public String[] findSMSMessageTexts(String[] ids) {
+        return findSMSMessageTexts(Sky.DEFAULT, ids);
+    }
+    
+    /**
+     * @see #findAllSMSMessagesFromArrivalDate(String, Date)
+     */
+    public List findAllSMSMessagesFromArrivalDate(Date arrivalDate) {
+        return findAllSMSMessagesFromArrivalDate(Sky.DEFAULT, arrivalDate);
+    }
+    
+    /**
+     * @see #findSMSMessagePage(String, Date, String, int)
+     */
+    public List findSMSMessagePage(Date afterArrivalDate, String afterId, int limit) {
+        return findSMSMessagePage(Sky.DEFAULT, afterArrivalDate, afterId, limit);
+    }
+    
+    /**
+     * @see #findSMSMessagesContaining(String, String, int)
+     */
+    public List findSMSMessagesContaining(String text, int limit) {
+        return findSMSMessagesContaining(Sky.DEFAULT, text, limit);
+    }
+    
+    /**
+     * @see #findSMSMessagesByWord(String, String, int)
+     */
+    public List findSMSMessagesByWord(String word, int limit) {
+        return findSMSMessagesByWord(Sky.DEFAULT, word, limit);
+    }
+    
+    /**
+     * @see #findSMSMessagesByRegion(String, String, Date, String, int)
+     */
+    public List findSMSMessagesByRegion(String region, Date afterArrivalDate, String afterId, int limit) {
+        return findSMSMessagesByRegion(Sky.DEFAULT, region, afterArrivalDate, afterId, limit);
+    }
+    
+    /**
+     * @see #countSMSMessagesByRegion(String, Date, Date)
+     */
+    public List countSMSMessagesByRegion(Date from, Date to) {
+        return countSMSMessagesByRegion(Sky.DEFAULT, from, to);
+    }
+    
+    /**
+     * @see #findSMSMessagesAfter(String, String)
+     */
+    public SMSMessageDelta findSMSMessagesAfter(String cursor) {
+        return findSMSMessagesAfter(Sky.DEFAULT, cursor);
+    }
+    
+    /**
+     * @see #findStarSlots(String, String)
+     */
+    public StarSlotDelta findStarSlots(String cursor) {
+        return findStarSlots(Sky.DEFAULT, cursor);
+    }
+    
+    /**
+     * @see #countSMSMessages(String, Date, Date, int)
+     */
+    public MessageCounts countSMSMessages(Date from, Date to, int bucketMinutes) {
+        return countSMSMessages(Sky.DEFAULT, from, to, bucketMinutes);
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Skies served by this deployment, one per installation. Every SMSMessage
+ * belongs to a sky, and ingest, storage and queries carry its identifier.
+ * The sky snapshot, star slots, text index, counters and archive are kept
+ * per sky, so that a busy installation neither slows down nor evicts the
+ * data of another. The skies are configured by SkyListener; the default
+ * sky always exists.
+ */
+public final class Sky {
+    public static final String DEFAULT = "default";
+    private static final int MAX_LENGTH = 32;
+
+    private static List ids = Collections.singletonList(DEFAULT);
+
+    private Sky() {
+    }
+
+    /**
+     * Configure the skies served.
+     * @param list Sky identifiers separated by commas or spaces
+     * @throws IllegalArgumentException If an identifier is invalid
+     */
+    public synchronized static void configure(String list) {
+        List configured = new ArrayList();
+        configured.add(DEFAULT);
+        for (StringTokenizer tokenizer = new StringTokenizer(list, ", \t\r\n"); tokenizer.hasMoreTokens();) {
+            String id = tokenizer.nextToken();
+            if (!isValid(id)) {
+                throw new IllegalArgumentException("Invalid sky " + id + ".");
+            }
+            if (!configured.contains(id)) {
+                configured.add(id);
+            }
+        }
+        ids = Collections.unmodifiableList(configured);
+    }
+
+    /**
+     * List the identifiers of the skies served, the default sky first.
+     */
+    public synchronized static List getIds() {
+        return ids;
+    }
+
+    /**
+     * Validate the sky of a request.
+     * @param id Sky identifier, null for the default sky
+     * @return Sky identifier
+     * @throws IllegalArgumentException If the sky is not served
+     */
+    public static String check(String id) {
+        if (id == null || id.length() == 0) {
+            return DEFAULT;
+        }
+        if (!getIds().contains(id)) {
+            throw new IllegalArgumentException("Unknown sky " + id + ".");
+        }
+        return id;
+    }
+
+    /**
+     * Select the messages of a sky.
+     * @param messages SMSMessages
+     * @param id Sky identifier
+     * @return SMSMessages of the sky, in their order
+     */
+    public static List select(List messages, String id) {
+        List selected = new ArrayList();
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (id.equals(message.getSky())) {
+                selected.add(message);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Group messages by sky.
+     * @param messages SMSMessages
+     * @return Lists of SMSMessages, in their order, by sky identifier
+     */
+    public static Map group(List messages) {
+        Map groups = new LinkedHashMap();
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            List group = (List)groups.get(message.getSky());
+            if (group == null) {
+                group = new ArrayList();
+                groups.put(message.getSky(), group);
+            }
+            group.add(message);
+        }
+        return groups;
+    }
+
+    /**
+     * Sky identifiers are made of lower case letters, digits, '-' and '_'.
+     */
+    static boolean isValid(String id) {
+        if (id.length() == 0 || id.length() > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
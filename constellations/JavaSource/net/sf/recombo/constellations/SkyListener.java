@@ -0,0 +1,25 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Configures the skies served by the web application from the skies
+ * context parameter, before the other listeners and servlets start.
+ */
+public class SkyListener implements ServletContextListener {
+
+    public void contextInitialized(ServletContextEvent event) {
+        String skies = event.getServletContext().getInitParameter("skies");
+        if (skies != null) {
+            Sky.configure(skies);
+        }
+        System.out.println("SkyListener: serving skies " + Sky.getIds() + ".");
+    }
+
+    public void contextDestroyed(ServletContextEvent event) {
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The SMSMessages of the sky and their version, or only the version if
+ * the caller already has the messages of that version.
+ */
+public class SkyResponse implements Serializable {
+    private List messages;
+    private String version;
+    private boolean modified;
+
+    public SkyResponse() {
+    }
+    public SkyResponse(List messages, String version, boolean modified) {
+        this.messages = messages;
+        this.version = version;
+        this.modified = modified;
+    }
+
+    /**
+     * Messages of the sky ordered by arrivalDate, null if not modified.
+     */
+    public List getMessages() {
+        return messages;
+    }
+    public void setMessages(List messages) {
+        this.messages = messages;
+    }
+    /**
+     * Opaque version to be passed in the next request.
+     */
+    public String getVersion() {
+        return version;
+    }
+    public void setVersion(String version) {
+        this.version = version;
+    }
+    /**
+     * False if the sky did not change since the version presented.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+    public void setModified(boolean modified) {
+        this.modified = modified;
+    }
+}
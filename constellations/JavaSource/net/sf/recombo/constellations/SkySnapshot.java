@@ -0,0 +1,227 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory snapshot of the sky: the most recent SMSMessages ordered by
+ * arrivalDate, so that the Flash clients can be served without opening a
+ * Hibernate session. The snapshot is loaded from the database once and
+ * then kept up to date by ConstellationController as transactions commit.
+ * <p>
+ * The messages are kept in an array that is replaced, never modified, on
+ * every change, so readers get a consistent view without copying. At most
+ * MAX_MESSAGES messages are kept; older messages are dropped and queries
+ * reaching back to them must be answered by the database.
+ */
+public class SkySnapshot {
+    private static final int MAX_MESSAGES = 10000;
+
+    // Instance of each sky (String)
+    private static Map instances = new HashMap();
+
+    private int maxMessages;
+    // Messages ordered by arrivalDate and sequenceNumber
+    private SMSMessage[] messages = new SMSMessage[0];
+    private boolean loaded = false;
+    // Incremented on every change
+    private long version = 0;
+    // Arrival date of the newest message dropped, null if none was dropped
+    private Date droppedUpTo;
+    // Ids of messages removed before the snapshot was loaded
+    private Set removedBeforeLoad = new HashSet();
+
+    private static final Comparator ARRIVAL_ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            SMSMessage m1 = (SMSMessage)o1;
+            SMSMessage m2 = (SMSMessage)o2;
+            int result = m1.getArrivalDate().compareTo(m2.getArrivalDate());
+            if (result == 0) {
+                result = sequenceNumber(m1) < sequenceNumber(m2) ? -1
+                        : (sequenceNumber(m1) == sequenceNumber(m2) ? 0 : 1);
+            }
+            return result;
+        }
+        private long sequenceNumber(SMSMessage message) {
+            return message.getSequenceNumber() == null ? 0 : message.getSequenceNumber().longValue();
+        }
+    };
+
+    SkySnapshot(int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Recovers the instance of this class that holds the snapshot of a sky.
+     * @param sky Sky identifier
+     * @return SkySnapshot instance
+     */
+    public synchronized static SkySnapshot getInstance(String sky) {
+        SkySnapshot instance = (SkySnapshot)instances.get(sky);
+        if (instance == null) {
+            instance = new SkySnapshot(MAX_MESSAGES);
+            instances.put(sky, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Maximum number of messages kept.
+     */
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    /**
+     * Version of the snapshot, incremented whenever a message is added,
+     * updated or removed.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Verify if the snapshot was loaded from the database.
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Load the snapshot with the most recent messages in the database.
+     * Messages added or removed since the messages were read from the
+     * database are taken into account. Only the first call has any effect.
+     * @param recent The most recent SMSMessages, ordered by arrivalDate
+     * @param complete True if there are no older messages in the database
+     */
+    public synchronized void load(List recent, boolean complete) {
+        if (loaded) {
+            return;
+        }
+        Set ids = new HashSet();
+        for (int i = 0; i < messages.length; i++) {
+            ids.add(messages[i].getId());
+        }
+        List merged = new ArrayList(recent.size() + messages.length);
+        for (Iterator i = recent.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (!ids.contains(message.getId()) && !removedBeforeLoad.contains(message.getId())) {
+                merged.add(message);
+            }
+        }
+        merged.addAll(Arrays.asList(messages));
+        if (!complete && !recent.isEmpty()) {
+            droppedUpTo = ((SMSMessage)recent.get(0)).getArrivalDate();
+        }
+        replace(merged);
+        removedBeforeLoad = null;
+        loaded = true;
+    }
+
+    /**
+     * Add committed messages to the snapshot.
+     * @param added SMSMessages
+     */
+    public synchronized void add(List added) {
+        List merged = new ArrayList(messages.length + added.size());
+        merged.addAll(Arrays.asList(messages));
+        merged.addAll(added);
+        replace(merged);
+    }
+
+    /**
+     * Replace a message updated in the database.
+     * @param updated SMSMessage
+     */
+    public synchronized void update(SMSMessage updated) {
+        for (int i = 0; i < messages.length; i++) {
+            if (messages[i].getId().equals(updated.getId())) {
+                List merged = new ArrayList(Arrays.asList(messages));
+                merged.set(i, updated);
+                replace(merged);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove a message deleted from the database.
+     * @param id Id of the SMSMessage
+     */
+    public synchronized void remove(String id) {
+        if (!loaded) {
+            removedBeforeLoad.add(id);
+        }
+        for (int i = 0; i < messages.length; i++) {
+            if (messages[i].getId().equals(id)) {
+                List merged = new ArrayList(Arrays.asList(messages));
+                merged.remove(i);
+                messages = (SMSMessage[])merged.toArray(new SMSMessage[merged.size()]);
+                version++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * List the messages in the snapshot ordered by arrivalDate.
+     * @return Read-only List of SMSMessages or null if the snapshot is not
+     * loaded or messages were dropped from it
+     */
+    public synchronized List findAll() {
+        if (!loaded || droppedUpTo != null) {
+            return null;
+        }
+        return Collections.unmodifiableList(Arrays.asList(messages));
+    }
+
+    /**
+     * List the messages with arrival date greater than or equal to the
+     * date specified, ordered by arrivalDate.
+     * @param arrivalDate Lower limit
+     * @return Read-only List of SMSMessages or null if the snapshot is not
+     * loaded or messages that old were dropped from the snapshot
+     */
+    public synchronized List findFromArrivalDate(Date arrivalDate) {
+        if (!loaded || (droppedUpTo != null && !arrivalDate.after(droppedUpTo))) {
+            return null;
+        }
+        int low = 0;
+        int high = messages.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (messages[middle].getArrivalDate().before(arrivalDate)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(messages).subList(low, messages.length));
+    }
+
+    /**
+     * Sort the messages and drop the oldest ones beyond the limit.
+     */
+    private void replace(List merged) {
+        Collections.sort(merged, ARRIVAL_ORDER);
+        int drop = merged.size() - maxMessages;
+        if (drop > 0) {
+            droppedUpTo = ((SMSMessage)merged.get(drop - 1)).getArrivalDate();
+            merged = merged.subList(drop, merged.size());
+        }
+        messages = (SMSMessage[])merged.toArray(new SMSMessage[merged.size()]);
+        version++;
+    }
+}
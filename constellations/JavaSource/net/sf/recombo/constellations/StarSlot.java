@@ -0,0 +1,51 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.Serializable;
+
+/**
+ * A star of the sky and the SMSMessage it shows.
+ */
+public class StarSlot implements Serializable {
+    private int constellation;
+    private int star;
+    private SMSMessageSummary message;
+
+    public StarSlot() {
+    }
+    public StarSlot(int constellation, int star, SMSMessageSummary message) {
+        this.constellation = constellation;
+        this.star = star;
+        this.message = message;
+    }
+
+    /**
+     * Index of the constellation, as in createStars.as.
+     */
+    public int getConstellation() {
+        return constellation;
+    }
+    public void setConstellation(int constellation) {
+        this.constellation = constellation;
+    }
+    /**
+     * Index of the star in the constellation.
+     */
+    public int getStar() {
+        return star;
+    }
+    public void setStar(int star) {
+        this.star = star;
+    }
+    /**
+     * Summary of the SMSMessage shown by the star, null if the star is dark.
+     */
+    public SMSMessageSummary getMessage() {
+        return message;
+    }
+    public void setMessage(SMSMessageSummary message) {
+        this.message = message;
+    }
+}
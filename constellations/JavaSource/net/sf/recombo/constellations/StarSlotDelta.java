@@ -0,0 +1,76 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Stars changed after a cursor and the cursor to be used in the next
+ * request.
+ */
+public class StarSlotDelta implements Serializable {
+    private List slots;
+    private String cursor;
+    private boolean complete;
+    private int lastConstellation;
+    private int lastStar;
+
+    public StarSlotDelta() {
+    }
+    public StarSlotDelta(List slots, String cursor, boolean complete, int lastConstellation, int lastStar) {
+        this.slots = slots;
+        this.cursor = cursor;
+        this.complete = complete;
+        this.lastConstellation = lastConstellation;
+        this.lastStar = lastStar;
+    }
+
+    /**
+     * StarSlots changed after the cursor, in the order they changed.
+     */
+    public List getSlots() {
+        return slots;
+    }
+    public void setSlots(List slots) {
+        this.slots = slots;
+    }
+    /**
+     * Opaque cursor to be passed in the next request.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+    /**
+     * True if the slots are the whole sky rather than the changes after
+     * the cursor, in which case stars not listed are dark.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+    /**
+     * Constellation of the star assigned the last message, -1 if none.
+     */
+    public int getLastConstellation() {
+        return lastConstellation;
+    }
+    public void setLastConstellation(int lastConstellation) {
+        this.lastConstellation = lastConstellation;
+    }
+    /**
+     * Star assigned the last message, -1 if none.
+     */
+    public int getLastStar() {
+        return lastStar;
+    }
+    public void setLastStar(int lastStar) {
+        this.lastStar = lastStar;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Assigns SMSMessages to the stars of the sky. Stars are taken in order,
+ * constellation by constellation as laid out in createStars.as, and once
+ * every star shows a message the first star is reused, as assignMessage
+ * in starsFunctions.as does. Messages without text are not assigned.
+ * <p>
+ * The table is filled as the MessageHub publishes committed messages, in
+ * sequence number order, so every client sees the same sky without
+ * replaying the whole message history. Clients read the current state
+ * and then the stars changed since their cursor.
+ */
+public class StarSlotTable implements MessageHub.Subscriber {
+    // Number of stars of each constellation in createStars.as
+    private static final int[] CONSTELLATION_SIZES = {
+        1, 1, 1, 1, 1, 8, 5, 5, 1, 1, 1, 1, 1, 1, 6, 5, 1, 9, 1, 1,
+        1, 1, 1, 1, 5, 7, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 7, 5,
+        1, 1, 1, 1, 1, 1, 4, 12, 1, 5, 8, 1, 1, 1, 1, 3, 1, 1, 1, 1
+    };
+
+    // Instance of each sky (String)
+    private static Map instances = new HashMap();
+
+    // Constellation and star of each slot
+    private int[] constellations;
+    private int[] stars;
+    // Message shown by each slot, null if dark
+    private SMSMessage[] messages;
+    // Version at which each slot last changed, 0 if never
+    private long[] versions;
+    private long version = 0;
+    // Distinguishes cursors issued by different instances
+    private String epoch = Long.toString(System.currentTimeMillis(), 36);
+    // Number of messages assigned since the first message
+    private long assigned = 0;
+    // Sequence number up to which messages were assigned, -1 if not loaded
+    private long cursor = -1;
+    // Messages published and ids removed before the table was loaded
+    private List publishedBeforeLoad = new ArrayList();
+    private Set removedBeforeLoad = new HashSet();
+
+    StarSlotTable(int[] constellationSizes) {
+        int capacity = 0;
+        for (int i = 0; i < constellationSizes.length; i++) {
+            capacity += constellationSizes[i];
+        }
+        constellations = new int[capacity];
+        stars = new int[capacity];
+        int slot = 0;
+        for (int i = 0; i < constellationSizes.length; i++) {
+            for (int j = 0; j < constellationSizes[i]; j++) {
+                constellations[slot] = i;
+                stars[slot++] = j;
+            }
+        }
+        messages = new SMSMessage[capacity];
+        versions = new long[capacity];
+    }
+
+    /**
+     * Recovers the instance of this class that allocates the stars of a sky,
+     * subscribed to the messages of the sky published by the hub.
+     * @param sky Sky identifier
+     * @return StarSlotTable instance
+     */
+    public synchronized static StarSlotTable getInstance(String sky) {
+        StarSlotTable instance = (StarSlotTable)instances.get(sky);
+        if (instance == null) {
+            instance = new StarSlotTable(CONSTELLATION_SIZES);
+            MessageHub.getInstance().addSubscriber(sky, instance);
+            instances.put(sky, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Number of stars in the sky.
+     */
+    public int getCapacity() {
+        return messages.length;
+    }
+
+    /**
+     * Verify if the table was loaded from the database.
+     */
+    public synchronized boolean isLoaded() {
+        return cursor >= 0;
+    }
+
+    /**
+     * Load the table with the messages saved up to a sequence number.
+     * Messages published or removed since are taken into account. Only
+     * the first call has any effect.
+     * @param count Number of messages with text up to the sequence number
+     * @param recent The last messages with text up to the sequence number,
+     * ordered by sequence number, at most the capacity of the table
+     * @param last Sequence number
+     */
+    public synchronized void load(long count, List recent, long last) {
+        if (isLoaded()) {
+            return;
+        }
+        assigned = count - recent.size();
+        for (Iterator i = recent.iterator(); i.hasNext();) {
+            assign((SMSMessage)i.next());
+        }
+        cursor = last;
+        for (Iterator i = removedBeforeLoad.iterator(); i.hasNext();) {
+            remove((String)i.next());
+        }
+        List published = publishedBeforeLoad;
+        publishedBeforeLoad = null;
+        removedBeforeLoad = null;
+        messagesPublished(published, last);
+    }
+
+    /**
+     * Assign the messages published by the hub to stars.
+     * @see MessageHub.Subscriber#messagesPublished(List, long)
+     */
+    public synchronized void messagesPublished(List published, long next) {
+        if (!isLoaded()) {
+            publishedBeforeLoad.addAll(published);
+            return;
+        }
+        for (Iterator i = published.iterator(); i.hasNext();) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (message.getSequenceNumber().longValue() > cursor) {
+                if (hasText(message)) {
+                    assign(message);
+                }
+                cursor = message.getSequenceNumber().longValue();
+            }
+        }
+    }
+
+    /**
+     * Replace a message updated in the database.
+     * @param updated SMSMessage
+     */
+    public synchronized void update(SMSMessage updated) {
+        for (int i = 0; i < messages.length; i++) {
+            if (messages[i] != null && messages[i].getId().equals(updated.getId())) {
+                messages[i] = updated;
+                versions[i] = ++version;
+            }
+        }
+    }
+
+    /**
+     * Darken the star of a message deleted from the database.
+     * @param id Id of the SMSMessage
+     */
+    public synchronized void remove(String id) {
+        if (!isLoaded()) {
+            removedBeforeLoad.add(id);
+            return;
+        }
+        for (int i = 0; i < messages.length; i++) {
+            if (messages[i] != null && messages[i].getId().equals(id)) {
+                messages[i] = null;
+                versions[i] = ++version;
+            }
+        }
+    }
+
+    /**
+     * List the stars changed after the cursor. If the cursor is null or
+     * was not issued by this table every star showing a message is listed.
+     * @param after Cursor returned by the previous call, null for the
+     * whole sky
+     * @return StarSlotDelta or null if the table is not loaded
+     */
+    public synchronized StarSlotDelta findSlots(String after) {
+        if (!isLoaded()) {
+            return null;
+        }
+        long afterVersion = parseCursor(after);
+        boolean complete = afterVersion < 0;
+        List changed = new ArrayList();
+        for (int i = 0; i < messages.length; i++) {
+            if (complete ? messages[i] != null : versions[i] > afterVersion) {
+                changed.add(new Integer(i));
+            }
+        }
+        Collections.sort(changed, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long v1 = versions[((Integer)o1).intValue()];
+                long v2 = versions[((Integer)o2).intValue()];
+                return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+            }
+        });
+        List slots = new ArrayList(changed.size());
+        for (Iterator i = changed.iterator(); i.hasNext();) {
+            int slot = ((Integer)i.next()).intValue();
+            slots.add(new StarSlot(constellations[slot], stars[slot], 
+                    messages[slot] == null ? null : new SMSMessageSummary(messages[slot])));
+        }
+        int last = assigned == 0 ? -1 : (int)((assigned - 1) % messages.length);
+        return new StarSlotDelta(slots, epoch + ":" + version, complete,
+                last < 0 ? -1 : constellations[last], last < 0 ? -1 : stars[last]);
+    }
+
+    /**
+     * Version of the cursor, -1 if it is null or not issued by this table.
+     */
+    private long parseCursor(String after) {
+        if (after == null || !after.startsWith(epoch + ":")) {
+            return -1;
+        }
+        try {
+            long afterVersion = Long.parseLong(after.substring(epoch.length() + 1));
+            return afterVersion <= version ? afterVersion : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void assign(SMSMessage message) {
+        int slot = (int)(assigned++ % messages.length);
+        messages[slot] = message;
+        versions[slot] = ++version;
+    }
+
+    /**
+     * Verify if a message is assigned to a star.
+     */
+    static boolean hasText(SMSMessage message) {
+        return message.getMessage() != null && message.getMessage().length() > 0;
+    }
+}
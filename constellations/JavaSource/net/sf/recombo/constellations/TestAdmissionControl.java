@@ -0,0 +1,63 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the receiver admission control.
+ */
+public class TestAdmissionControl extends TestCase {
+
+    /**
+     * Requests beyond the concurrency limit and the queue depth are rejected.
+     */
+    public void testReject() {
+        AdmissionControl admissionControl = new AdmissionControl(1, 0, 0);
+        
+        assertTrue(admissionControl.acquire());
+        assertFalse(admissionControl.acquire());
+        assertEquals(1, admissionControl.getInFlight());
+        assertEquals(1, admissionControl.getRejected());
+        
+        admissionControl.release();
+        assertTrue(admissionControl.acquire());
+        assertEquals(2, admissionControl.getAdmitted());
+    }
+
+    /**
+     * Queued requests are rejected when they time out and admitted
+     * when a slot is released in time.
+     */
+    public void testQueue() throws InterruptedException {
+        final AdmissionControl admissionControl = new AdmissionControl(1, 1, 2000);
+        
+        assertTrue(admissionControl.acquire());
+        Thread releaser = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                admissionControl.release();
+            }
+        };
+        releaser.start();
+        assertTrue(admissionControl.acquire());
+        releaser.join();
+        
+        AdmissionControl shortQueue = new AdmissionControl(1, 1, 50);
+        assertTrue(shortQueue.acquire());
+        assertFalse(shortQueue.acquire());
+        assertEquals(0, shortQueue.getQueued());
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestAdmissionControl(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the reader of bulk request bodies.
+ */
+public class TestBulkMessageReader extends TestCase {
+
+    /**
+     * Lines are read without terminators and empty lines are skipped.
+     */
+    public void testReadLines() throws IOException {
+        BulkMessageReader reader = new BulkMessageReader(
+                new StringReader("91450680\tHello\r\n\n\r\n91450681\tWorld\t123"), 2, 100);
+        assertEquals("91450680\tHello", reader.readLine());
+        assertEquals("91450681\tWorld\t123", reader.readLine());
+        assertNull(reader.readLine());
+        assertFalse(reader.isExceeded());
+    }
+
+    /**
+     * Reading stops at the line past the maximum number of lines.
+     */
+    public void testMaxLines() throws IOException {
+        CountingReader body = new CountingReader("a\tb\nc\td\ne\tf\ng\th\n");
+        BulkMessageReader reader = new BulkMessageReader(body, 2, 100);
+        assertNotNull(reader.readLine());
+        assertNotNull(reader.readLine());
+        assertNull(reader.readLine());
+        assertTrue(reader.isExceeded());
+        assertNull(reader.readLine());
+        assertEquals(12, body.getCount());
+    }
+
+    /**
+     * Reading stops at the first character past the maximum line length.
+     */
+    public void testMaxLineLength() throws IOException {
+        CountingReader body = new CountingReader("a\tbc\na\tbcdefghij\na\tb\n");
+        BulkMessageReader reader = new BulkMessageReader(body, 10, 4);
+        assertEquals("a\tbc", reader.readLine());
+        assertNull(reader.readLine());
+        assertTrue(reader.isExceeded());
+        assertEquals(10, body.getCount());
+    }
+
+    /**
+     * Lines are split into sender, message and carrier message id.
+     */
+    public void testParse() {
+        String[] fields = BulkMessageReader.parse("91450680\tHello world", 64);
+        assertEquals("91450680", fields[0]);
+        assertEquals("Hello world", fields[1]);
+        assertNull(fields[2]);
+
+        fields = BulkMessageReader.parse("91450680\tHello\tworld\t 123 ", 64);
+        assertEquals("Hello\tworld", fields[1]);
+        assertEquals("123", fields[2]);
+
+        fields = BulkMessageReader.parse("\tHello\t ", 64);
+        assertEquals("", fields[0]);
+        assertEquals("Hello", fields[1]);
+        assertNull(fields[2]);
+
+        assertNull(BulkMessageReader.parse("91450680 Hello", 64));
+        assertNull(BulkMessageReader.parse("91450680\t", 64));
+        assertNull(BulkMessageReader.parse("91450680\t\t123", 64));
+        assertNull(BulkMessageReader.parse("91450680\tHello\t12345", 4));
+    }
+
+    /**
+     * Counts the characters read.
+     */
+    private static class CountingReader extends Reader {
+        private Reader in;
+        private int count = 0;
+
+        CountingReader(String body) {
+            in = new StringReader(body);
+        }
+
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestBulkMessageReader(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import net.sf.hibernate.Hibernate;
+import net.sf.recombo.common.persistence.HibernateUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares HibernateUtil.saveAll and deleteAll with saving and deleting
+ * one object at a time, and prints the rows per second of each. Also
+ * checks that updateAll writes and evicts loaded objects.
+ */
+public class TestBulkWrite extends TestCase {
+    private static final int ROWS = 2000;
+    private static final String SKY = "test-bulk";
+
+    private HibernateUtil hibernateUtil;
+
+    /**
+     * Benchmark the current loop against the batched methods.
+     */
+    public void testSaveAndDeleteAll() {
+        // warm up, so that the loop is not charged for class loading
+        List messages = createMessages(ROWS / 10);
+        hibernateUtil.beginTransaction();
+        hibernateUtil.saveAll(messages);
+        hibernateUtil.deleteAll(messages);
+        hibernateUtil.commitTransaction();
+        hibernateUtil.closeSession();
+
+        messages = createMessages(ROWS);
+        long start = System.currentTimeMillis();
+        hibernateUtil.beginTransaction();
+        for (int i = 0; i < messages.size(); i++) {
+            hibernateUtil.save((SMSMessage)messages.get(i));
+        }
+        hibernateUtil.commitTransaction();
+        report("save loop", start);
+        assertEquals(ROWS, count());
+
+        start = System.currentTimeMillis();
+        hibernateUtil.beginTransaction();
+        for (int i = 0; i < messages.size(); i++) {
+            hibernateUtil.delete((SMSMessage)messages.get(i));
+        }
+        hibernateUtil.commitTransaction();
+        report("delete loop", start);
+        assertEquals(0, count());
+        hibernateUtil.closeSession();
+
+        messages = createMessages(ROWS);
+        start = System.currentTimeMillis();
+        hibernateUtil.beginTransaction();
+        hibernateUtil.saveAll(messages);
+        hibernateUtil.commitTransaction();
+        report("saveAll", start);
+        assertEquals(ROWS, count());
+        assertFalse(hibernateUtil.currentSession().contains(messages.get(0)));
+
+        start = System.currentTimeMillis();
+        hibernateUtil.beginTransaction();
+        List loaded = hibernateUtil.find("from SMSMessage m where m.sky = ?", SKY, Hibernate.STRING);
+        for (int i = 0; i < loaded.size(); i++) {
+            ((SMSMessage)loaded.get(i)).setMessage("Bulk updated");
+        }
+        hibernateUtil.updateAll(loaded);
+        assertFalse(hibernateUtil.currentSession().contains(loaded.get(0)));
+        hibernateUtil.commitTransaction();
+        report("updateAll", start);
+        List result = hibernateUtil.find("select count(m) from SMSMessage m where m.sky = ? and m.message = 'Bulk updated'", SKY, Hibernate.STRING);
+        assertEquals(ROWS, ((Number)result.get(0)).intValue());
+
+        start = System.currentTimeMillis();
+        hibernateUtil.beginTransaction();
+        hibernateUtil.deleteAll(messages);
+        hibernateUtil.commitTransaction();
+        report("deleteAll", start);
+        assertEquals(0, count());
+    }
+
+    private List createMessages(int rows) {
+        List messages = new ArrayList(rows);
+        Date arrivalDate = new Date();
+        for (int i = 0; i < rows; i++) {
+            SMSMessage message = new SMSMessage();
+            message.setMessage("Bulk " + i);
+            message.setArrivalDate(arrivalDate);
+            message.setSky(SKY);
+            message.setSequenceNumber(new Long(-1 - i));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private int count() {
+        List result = hibernateUtil.find("select count(m) from SMSMessage m where m.sky = ?", SKY, Hibernate.STRING);
+        return ((Number)result.get(0)).intValue();
+    }
+
+    private void report(String name, long start) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(name + ": " + ROWS + " rows in " + elapsed + " ms, " 
+                + (ROWS * 1000L / elapsed) + " rows/s (batch size " + hibernateUtil.getBatchSize() + ")");
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        hibernateUtil = HibernateUtil.getInstance();
+    }
+
+    /*
+     * @see TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception {
+        hibernateUtil.closeSession();
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestBulkWrite(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the carrier message id filter.
+ */
+public class TestCarrierMessageIdFilter extends TestCase {
+
+    /**
+     * A new id is NEW, a recent id is DUPLICATE and an id that is no
+     * longer recent must be verified.
+     */
+    public void testCheck() {
+        CarrierMessageIdFilter filter = new CarrierMessageIdFilter(1000, 0.01, 300);
+        long now = System.currentTimeMillis();
+
+        assertEquals(CarrierMessageIdFilter.NEW, filter.check("A-1", new Date(now)));
+        assertEquals(CarrierMessageIdFilter.DUPLICATE, filter.check("A-1", new Date(now + 1000)));
+        assertEquals(CarrierMessageIdFilter.POSSIBLE_DUPLICATE, filter.check("A-1", new Date(now + 600000)));
+        
+        filter.add("A-2");
+        assertEquals(CarrierMessageIdFilter.POSSIBLE_DUPLICATE, filter.check("A-2", new Date(now)));
+    }
+
+    /**
+     * A removed id is no longer known exactly.
+     */
+    public void testRemove() {
+        CarrierMessageIdFilter filter = new CarrierMessageIdFilter(1000, 0.01, 300);
+        Date date = new Date();
+
+        assertEquals(CarrierMessageIdFilter.NEW, filter.check("A-1", date));
+        filter.remove("A-1", date);
+        assertEquals(CarrierMessageIdFilter.POSSIBLE_DUPLICATE, filter.check("A-1", date));
+    }
+
+    /**
+     * The false positive rate stays close to the configured rate and
+     * ids are remembered for at least one generation.
+     */
+    public void testFalsePositiveRate() {
+        CarrierMessageIdFilter filter = new CarrierMessageIdFilter(10000, 0.01, 0);
+        for (int i = 0; i < 10000; i++) {
+            filter.add("seen-" + i);
+        }
+        int falsePositives = 0;
+        Date date = new Date();
+        for (int i = 0; i < 10000; i++) {
+            if (filter.check("new-" + i, date) != CarrierMessageIdFilter.NEW) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(CarrierMessageIdFilter.POSSIBLE_DUPLICATE, filter.check("seen-" + i, date));
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestCarrierMessageIdFilter(String name) {
+        super(name);
+    }
+}
@@ -3,11 +3,18 @@
  */
 package net.sf.recombo.constellations;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import net.sf.recombo.common.ControllerFactory;
+import net.sf.recombo.common.persistence.HibernateUtil;
+import net.sf.recombo.common.persistence.LRUCache;
+import net.sf.recombo.common.persistence.LRUCacheProvider;
 import net.sf.recombo.common.persistence.PersistentObjectNotFoundException;
+import net.sf.recombo.common.persistence.ResultVisitor;
 
 import junit.framework.TestCase;
 
@@ -32,13 +39,13 @@ public class TestConstellationController extends TestCase {
         message.setMessage("Test Update");
         starController.updateSMSMessage(message);
         
-        List list = starController.findAllSMSMessages();
+        List list = starController.findAllSMSMessages(Sky.DEFAULT);
         assertTrue(!list.isEmpty());
         
-        list = starController.findAllSMSMessagesFromArrivalDate(date);
+        list = starController.findAllSMSMessagesFromArrivalDate(Sky.DEFAULT, date);
         assertTrue(!list.isEmpty());
 
-        list = starController.findSMSMessageByText("Test Update");
+        list = starController.findSMSMessageByText(Sky.DEFAULT, "Test Update");
         assertTrue(!list.isEmpty());
 
         starController.findSMSMessage(message.getId()); // generates exception if not found
@@ -46,6 +53,299 @@ public class TestConstellationController extends TestCase {
         starController.deleteSMSMessage(message);
     }
     
+    /**
+     * Test the delta feed.
+     */
+    public void testSMSMessagesAfter() {
+        SMSMessageDelta delta = starController.findSMSMessagesAfter(Sky.DEFAULT, null);
+        assertTrue(!delta.getMessages().isEmpty());
+        String cursor = delta.getCursor();
+        assertTrue(starController.findSMSMessagesAfter(Sky.DEFAULT, cursor).getMessages().isEmpty());
+        
+        SMSMessage message = new SMSMessage();
+        message.setMessage("Test");
+        message.setArrivalDate(new Date());
+        starController.addSMSMessage(message);
+        
+        delta = starController.findSMSMessagesAfter(Sky.DEFAULT, cursor);
+        assertEquals(1, delta.getMessages().size());
+        assertEquals(message.getId(), ((SMSMessage)delta.getMessages().get(0)).getId());
+        assertTrue(starController.findSMSMessagesAfter(Sky.DEFAULT, delta.getCursor()).getMessages().isEmpty());
+        
+        starController.deleteSMSMessage(message);
+    }
+    
+    /**
+     * Test keyset pagination and iteration.
+     */
+    public void testSMSMessagePage() {
+        List all = starController.findAllSMSMessages(Sky.DEFAULT);
+        List page = starController.findSMSMessagePage(Sky.DEFAULT, null, null, 10);
+        assertEquals(Math.min(10, all.size()), page.size());
+        
+        int count = 0;
+        Date lastDate = null;
+        String lastId = null;
+        Iterator i = starController.iterateSMSMessages(Sky.DEFAULT, 7);
+        while (i.hasNext()) {
+            SMSMessage message = (SMSMessage)i.next();
+            if (lastDate != null) {
+                int order = message.getArrivalDate().compareTo(lastDate);
+                assertTrue(order > 0 || (order == 0 && message.getId().compareTo(lastId) > 0));
+            }
+            lastDate = message.getArrivalDate();
+            lastId = message.getId();
+            count++;
+        }
+        assertEquals(all.size(), count);
+        
+        // without an id the page starts after every message of the date
+        Date date = new Date(5000);
+        SMSMessage first = new SMSMessage();
+        first.setMessage("Test Page 1");
+        first.setArrivalDate(date);
+        first.setSky("test-page");
+        first.setRegion("81");
+        starController.addSMSMessage(first);
+        SMSMessage second = new SMSMessage();
+        second.setMessage("Test Page 2");
+        second.setArrivalDate(new Date(6000));
+        second.setSky("test-page");
+        second.setRegion("81");
+        starController.addSMSMessage(second);
+        page = starController.findSMSMessagePage("test-page", date, null, 10);
+        assertEquals(1, page.size());
+        assertEquals(second.getId(), ((SMSMessage)page.get(0)).getId());
+        page = starController.findSMSMessagesByRegion("test-page", "81", date, null, 10);
+        assertEquals(1, page.size());
+        assertEquals(second.getId(), ((SMSMessage)page.get(0)).getId());
+        starController.deleteSMSMessage(first);
+        starController.deleteSMSMessage(second);
+    }
+    
+    /**
+     * Test visiting all messages one at a time.
+     */
+    public void testVisitSMSMessages() {
+        final List all = starController.findAllSMSMessages(Sky.DEFAULT);
+        final int[] visited = new int[1];
+        int count = starController.visitSMSMessages(Sky.DEFAULT, new ResultVisitor() {
+            public void visit(Object result) {
+                SMSMessage message = (SMSMessage)result;
+                assertEquals(((SMSMessage)all.get(visited[0])).getArrivalDate(), message.getArrivalDate());
+                visited[0]++;
+            }
+        });
+        assertEquals(all.size(), count);
+        assertEquals(all.size(), visited[0]);
+    }
+    
+    /**
+     * Test summaries and the recovery of texts.
+     */
+    public void testSMSMessageSummaries() {
+        List all = starController.findAllSMSMessages(Sky.DEFAULT);
+        List summaries = starController.findAllSMSMessageSummaries(Sky.DEFAULT);
+        assertEquals(all.size(), summaries.size());
+        SMSMessage message = (SMSMessage)all.get(0);
+        SMSMessageSummary summary = (SMSMessageSummary)summaries.get(0);
+        assertEquals(message.getArrivalDate().getTime(), summary.getArrivalDate().getTime());
+        
+        String[] texts = starController.findSMSMessageTexts(Sky.DEFAULT, new String[] {summary.getId(), "unknown"});
+        assertEquals(summary.getLength(), texts[0].length());
+        assertNull(texts[1]);
+    }
+    
+    /**
+     * Test the region derived from the sender.
+     */
+    public void testSMSMessagesByRegion() {
+        SMSMessage message = new SMSMessage();
+        message.setMessage("Test");
+        message.setArrivalDate(new Date());
+        message.setSender("+55 81 9999-1234");
+        starController.addSMSMessage(message);
+        assertEquals("81", message.getRegion());
+        
+        List page = starController.findSMSMessagesByRegion(Sky.DEFAULT, "81", null, null, 1000);
+        SMSMessage last = (SMSMessage)page.get(page.size() - 1);
+        assertEquals(message.getId(), last.getId());
+        assertTrue(starController.findSMSMessagesByRegion(Sky.DEFAULT, "81", last.getArrivalDate(), last.getId(), 10).isEmpty());
+        
+        List counts = starController.countSMSMessagesByRegion(Sky.DEFAULT, message.getArrivalDate(), null);
+        assertEquals(1, counts.size());
+        assertEquals("81", ((RegionCount)counts.get(0)).getRegion());
+        assertEquals(1, ((RegionCount)counts.get(0)).getCount());
+        
+        starController.deleteSMSMessage(message);
+    }
+    
+    /**
+     * Test that read-only queries return detached messages.
+     */
+    public void testReadOnly() throws PersistentObjectNotFoundException {
+        HibernateUtil hibernateUtil = HibernateUtil.getInstance();
+        List page = starController.findSMSMessagePage(Sky.DEFAULT, null, null, 10);
+        SMSMessage message = (SMSMessage)page.get(0);
+        assertTrue(message.isSaved());
+        assertFalse(hibernateUtil.currentSession().contains(message));
+        
+        message = starController.findSMSMessage(message.getId());
+        assertFalse(hibernateUtil.currentSession().contains(message));
+        String text = message.getMessage();
+        message.setMessage("Not Saved");
+        assertEquals(text, starController.findSMSMessage(message.getId()).getMessage());
+    }
+    
+    /**
+     * Test the second-level cache and the invalidation of cached queries.
+     */
+    public void testSecondLevelCache() throws PersistentObjectNotFoundException {
+        Date date = new Date();
+        String cursor = starController.findSMSMessagesAfter(Sky.DEFAULT, null).getCursor();
+        SMSMessage message = new SMSMessage();
+        message.setMessage("Test Cache");
+        message.setArrivalDate(date);
+        starController.addSMSMessage(message);
+        assertEquals(1, starController.findSMSMessagesAfter(Sky.DEFAULT, cursor).getMessages().size());
+        LRUCache queries = (LRUCache)LRUCacheProvider.getCaches().get("net.sf.recombo.constellations.SMSMessage.queries");
+        long hits = queries.getHits();
+        assertEquals(1, starController.findSMSMessagesAfter(Sky.DEFAULT, cursor).getMessages().size());
+        assertEquals(hits + 1, queries.getHits());
+        // unbounded queries are not cached
+        assertEquals(1, starController.findAllSMSMessagesFromArrivalDate(Sky.DEFAULT, date).size());
+        hits = queries.getHits();
+        assertEquals(1, starController.findAllSMSMessagesFromArrivalDate(Sky.DEFAULT, date).size());
+        assertEquals(hits, queries.getHits());
+        
+        LRUCache messages = (LRUCache)LRUCacheProvider.getCaches().get(SMSMessage.class.getName());
+        hits = messages.getHits();
+        assertEquals("Test Cache", starController.findSMSMessage(message.getId()).getMessage());
+        assertEquals(hits + 1, messages.getHits());
+        
+        message.setMessage("Test Cache Update");
+        starController.updateSMSMessage(message);
+        assertEquals("Test Cache Update", starController.findSMSMessage(message.getId()).getMessage());
+        assertEquals("Test Cache Update", ((SMSMessage)starController.findSMSMessagesAfter(Sky.DEFAULT, cursor).getMessages().get(0)).getMessage());
+        
+        starController.deleteSMSMessage(message);
+        assertTrue(starController.findSMSMessagesAfter(Sky.DEFAULT, cursor).getMessages().isEmpty());
+        assertTrue(starController.findAllSMSMessagesFromArrivalDate(Sky.DEFAULT, date).isEmpty());
+        
+        LRUCache cache = new LRUCache("test", 2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals(2, cache.getSize());
+        
+        cache = new LRUCache("test", 2, 1);
+        cache.put("a", "1");
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+        }
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+    
+    /**
+     * Test that the messages of a sky are not found in another.
+     */
+    public void testSkies() {
+        String cursor = starController.findSMSMessagesAfter(Sky.DEFAULT, null).getCursor();
+        SMSMessage message = new SMSMessage();
+        message.setMessage("Test Other Sky");
+        message.setArrivalDate(new Date());
+        message.setSky("test-other");
+        starController.addSMSMessage(message);
+        
+        assertTrue(starController.findSMSMessagesAfter(Sky.DEFAULT, cursor).getMessages().isEmpty());
+        assertEquals(1, starController.findSMSMessagesAfter("test-other", cursor).getMessages().size());
+        assertTrue(starController.findSMSMessageByText(Sky.DEFAULT, "Test Other Sky").isEmpty());
+        assertEquals(1, starController.findSMSMessageByText("test-other", "Test Other Sky").size());
+        assertEquals(1, starController.findAllSMSMessages("test-other").size());
+        assertNull(starController.findSMSMessageTexts(Sky.DEFAULT, new String[] {message.getId()})[0]);
+        
+        starController.deleteSMSMessage(message);
+    }
+    
+    /**
+     * Test that archived messages, including those that arrive after 
+     * later messages were archived, are still found and are not archived
+     * twice.
+     */
+    public void testArchive() throws IOException, PersistentObjectNotFoundException {
+        File directory = File.createTempFile("messages", ".archive");
+        directory.delete();
+        Sky.configure("test-archive");
+        MessageArchive archive = MessageArchive.getInstance("test-archive");
+        archive.open(directory);
+        try {
+            SMSMessage first = new SMSMessage();
+            first.setMessage("Test Archive 1");
+            first.setArrivalDate(new Date(2000));
+            first.setSky("test-archive");
+            first.setCarrierMessageId("test-archive-1");
+            starController.addSMSMessage(first);
+            SMSMessage kept = createArchiveMessage("Test Archive Kept", 3000);
+            assertTrue(starController.existsSMSMessageByCarrierMessageId("test-archive", "test-archive-1", new Date(0)));
+            assertFalse(starController.existsSMSMessageByCarrierMessageId(Sky.DEFAULT, "test-archive-1", new Date(0)));
+            assertEquals(1, starController.archiveSMSMessages("test-archive", new Date(2500)));
+            // archived messages are searched from the date on
+            assertTrue(starController.existsSMSMessageByCarrierMessageId("test-archive", "test-archive-1", new Date(0)));
+            assertFalse(starController.existsSMSMessageByCarrierMessageId("test-archive", "test-archive-1", new Date(2500)));
+            assertEquals(1, starController.findCarrierMessageIdsFromArrivalDate("test-archive", new Date(0)).size());
+            assertEquals(0, starController.archiveSMSMessages("test-archive", new Date(2500)));
+            
+            // arrives late, before the last archived message
+            SMSMessage late = createArchiveMessage("Test Archive Late", 1000);
+            List all = starController.findAllSMSMessages("test-archive");
+            assertEquals(3, all.size());
+            assertEquals(late.getId(), ((SMSMessage)all.get(0)).getId());
+            List page = starController.findSMSMessagePage("test-archive", new Date(1000), late.getId(), 10);
+            assertEquals(2, page.size());
+            assertEquals(kept.getId(), ((SMSMessage)page.get(1)).getId());
+            assertEquals(1, starController.archiveSMSMessages("test-archive", new Date(2500)));
+            assertEquals(2, archive.getSegmentCount());
+            
+            all = starController.findAllSMSMessages("test-archive");
+            assertEquals(3, all.size());
+            assertEquals(late.getId(), ((SMSMessage)all.get(0)).getId());
+            assertEquals(first.getId(), ((SMSMessage)all.get(1)).getId());
+            assertEquals(3, starController.visitSMSMessages("test-archive", new ResultVisitor() {
+                public void visit(Object result) {
+                }
+            }));
+            assertEquals("Test Archive Late", starController.findSMSMessage(late.getId()).getMessage());
+            String[] texts = starController.findSMSMessageTexts("test-archive", new String[] {first.getId(), kept.getId()});
+            assertEquals("Test Archive 1", texts[0]);
+            assertEquals("Test Archive Kept", texts[1]);
+            
+            starController.deleteSMSMessage(kept);
+        } finally {
+            archive.close();
+            Sky.configure("");
+            File[] files = directory.listFiles();
+            for (int i = 0; files != null && i < files.length; i++) {
+                files[i].delete();
+            }
+            directory.delete();
+        }
+    }
+    
+    private SMSMessage createArchiveMessage(String text, long arrivalDate) {
+        SMSMessage message = new SMSMessage();
+        message.setMessage(text);
+        message.setArrivalDate(new Date(arrivalDate));
+        message.setSky("test-archive");
+        starController.addSMSMessage(message);
+        return message;
+    }
+    
     /*
      * @see TestCase#setUp()
      */
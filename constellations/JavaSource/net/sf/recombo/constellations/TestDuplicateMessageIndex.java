@@ -0,0 +1,64 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the time windowed duplicate message index.
+ */
+public class TestDuplicateMessageIndex extends TestCase {
+
+    /**
+     * A message is a duplicate only within the window that follows
+     * the last accepted message with the same text.
+     */
+    public void testDuplicateWindow() {
+        DuplicateMessageIndex index = new DuplicateMessageIndex(5, false);
+        long now = System.currentTimeMillis();
+
+        assertFalse(index.isDuplicate("1 2 3 testando...", "91450680", new Date(now)));
+        assertTrue(index.isDuplicate("1 2 3 testando...", "91450681", new Date(now + 4999)));
+        assertFalse(index.isDuplicate("1 2 3 testando...", "91450680", new Date(now + 5000)));
+        assertFalse(index.isDuplicate("Test", "91450680", new Date(now + 5000)));
+        
+        // expired entries are purged
+        assertFalse(index.isDuplicate("Other", "91450680", new Date(now + 20000)));
+        assertEquals(1, index.size());
+    }
+
+    /**
+     * With per sender keys the same text from different senders is accepted.
+     */
+    public void testPerSender() {
+        DuplicateMessageIndex index = new DuplicateMessageIndex(5, true);
+        Date date = new Date();
+
+        assertFalse(index.isDuplicate("Test", "91450680", date));
+        assertFalse(index.isDuplicate("Test", "91450681", date));
+        assertTrue(index.isDuplicate("Test", "91450680", date));
+    }
+
+    /**
+     * A removed message can be accepted again.
+     */
+    public void testRemove() {
+        DuplicateMessageIndex index = new DuplicateMessageIndex(5, false);
+        Date date = new Date();
+
+        assertFalse(index.isDuplicate("Test", "91450680", date));
+        index.remove("Test", "91450680", date);
+        assertFalse(index.isDuplicate("Test", "91450680", date));
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestDuplicateMessageIndex(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the archive of old messages.
+ */
+public class TestMessageArchive extends TestCase {
+    private File directory;
+    
+    /**
+     * Ranges are read across blocks and segments, also after the archive
+     * is reopened.
+     */
+    public void testRanges() throws IOException {
+        MessageArchive archive = new MessageArchive();
+        archive.open(directory);
+        assertFalse(archive.contains(new Date(0), "id1000"));
+        archive.write(createMessages(0, 600));
+        archive.write(createMessages(600, 100));
+        archive.close();
+        
+        archive.open(directory);
+        assertEquals(2, archive.getSegmentCount());
+        assertEquals(700, archive.getLastSequenceNumber());
+        assertEquals(699000, archive.getLastArrivalDate().getTime());
+        assertTrue(archive.contains(new Date(699000), "id1699"));
+        assertFalse(archive.contains(new Date(699001), "id1699"));
+        assertFalse(archive.contains(new Date(5000), "id5000"));
+        assertEquals("Test 599", archive.find("id1599").getMessage());
+        assertNull(archive.find("id5000"));
+        
+        List all = toList(archive.iterate(null, null));
+        assertEquals(700, all.size());
+        SMSMessage message = (SMSMessage)all.get(599);
+        assertEquals("Test 599", message.getMessage());
+        assertEquals("91450680", message.getSender());
+        assertEquals("81", message.getRegion());
+        assertNull(message.getCarrierMessageId());
+        
+        List range = toList(archive.iterate(new Date(300000), null));
+        assertEquals(400, range.size());
+        assertEquals(300000, ((SMSMessage)range.get(0)).getArrivalDate().getTime());
+        range = toList(archive.iterate(new Date(300000), ((SMSMessage)range.get(0)).getId()));
+        assertEquals(399, range.size());
+        
+        range = toList(archive.iterateAfterSequenceNumber(650));
+        assertEquals(50, range.size());
+        assertEquals(new Long(651), ((SMSMessage)range.get(0)).getSequenceNumber());
+        archive.close();
+    }
+    
+    /**
+     * Messages must be ordered within a segment, late messages go to 
+     * overlapping segments merged when iterated, and discarded segments 
+     * are gone.
+     */
+    public void testOrder() throws IOException {
+        MessageArchive archive = new MessageArchive();
+        archive.open(directory);
+        archive.write(createMessages(10, 10));
+        List unordered = createMessages(0, 2);
+        unordered.add(unordered.remove(0));
+        try {
+            archive.write(unordered);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        archive.write(createMessages(0, 10));
+        List late = createMessages(15, 1);
+        ((SMSMessage)late.get(0)).setId("id1015a");
+        archive.write(late);
+        archive.close();
+        
+        archive.open(directory);
+        assertEquals(3, archive.getSegmentCount());
+        assertTrue(archive.contains(new Date(15000), "id1015a"));
+        assertTrue(archive.contains(new Date(5000), "id1005"));
+        List all = toList(archive.iterate(null, null));
+        assertEquals(21, all.size());
+        assertEquals("id1000", ((SMSMessage)all.get(0)).getId());
+        assertEquals("id1015", ((SMSMessage)all.get(15)).getId());
+        assertEquals("id1015a", ((SMSMessage)all.get(16)).getId());
+        assertEquals("id1019", ((SMSMessage)all.get(20)).getId());
+        List range = toList(archive.iterate(new Date(15000), "id1015"));
+        assertEquals(5, range.size());
+        assertEquals("id1015a", ((SMSMessage)range.get(0)).getId());
+        
+        File segment = archive.write(createMessages(20, 10));
+        archive.discard(segment);
+        assertFalse(segment.exists());
+        assertEquals(3, archive.getSegmentCount());
+        assertEquals(19000, archive.getLastArrivalDate().getTime());
+        archive.close();
+    }
+    
+    private List createMessages(int first, int count) {
+        List messages = new ArrayList();
+        for (int i = first; i < first + count; i++) {
+            SMSMessage message = new SMSMessage();
+            message.setId("id" + (1000 + i));
+            message.setMessage("Test " + i);
+            message.setArrivalDate(new Date(i * 1000L));
+            message.setSequenceNumber(new Long(i + 1));
+            message.setSender("91450680");
+            message.setRegion("81");
+            messages.add(message);
+        }
+        return messages;
+    }
+    
+    private List toList(Iterator messages) {
+        List list = new ArrayList();
+        while (messages.hasNext()) {
+            list.add(messages.next());
+        }
+        return list;
+    }
+    
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("messages", ".archive");
+        directory.delete();
+    }
+
+    /*
+     * @see TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestMessageArchive(String name) {
+        super(name);
+    }
+}
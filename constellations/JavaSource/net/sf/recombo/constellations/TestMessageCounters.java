@@ -0,0 +1,98 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SimpleTimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the message counters.
+ */
+public class TestMessageCounters extends TestCase {
+    private static final long MINUTE = 60000;
+    private static final long HOUR = 60 * MINUTE;
+
+    // Midnight UTC
+    private long day = 1000 * 24 * HOUR;
+    private int sequenceNumber;
+
+    /**
+     * Messages are counted per minute and per hour, and deleted messages
+     * are no longer counted.
+     */
+    public void testCount() {
+        MessageCounters counters = new MessageCounters(new SimpleTimeZone(0, "UTC"));
+        List ids = new ArrayList();
+        List arrivalDates = new ArrayList();
+        ids.add("a");
+        arrivalDates.add(new Date(day + 10 * MINUTE + 5000));
+        counters.load(ids, arrivalDates);
+        counters.setLoaded(sequenceNumber);
+        
+        List published = new ArrayList();
+        published.add(createMessage(day + 10 * MINUTE + 50000));
+        published.add(createMessage(day + 11 * MINUTE));
+        SMSMessage deleted = createMessage(day + HOUR + 1);
+        published.add(deleted);
+        counters.messagesPublished(published, sequenceNumber);
+        
+        MessageCounts perMinute = counters.count(new Date(day + 10 * MINUTE + 30000), new Date(day + 12 * MINUTE), 1);
+        assertEquals(day + 10 * MINUTE, perMinute.getStart().getTime());
+        assertEquals(2, perMinute.getCounts().length);
+        assertEquals(2, perMinute.getCounts()[0]);
+        assertEquals(1, perMinute.getCounts()[1]);
+        
+        MessageCounts perHour = counters.count(new Date(day), new Date(day + 2 * HOUR), 60);
+        assertEquals(3, perHour.getCounts()[0]);
+        assertEquals(1, perHour.getCounts()[1]);
+        
+        counters.remove(deleted);
+        assertEquals(0, counters.count(new Date(day), new Date(day + 2 * HOUR), 60).getCounts()[1]);
+    }
+
+    /**
+     * Hour buckets start on the hour of the local time.
+     */
+    public void testLocalTime() {
+        MessageCounters counters = new MessageCounters(new SimpleTimeZone((int)(5 * HOUR + 30 * MINUTE), "IST"));
+        counters.setLoaded(0);
+        List published = new ArrayList();
+        published.add(createMessage(day + 20 * MINUTE));
+        published.add(createMessage(day + 40 * MINUTE));
+        counters.messagesPublished(published, sequenceNumber);
+        
+        MessageCounts perHour = counters.count(new Date(day), new Date(day + HOUR), 60);
+        assertEquals(day - 30 * MINUTE, perHour.getStart().getTime());
+        assertEquals(2, perHour.getCounts().length);
+        assertEquals(1, perHour.getCounts()[0]);
+        assertEquals(1, perHour.getCounts()[1]);
+    }
+    
+    private SMSMessage createMessage(long arrivalDate) {
+        SMSMessage message = new SMSMessage();
+        message.setId(String.valueOf(++sequenceNumber));
+        message.setSequenceNumber(new Long(sequenceNumber));
+        message.setArrivalDate(new Date(arrivalDate));
+        return message;
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        sequenceNumber = 0;
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestMessageCounters(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.recombo.common.persistence.TransactionListener;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the message hub.
+ */
+public class TestMessageHub extends TestCase {
+
+    /**
+     * A message committed after a message with a higher sequence number 
+     * is published before it, and subscribers are notified in order.
+     */
+    public void testPublishInOrder() {
+        MessageSequence sequence = new MessageSequence();
+        sequence.initialize(0);
+        long start = sequence.getHighWaterMark();
+        MessageHub hub = new MessageHub(2, sequence);
+        hub.initialize(start);
+        final List received = new ArrayList();
+        hub.addSubscriber(new MessageHub.Subscriber() {
+            public void messagesPublished(List messages, long cursor) {
+                received.addAll(messages);
+            }
+        });
+        
+        List first = createMessages(1);
+        TransactionListener firstListener = sequence.assign(first);
+        List second = createMessages(2);
+        TransactionListener secondListener = sequence.assign(second);
+        
+        hub.add(second);
+        secondListener.afterCompletion(true);
+        hub.advance();
+        assertTrue(received.isEmpty());
+        assertTrue(hub.getMessagesAfter(Sky.DEFAULT, start).isEmpty());
+        
+        hub.add(first);
+        firstListener.afterCompletion(true);
+        hub.advance();
+        assertEquals(3, received.size());
+        assertEquals(first.get(0), received.get(0));
+        assertEquals(start + 3, hub.getCursor());
+        
+        // only the last two messages are kept
+        assertNull(hub.getMessagesAfter(Sky.DEFAULT, start));
+        assertEquals(2, hub.getMessagesAfter(Sky.DEFAULT, start + 1).size());
+        assertEquals(1, hub.getMessagesAfter(Sky.DEFAULT, start + 2).size());
+    }
+    
+    /**
+     * Each sky keeps its own recent messages, so a busy sky does not drop
+     * the messages of another.
+     */
+    public void testSkies() {
+        MessageSequence sequence = new MessageSequence();
+        sequence.initialize(0);
+        long start = sequence.getHighWaterMark();
+        MessageHub hub = new MessageHub(2, sequence);
+        hub.initialize(start);
+        
+        List quiet = createMessages(1, "test-quiet");
+        sequence.assign(quiet).afterCompletion(true);
+        hub.add(quiet);
+        List busy = createMessages(5, "test-busy");
+        sequence.assign(busy).afterCompletion(true);
+        hub.add(busy);
+        hub.advance();
+        
+        assertEquals(quiet, hub.getMessagesAfter("test-quiet", start));
+        assertNull(hub.getMessagesAfter("test-busy", start));
+        assertEquals(2, hub.getMessagesAfter("test-busy", start + 4).size());
+        assertTrue(hub.getMessagesAfter(Sky.DEFAULT, start).isEmpty());
+    }
+    
+    private List createMessages(int count) {
+        return createMessages(count, Sky.DEFAULT);
+    }
+    
+    private List createMessages(int count, String sky) {
+        List messages = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            SMSMessage message = new SMSMessage();
+            message.setSky(sky);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestMessageHub(String name) {
+        super(name);
+    }
+}
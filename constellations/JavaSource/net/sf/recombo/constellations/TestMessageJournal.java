@@ -0,0 +1,103 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the write-ahead message journal.
+ */
+public class TestMessageJournal extends TestCase {
+    private File segment;
+    
+    /**
+     * Messages not marked as applied are recovered after the journal
+     * is reopened.
+     */
+    public void testRecover() throws IOException, InterruptedException {
+        MessageJournal journal = new MessageJournal(segment, 4096);
+        assertTrue(journal.recover().isEmpty());
+        journal.append(createMessages(3));
+        journal.markApplied(1);
+        assertEquals(2, journal.getPendingCount());
+        journal.close();
+        
+        journal = new MessageJournal(segment, 4096);
+        List recovered = journal.recover();
+        assertEquals(2, recovered.size());
+        assertEquals("Test 1", ((SMSMessage)recovered.get(0)).getMessage());
+        assertEquals("91450680", ((SMSMessage)recovered.get(0)).getSender());
+        assertEquals("1", ((SMSMessage)recovered.get(0)).getCarrierMessageId());
+        assertNull(((SMSMessage)recovered.get(1)).getCarrierMessageId());
+        journal.markApplied(2);
+        journal.close();
+        
+        journal = new MessageJournal(segment, 4096);
+        assertTrue(journal.recover().isEmpty());
+        journal.close();
+    }
+    
+    /**
+     * A full segment is rewound once everything is applied and records
+     * from the previous epoch are not recovered.
+     */
+    public void testRewind() throws IOException, InterruptedException {
+        MessageJournal journal = new MessageJournal(segment, 256);
+        journal.recover();
+        for (int i = 0; i < 20; i++) {
+            journal.append(createMessages(2));
+            journal.markApplied(2);
+        }
+        journal.append(createMessages(1));
+        journal.close();
+        
+        journal = new MessageJournal(segment, 256);
+        assertEquals(1, journal.recover().size());
+        journal.close();
+    }
+    
+    private List createMessages(int count) {
+        List messages = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            SMSMessage message = new SMSMessage();
+            message.setMessage("Test " + i);
+            message.setSender("91450680");
+            if (i % 2 == 1) {
+                message.setCarrierMessageId(String.valueOf(i));
+            }
+            message.setArrivalDate(new Date());
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        segment = File.createTempFile("messages", ".journal");
+        segment.delete();
+    }
+
+    /*
+     * @see TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception {
+        segment.delete();
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestMessageJournal(String name) {
+        super(name);
+    }
+}
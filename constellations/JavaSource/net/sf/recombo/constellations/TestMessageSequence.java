@@ -0,0 +1,56 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.recombo.common.persistence.TransactionListener;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the message sequence high water mark.
+ */
+public class TestMessageSequence extends TestCase {
+
+    /**
+     * The high water mark does not pass a transaction still in progress,
+     * even if later transactions have completed.
+     */
+    public void testHighWaterMark() {
+        MessageSequence sequence = new MessageSequence();
+        sequence.initialize(0);
+        long start = sequence.getHighWaterMark();
+        
+        List first = createMessages(2);
+        TransactionListener firstListener = sequence.assign(first);
+        List second = createMessages(1);
+        TransactionListener secondListener = sequence.assign(second);
+        assertEquals(start + 1, ((SMSMessage)first.get(0)).getSequenceNumber().longValue());
+        assertEquals(start + 3, ((SMSMessage)second.get(0)).getSequenceNumber().longValue());
+        assertEquals(start, sequence.getHighWaterMark());
+        
+        secondListener.afterCompletion(true);
+        assertEquals(start, sequence.getHighWaterMark());
+        firstListener.afterCompletion(false);
+        assertEquals(start + 3, sequence.getHighWaterMark());
+    }
+    
+    private List createMessages(int count) {
+        List messages = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            messages.add(new SMSMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestMessageSequence(String name) {
+        super(name);
+    }
+}
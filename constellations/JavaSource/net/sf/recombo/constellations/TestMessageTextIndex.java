@@ -0,0 +1,155 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the message text index.
+ */
+public class TestMessageTextIndex extends TestCase {
+    private MessageTextIndex index;
+
+    /**
+     * Words, word prefixes and substrings are found ignoring case.
+     */
+    public void testFind() {
+        assertEquals(list("1", "3"), index.findWord("ESTRELA", 10));
+        assertEquals(list("1", "2", "3"), index.findWordPrefix("estre", 10));
+        assertEquals(list("1"), index.findWordPrefix("estre", 1));
+        assertEquals(list("2", "3"), index.findSubstring("la c", 10));
+        assertTrue(index.findSubstring("xyz", 10).isEmpty());
+        assertNull(index.findSubstring("la", 10));
+    }
+
+    /**
+     * LIKE patterns respect case and anchors, and patterns with other
+     * wildcards are left to the database.
+     */
+    public void testFindLike() {
+        assertEquals(list("1"), index.findLike("Uma estrela", 10));
+        assertTrue(index.findLike("uma estrela", 10).isEmpty());
+        assertEquals(list("2"), index.findLike("Estrelas%", 10));
+        assertEquals(list("3"), index.findLike("%cadente", 10));
+        assertEquals(list("1"), index.findLike("%estrela%", 10));
+        assertNull(index.findLike("%est_ela%", 10));
+        assertNull(index.findLike("%", 10));
+    }
+
+    /**
+     * Updated and deleted messages are found by their new text only.
+     */
+    public void testUpdate() {
+        index.add(createMessage("1", "Outra coisa"));
+        index.remove("2");
+        assertEquals(list("3"), index.findWord("estrela", 10));
+        assertEquals(list("3"), index.findWordPrefix("estre", 10));
+        assertEquals(list("1"), index.findSubstring("coisa", 10));
+        assertEquals(2, index.size());
+        
+        // enough deletions compact the index
+        for (int i = 0; i < 2000; i++) {
+            index.add(createMessage("x", "Mensagem " + i));
+        }
+        index.remove("x");
+        assertEquals(2, index.size());
+        assertEquals(list("3"), index.findWord("estrela", 10));
+        assertTrue(index.findWord("mensagem", 10).isEmpty());
+    }
+
+    /**
+     * Messages removed before the index is loaded are not indexed.
+     */
+    public void testLoad() {
+        MessageTextIndex loading = new MessageTextIndex();
+        loading.remove("1");
+        loading.add(createMessage("3", "Nova mensagem"));
+        List page = new ArrayList();
+        page.add(createMessage("1", "Apagada"));
+        page.add(createMessage("2", "Uma mensagem"));
+        page.add(createMessage("3", "Mensagem antiga"));
+        loading.load(page);
+        loading.setLoaded();
+        
+        assertTrue(loading.isLoaded());
+        assertEquals(2, loading.size());
+        assertTrue(loading.findWord("apagada", 10).isEmpty());
+        assertEquals(list("3"), loading.findWord("nova", 10));
+    }
+    
+    /**
+     * Limited searches return the messages that arrived first, even when
+     * they were indexed out of order.
+     */
+    public void testOrder() {
+        MessageTextIndex ordering = new MessageTextIndex();
+        ordering.add(createMessage("b", "Estrela nova", 2000));
+        ordering.add(createMessage("c", "Estrela velha", 3000));
+        ordering.add(createMessage("a", "Estrela atrasada", 1000));
+        ordering.add(createMessage("d", "Estrela igual", 1000));
+        ordering.setLoaded();
+        assertEquals(list("a", "d"), ordering.findWord("estrela", 2));
+        assertEquals(list("a", "d", "b"), ordering.findWordPrefix("estre", 3));
+        assertEquals(list("a"), ordering.findSubstring("trela", 1));
+        assertEquals(list("a"), ordering.findLike("Estrela%", 1));
+        
+        // an update moves the message to its arrival date, not to the end
+        ordering.add(createMessage("b", "Estrela mudada", 2000));
+        assertEquals(list("a", "d", "b"), ordering.findWord("estrela", 3));
+    }
+    
+    private SMSMessage createMessage(String id, String text, long arrivalDate) {
+        SMSMessage message = createMessage(id, text);
+        message.setArrivalDate(new Date(arrivalDate));
+        return message;
+    }
+    
+    private SMSMessage createMessage(String id, String text) {
+        SMSMessage message = new SMSMessage();
+        message.setId(id);
+        message.setMessage(text);
+        return message;
+    }
+    
+    private List list(String id1, String id2, String id3) {
+        List list = list(id1, id2);
+        list.add(id3);
+        return list;
+    }
+    
+    private List list(String id1, String id2) {
+        List list = list(id1);
+        list.add(id2);
+        return list;
+    }
+    
+    private List list(String id) {
+        List list = new ArrayList();
+        list.add(id);
+        return list;
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        index = new MessageTextIndex();
+        index.add(createMessage("1", "Uma estrela"));
+        index.add(createMessage("2", "Estrelas la cima"));
+        index.add(createMessage("3", "Estrela cadente"));
+        index.setLoaded();
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestMessageTextIndex(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the push server.
+ */
+public class TestPushServer extends TestCase {
+    private MessageSequence sequence;
+    private MessageHub hub;
+    private int port;
+    private PushServer pushServer;
+
+    /**
+     * The cross-domain policy allows only the configured domain, to the
+     * port of the server.
+     */
+    public void testPolicy() throws IOException {
+        start("www.example.com");
+        String response = get("/crossdomain.xml");
+        assertTrue(response.startsWith("HTTP/1.0 200 OK\r\n"));
+        assertTrue(response.indexOf("<allow-access-from domain=\"www.example.com\" to-ports=\"" + port + "\"/>") > 0);
+        assertEquals(-1, response.indexOf("domain=\"*\""));
+    }
+
+    /**
+     * No cross-domain policy is served unless a domain is configured.
+     */
+    public void testNoPolicy() throws IOException {
+        start(null);
+        String response = get("/crossdomain.xml");
+        assertTrue(response.startsWith("HTTP/1.0 404 Not Found\r\n"));
+        assertEquals(-1, response.indexOf("cross-domain-policy"));
+    }
+
+    /**
+     * Each message is sent as an event whose id is the sequence number and
+     * whose data is the message as JSON on a single line.
+     */
+    public void testEvents() throws IOException, InterruptedException {
+        start(null);
+        Socket socket = open("/events?cursor=0", null);
+        try {
+            waitForStreams(1);
+            publish(new String[] {"Hello \"world\"\nagain", "Bye"});
+            String stream = read(socket, "id: 2\n");
+            assertTrue(stream.startsWith("HTTP/1.0 200 OK\r\n"));
+            assertTrue(stream.indexOf("Content-Type: text/event-stream; charset=UTF-8\r\n") > 0);
+            String body = stream.substring(stream.indexOf("\r\n\r\n") + 4);
+            assertEquals("id: 1\ndata: {\"id\":\"1\",\"sequenceNumber\":1,\"arrivalDate\":1000,"
+                    + "\"message\":\"Hello \\\"world\\\"\\nagain\"}\n\n"
+                    + "id: 2\n", body);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * A stream resumed with the Last-Event-ID header starts after that
+     * event, whatever the cursor parameter.
+     */
+    public void testResume() throws IOException, InterruptedException {
+        start(null);
+        publish(new String[] {"One", "Two", "Three"});
+        Socket socket = open("/events?cursor=0", "1");
+        try {
+            String stream = read(socket, "\"Three\"}\n\n");
+            assertEquals(-1, stream.indexOf("id: 1\n"));
+            assertTrue(stream.indexOf("id: 2\n") > 0);
+            assertTrue(stream.indexOf("id: 2\n") < stream.indexOf("id: 3\n"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * A stream resumed after an event no longer kept by the hub gets an
+     * overflow event with the cursor it asked for.
+     */
+    public void testResumeTruncated() throws IOException, InterruptedException {
+        start(null);
+        publish(new String[] {"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12"});
+        Socket socket = open("/events", "1");
+        try {
+            read(socket, "event: overflow\ndata: 1\n\n");
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Idle streams receive comments so that proxies keep them open.
+     */
+    public void testKeepAlive() throws IOException, InterruptedException {
+        pushServer = new PushServer(hub, port, 1000, 10, 65536, true, null);
+        pushServer.setKeepAliveInterval(100);
+        pushServer.start();
+        Socket socket = open("/events", null);
+        try {
+            String stream = read(socket, ": keep-alive\n\n");
+            assertEquals(-1, stream.indexOf("id: "));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Streams closed by their clients are released.
+     */
+    public void testDisconnect() throws IOException, InterruptedException {
+        start(null);
+        Socket first = open("/events", null);
+        Socket second = open("/events", null);
+        waitForStreams(2);
+        assertEquals(2, pushServer.getConnections());
+        first.close();
+        waitForStreams(1);
+        assertEquals(1, pushServer.getConnections());
+        second.close();
+        waitForStreams(0);
+        assertEquals(0, pushServer.getConnections());
+        // publishing to no streams still works
+        publish(new String[] {"Nobody"});
+        assertEquals(0, pushServer.getDisconnected());
+    }
+
+    /**
+     * Connections that do not send a complete request in time are closed.
+     */
+    public void testRequestTimeout() throws IOException, InterruptedException {
+        pushServer = new PushServer(hub, port, 1000, 10, 65536, true, null);
+        pushServer.setRequestTimeout(200);
+        pushServer.start();
+        Socket socket = new Socket("localhost", port);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /events HTTP/1.0\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pushServer.getConnections() != 0) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Expected no connections, found " + pushServer.getConnections());
+                }
+                Thread.sleep(10);
+            }
+            assertEquals(0, pushServer.getStreams());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void start(String policyDomain) throws IOException {
+        pushServer = new PushServer(hub, port, 1000, 10, 65536, true, policyDomain);
+        pushServer.start();
+    }
+
+    /**
+     * Commit messages of the default sky and publish them on the hub.
+     */
+    private void publish(String[] texts) {
+        List messages = new ArrayList();
+        for (int i = 0; i < texts.length; i++) {
+            SMSMessage message = new SMSMessage();
+            message.setMessage(texts[i]);
+            message.setArrivalDate(new Date(1000));
+            message.setSky(Sky.DEFAULT);
+            messages.add(message);
+        }
+        sequence.assign(messages).afterCompletion(true);
+        for (int i = 0; i < messages.size(); i++) {
+            SMSMessage message = (SMSMessage)messages.get(i);
+            message.setId(String.valueOf(message.getSequenceNumber()));
+        }
+        hub.add(messages);
+        hub.advance();
+    }
+
+    /**
+     * Open an event stream.
+     * @param lastEventId Value of the Last-Event-ID header, null for none
+     */
+    private Socket open(String target, String lastEventId) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        String request = "GET " + target + " HTTP/1.0\r\n";
+        if (lastEventId != null) {
+            request += "Last-Event-ID: " + lastEventId + "\r\n";
+        }
+        OutputStream out = socket.getOutputStream();
+        out.write((request + "\r\n").getBytes("ISO-8859-1"));
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * Read a stream until it ends with the expected text.
+     */
+    private String read(Socket socket, String expected) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        String text = "";
+        while (!text.endsWith(expected)) {
+            int read = in.read();
+            if (read == -1) {
+                fail("Stream closed after " + text);
+            }
+            stream.write(read);
+            text = new String(stream.toByteArray(), "UTF-8");
+        }
+        return text;
+    }
+
+    /**
+     * Wait until the server has the number of open streams.
+     */
+    private void waitForStreams(int streams) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pushServer.getStreams() != streams) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Expected " + streams + " streams, found " + pushServer.getStreams());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Send a request and read the response until the server closes the
+     * connection.
+     */
+    private String get(String target) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + target + " HTTP/1.0\r\n\r\n").getBytes("ISO-8859-1"));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), "UTF-8");
+        } finally {
+            socket.close();
+        }
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        sequence = new MessageSequence();
+        sequence.initialize(0);
+        hub = new MessageHub(10, sequence);
+        hub.initialize(0);
+        ServerSocket free = new ServerSocket(0);
+        port = free.getLocalPort();
+        free.close();
+    }
+
+    /*
+     * @see TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception {
+        if (pushServer != null) {
+            pushServer.shutdown();
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestPushServer(String name) {
+        super(name);
+    }
+}
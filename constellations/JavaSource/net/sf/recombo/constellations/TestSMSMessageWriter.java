@@ -0,0 +1,134 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.recombo.common.ControllerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the group commit writer.
+ */
+public class TestSMSMessageWriter extends TestCase {
+    private ConstellationController starController;
+    
+    /**
+     * Messages queued before shutdown are written.
+     */
+    public void testShutdownFlush() throws IOException, InterruptedException {
+        SMSMessageWriter writer = new SMSMessageWriter(starController, 3, 1000, 10);
+        writer.start();
+        for (int i = 0; i < 7; i++) {
+            SMSMessage message = new SMSMessage();
+            message.setMessage("Test Writer");
+            message.setArrivalDate(new Date());
+            message.setSender("91450680");
+            assertTrue(writer.add(Collections.singletonList(message), 1000));
+        }
+        writer.shutdown();
+        assertEquals(0, writer.getQueueSize());
+        
+        List list = starController.findSMSMessageByText(Sky.DEFAULT, "Test Writer");
+        assertEquals(7, list.size());
+        for (Iterator i = list.iterator(); i.hasNext();) {
+            starController.deleteSMSMessage((SMSMessage)i.next());
+        }
+    }
+    
+    /**
+     * Messages that cannot be saved are kept in the journal and tried
+     * again until the database is back, without stopping the writer.
+     */
+    public void testFailure() throws IOException, InterruptedException {
+        File segment = File.createTempFile("messages", ".journal");
+        segment.delete();
+        MessageJournal journal = new MessageJournal(segment, 4096);
+        final boolean[] failing = {true};
+        ConstellationController failingController = new ConstellationController() {
+            public void addSMSMessage(SMSMessage message) {
+                if (failing[0]) {
+                    throw new IllegalStateException("Test failure");
+                }
+            }
+            public void addSMSMessages(List messages) {
+                throw new IllegalStateException("Test failure");
+            }
+        };
+        SMSMessageWriter writer = new SMSMessageWriter(failingController, 3, 10, 10);
+        writer.setJournal(journal);
+        writer.start();
+        try {
+            SMSMessage message = new SMSMessage();
+            message.setMessage("Test Writer Failure");
+            message.setArrivalDate(new Date());
+            assertTrue(writer.add(Collections.singletonList(message), 1000));
+            for (int i = 0; i < 100 && !writer.isFailing(); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(writer.isFailing());
+            assertTrue(writer.isRunning());
+            assertEquals(1, journal.getPendingCount());
+            
+            failing[0] = false;
+            for (int i = 0; i < 100 && writer.isFailing(); i++) {
+                Thread.sleep(100);
+            }
+            assertFalse(writer.isFailing());
+            assertEquals(0, journal.getPendingCount());
+            assertTrue(writer.add(Collections.singletonList(message), 1000));
+        } finally {
+            writer.shutdown();
+            journal.close();
+            segment.delete();
+        }
+    }
+    
+    /**
+     * Messages are not accepted while the queue stays full for the timeout.
+     */
+    public void testFull() throws IOException, InterruptedException {
+        ConstellationController idleController = new ConstellationController() {
+            public void addSMSMessage(SMSMessage message) {
+            }
+            public void addSMSMessages(List messages) {
+            }
+        };
+        SMSMessageWriter writer = new SMSMessageWriter(idleController, 10, 5000, 1);
+        writer.start();
+        try {
+            SMSMessage message = new SMSMessage();
+            message.setMessage("Test Writer Full");
+            message.setArrivalDate(new Date());
+            assertTrue(writer.add(Collections.singletonList(message), 100));
+            long start = System.currentTimeMillis();
+            assertFalse(writer.add(Collections.singletonList(message), 100));
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(1, writer.getQueueSize());
+        } finally {
+            writer.shutdown();
+        }
+    }
+    
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        starController = (ConstellationController)ControllerFactory.getController(ConstellationController.class);
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestSMSMessageWriter(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the per sender rate limiter.
+ */
+public class TestSenderRateLimiter extends TestCase {
+
+    /**
+     * A sender may send a burst and then one message per refill period.
+     */
+    public void testBurstAndRefill() {
+        SenderRateLimiter limiter = new SenderRateLimiter(60, 3); // one per second
+        long now = 1000000;
+        
+        assertTrue(limiter.tryAcquire("91450680", now));
+        assertTrue(limiter.tryAcquire("91450680", now));
+        assertTrue(limiter.tryAcquire("91450680", now));
+        assertFalse(limiter.tryAcquire("91450680", now));
+        assertTrue(limiter.tryAcquire("91450681", now));
+        
+        assertFalse(limiter.tryAcquire("91450680", now + 500));
+        assertTrue(limiter.tryAcquire("91450680", now + 1000));
+        assertEquals(2, limiter.getLimited());
+    }
+
+    /**
+     * Idle senders are evicted once their bucket would be full.
+     */
+    public void testEviction() {
+        SenderRateLimiter limiter = new SenderRateLimiter(60, 3);
+        long now = 1000000;
+        
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire("9145" + i, now);
+        }
+        assertEquals(1000, limiter.getSenderCount());
+        for (int i = 0; i < 200; i++) {
+            limiter.tryAcquire("9146" + i, now + 5000);
+        }
+        assertEquals(200, limiter.getSenderCount());
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestSenderRateLimiter(String name) {
+        super(name);
+    }
+}
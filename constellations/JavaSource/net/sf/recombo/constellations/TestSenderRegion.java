@@ -0,0 +1,61 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the area codes derived from phone numbers.
+ */
+public class TestSenderRegion extends TestCase {
+
+    public void testFormats() {
+        assertEquals("81", SenderRegion.getRegion("8199991234"));
+        assertEquals("81", SenderRegion.getRegion("81999912345"));
+        assertEquals("81", SenderRegion.getRegion("+55 (81) 9999-1234"));
+        assertEquals("11", SenderRegion.getRegion("5511999912345"));
+        assertEquals("21", SenderRegion.getRegion("021 9999-1234"));
+        assertEquals("21", SenderRegion.getRegion("0412199991234"));
+        assertEquals("55", SenderRegion.getRegion("5599991234"));
+    }
+
+    public void testUnknown() {
+        assertNull(SenderRegion.getRegion(null));
+        assertNull(SenderRegion.getRegion(""));
+        assertNull(SenderRegion.getRegion("91450680"));
+        assertNull(SenderRegion.getRegion("2099991234"));
+        assertNull(SenderRegion.getRegion("1099991234"));
+    }
+
+    /**
+     * The sender is not exposed to the Flash clients, the region is.
+     */
+    public void testSenderHidden() throws IntrospectionException {
+        PropertyDescriptor[] properties = Introspector.getBeanInfo(SMSMessage.class).getPropertyDescriptors();
+        boolean region = false;
+        for (int i = 0; i < properties.length; i++) {
+            assertFalse("sender".equals(properties[i].getName()));
+            region |= "region".equals(properties[i].getName());
+        }
+        assertTrue(region);
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestSenderRegion(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the configuration of the skies and the grouping of messages.
+ */
+public class TestSky extends TestCase {
+
+    /**
+     * Test configured skies and the validation of requests.
+     */
+    public void testConfigure() {
+        Sky.configure("north, south north");
+        assertEquals(3, Sky.getIds().size());
+        assertEquals(Sky.DEFAULT, Sky.getIds().get(0));
+        assertEquals(Sky.DEFAULT, Sky.check(null));
+        assertEquals(Sky.DEFAULT, Sky.check(""));
+        assertEquals("south", Sky.check("south"));
+        try {
+            Sky.check("east");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            Sky.configure("North");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            Sky.configure("../north");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(3, Sky.getIds().size());
+    }
+
+    /**
+     * Test selecting and grouping messages by sky.
+     */
+    public void testGroup() {
+        List messages = new ArrayList();
+        messages.add(createMessage("1", "north"));
+        messages.add(createMessage("2", Sky.DEFAULT));
+        messages.add(createMessage("3", "north"));
+        List north = Sky.select(messages, "north");
+        assertEquals(2, north.size());
+        assertEquals("3", ((SMSMessage)north.get(1)).getId());
+        Map groups = Sky.group(messages);
+        assertEquals(2, groups.size());
+        assertEquals("north", groups.keySet().iterator().next());
+        assertEquals(1, ((List)groups.get(Sky.DEFAULT)).size());
+    }
+
+    private SMSMessage createMessage(String id, String sky) {
+        SMSMessage message = new SMSMessage();
+        message.setId(id);
+        message.setSky(sky);
+        return message;
+    }
+
+    /*
+     * @see TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception {
+        Sky.configure("");
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestSky(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the in-memory sky snapshot.
+ */
+public class TestSkySnapshot extends TestCase {
+    private long now;
+    private int sequenceNumber;
+
+    /**
+     * Messages added before the snapshot is loaded are merged with the
+     * messages read from the database, in arrival order.
+     */
+    public void testLoad() {
+        SkySnapshot snapshot = new SkySnapshot(10);
+        assertNull(snapshot.findAll());
+        
+        SMSMessage late = createMessage(3);
+        List added = new ArrayList();
+        added.add(late);
+        snapshot.add(added);
+        SMSMessage removed = createMessage(1);
+        snapshot.remove(removed.getId());
+        
+        List recent = new ArrayList();
+        recent.add(createMessage(0));
+        recent.add(removed);
+        recent.add(createMessage(2));
+        recent.add(late);
+        snapshot.load(recent, true);
+        
+        List all = snapshot.findAll();
+        assertEquals(3, all.size());
+        assertEquals(late, all.get(2));
+        assertEquals(2, snapshot.findFromArrivalDate(new Date(now + 2000)).size());
+        assertEquals(3, snapshot.findFromArrivalDate(new Date(now - 1000)).size());
+    }
+
+    /**
+     * The oldest messages are dropped and queries reaching back to them
+     * are not answered.
+     */
+    public void testMaxMessages() {
+        SkySnapshot snapshot = new SkySnapshot(2);
+        snapshot.load(new ArrayList(), true);
+        List added = new ArrayList();
+        for (int i = 0; i < 3; i++) {
+            added.add(createMessage(i));
+        }
+        snapshot.add(added);
+        
+        assertNull(snapshot.findAll());
+        assertNull(snapshot.findFromArrivalDate(new Date(now)));
+        assertEquals(2, snapshot.findFromArrivalDate(new Date(now + 1)).size());
+    }
+    
+    private SMSMessage createMessage(int second) {
+        SMSMessage message = new SMSMessage();
+        message.setId(String.valueOf(++sequenceNumber));
+        message.setSequenceNumber(new Long(sequenceNumber));
+        message.setMessage("Test " + second);
+        message.setArrivalDate(new Date(now + second * 1000L));
+        return message;
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        now = System.currentTimeMillis();
+        sequenceNumber = 0;
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestSkySnapshot(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the star slot table.
+ */
+public class TestStarSlotTable extends TestCase {
+    private int sequenceNumber;
+
+    /**
+     * Messages are assigned star by star, constellation by constellation,
+     * starting over once the sky is full. Messages without text are skipped.
+     */
+    public void testWraparound() {
+        StarSlotTable table = new StarSlotTable(new int[] {1, 2});
+        // three messages assigned before the last two read from the database
+        List recent = new ArrayList();
+        recent.add(createMessage("four"));
+        recent.add(createMessage("five"));
+        table.load(5, recent, sequenceNumber);
+        
+        StarSlotDelta sky = table.findSlots(null);
+        assertTrue(sky.isComplete());
+        assertEquals(2, sky.getSlots().size());
+        assertSlot((StarSlot)sky.getSlots().get(0), 0, 0, "four");
+        assertSlot((StarSlot)sky.getSlots().get(1), 1, 0, "five");
+        assertEquals(1, sky.getLastConstellation());
+        assertEquals(0, sky.getLastStar());
+        
+        List published = new ArrayList();
+        published.add(createMessage("six"));
+        published.add(createMessage(""));
+        published.add(createMessage("seven"));
+        table.messagesPublished(published, sequenceNumber);
+        
+        StarSlotDelta delta = table.findSlots(sky.getCursor());
+        assertFalse(delta.isComplete());
+        assertEquals(2, delta.getSlots().size());
+        assertSlot((StarSlot)delta.getSlots().get(0), 1, 1, "six");
+        assertSlot((StarSlot)delta.getSlots().get(1), 0, 0, "seven");
+        assertEquals(0, delta.getLastConstellation());
+        assertEquals(0, delta.getLastStar());
+        assertTrue(table.findSlots(delta.getCursor()).getSlots().isEmpty());
+    }
+
+    /**
+     * Messages published before the table is loaded are assigned once it
+     * is, and deleted messages darken their stars.
+     */
+    public void testPublishedBeforeLoad() {
+        StarSlotTable table = new StarSlotTable(new int[] {3});
+        List recent = new ArrayList();
+        SMSMessage deleted = createMessage("one");
+        recent.add(deleted);
+        long last = sequenceNumber;
+        List published = new ArrayList();
+        published.add(createMessage("two"));
+        table.messagesPublished(published, sequenceNumber);
+        assertNull(table.findSlots(null));
+        
+        table.load(1, recent, last);
+        StarSlotDelta sky = table.findSlots(null);
+        assertEquals(2, sky.getSlots().size());
+        assertSlot((StarSlot)sky.getSlots().get(1), 0, 1, "two");
+        
+        table.remove(deleted.getId());
+        StarSlotDelta delta = table.findSlots(sky.getCursor());
+        assertEquals(1, delta.getSlots().size());
+        assertSlot((StarSlot)delta.getSlots().get(0), 0, 0, null);
+        assertEquals(1, table.findSlots(null).getSlots().size());
+        
+        // a cursor from another table gets the whole sky
+        assertTrue(table.findSlots("x:1").isComplete());
+    }
+    
+    private void assertSlot(StarSlot slot, int constellation, int star, String message) {
+        assertEquals(constellation, slot.getConstellation());
+        assertEquals(star, slot.getStar());
+        if (message == null) {
+            assertNull(slot.getMessage());
+        } else {
+            assertEquals(message.length(), slot.getMessage().getLength());
+        }
+    }
+    
+    private SMSMessage createMessage(String text) {
+        SMSMessage message = new SMSMessage();
+        message.setId(String.valueOf(++sequenceNumber));
+        message.setSequenceNumber(new Long(sequenceNumber));
+        message.setMessage(text);
+        return message;
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        sequenceNumber = 0;
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestStarSlotTable(String name) {
+        super(name);
+    }
+}
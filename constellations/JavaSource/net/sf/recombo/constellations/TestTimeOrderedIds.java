@@ -0,0 +1,122 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.recombo.common.ControllerFactory;
+import net.sf.recombo.common.persistence.HibernateUtil;
+import net.sf.recombo.common.persistence.PersistentObjectNotFoundException;
+import net.sf.recombo.common.persistence.TimeOrderedIdGenerator;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the time-ordered ids of the SMSMessages and the migration of the
+ * uuid.hex ids.
+ */
+public class TestTimeOrderedIds extends TestCase {
+    private ConstellationController starController;
+
+    /**
+     * Test the layout and order of the ids.
+     */
+    public void testIds() {
+        long previous = TimeOrderedIdGenerator.nextId();
+        for (int i = 0; i < 10000; i++) {
+            long id = TimeOrderedIdGenerator.nextId();
+            assertTrue(id > previous);
+            assertTrue(TimeOrderedIdGenerator.format(id).compareTo(TimeOrderedIdGenerator.format(previous)) > 0);
+            previous = id;
+        }
+        assertTrue(Math.abs(TimeOrderedIdGenerator.getTime(previous) - System.currentTimeMillis()) < 60000);
+
+        long time = TimeOrderedIdGenerator.EPOCH + 1000;
+        long id = TimeOrderedIdGenerator.toId(time, 5, 4095);
+        assertEquals(time, TimeOrderedIdGenerator.getTime(id));
+        assertEquals(TimeOrderedIdGenerator.toId(time, 5, 0) + 4095, id);
+        assertEquals(TimeOrderedIdGenerator.toId(time + 1, 5, 0), TimeOrderedIdGenerator.successor(id));
+        assertTrue(TimeOrderedIdGenerator.toId(time + 1, 0, 0) > TimeOrderedIdGenerator.toId(time, TimeOrderedIdGenerator.MAX_NODE, 4095));
+
+        String formatted = TimeOrderedIdGenerator.format(id);
+        assertEquals(TimeOrderedIdGenerator.LENGTH, formatted.length());
+        assertEquals(id, TimeOrderedIdGenerator.parse(formatted));
+        try {
+            TimeOrderedIdGenerator.setNode(TimeOrderedIdGenerator.MAX_NODE + 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Test that saved messages get time-ordered ids and that messages
+     * saved with uuid.hex ids are migrated in arrival order.
+     */
+    public void testMigration() throws PersistentObjectNotFoundException {
+        SMSMessage message = new SMSMessage();
+        message.setMessage("Test Id");
+        message.setArrivalDate(new Date());
+        starController.addSMSMessage(message);
+        assertEquals(TimeOrderedIdGenerator.LENGTH, message.getId().length());
+        starController.deleteSMSMessage(message);
+
+        Date date = new Date(System.currentTimeMillis() - 60000);
+        HibernateUtil hibernateUtil = HibernateUtil.getInstance();
+        hibernateUtil.beginTransaction();
+        for (int i = 0; i < 3; i++) {
+            SMSMessage old = new SMSMessage();
+            old.setMessage("Test Old Id " + i);
+            old.setArrivalDate(date);
+            old.setSky("test-ids");
+            old.setSequenceNumber(new Long(-1 - i));
+            hibernateUtil.save(old, "ffffffffffffffffffffffffffff000" + (3 - i));
+        }
+        hibernateUtil.commitTransaction();
+        hibernateUtil.closeSession();
+
+        while (starController.migrateSMSMessageIds(2) > 0) {
+            hibernateUtil.closeSession();
+        }
+        List messages = starController.findSMSMessagePage("test-ids", null, null, 10);
+        assertEquals(3, messages.size());
+        String previous = "";
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            SMSMessage migrated = (SMSMessage)i.next();
+            assertEquals(TimeOrderedIdGenerator.LENGTH, migrated.getId().length());
+            assertTrue(migrated.getId().compareTo(previous) > 0);
+            assertEquals(date.getTime(), TimeOrderedIdGenerator.getTime(TimeOrderedIdGenerator.parse(migrated.getId())), 10);
+            previous = migrated.getId();
+        }
+        // Old ids were ordered from the last message to the first
+        assertEquals("Test Old Id 2", ((SMSMessage)messages.get(0)).getMessage());
+        assertEquals(new Long(-3), starController.findSMSMessage(((SMSMessage)messages.get(0)).getId()).getSequenceNumber());
+
+        for (Iterator i = messages.iterator(); i.hasNext();) {
+            starController.deleteSMSMessage((SMSMessage)i.next());
+        }
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        starController = (ConstellationController)ControllerFactory.getController(ConstellationController.class);
+    }
+
+    /*
+     * @see TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception {
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestTimeOrderedIds(String name) {
+        super(name);
+    }
+}
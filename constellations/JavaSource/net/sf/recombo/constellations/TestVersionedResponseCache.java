@@ -0,0 +1,72 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the versioned response cache.
+ */
+public class TestVersionedResponseCache extends TestCase {
+    private int loads;
+
+    /**
+     * Concurrent requests for the same version share one computation.
+     */
+    public void testSingleFlight() throws InterruptedException {
+        final VersionedResponseCache cache = new VersionedResponseCache();
+        final VersionedResponseCache.Loader loader = new VersionedResponseCache.Loader() {
+            public Object load() {
+                synchronized (TestVersionedResponseCache.this) {
+                    loads++;
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "sky";
+            }
+        };
+        final Object[] responses = new Object[10];
+        Thread[] threads = new Thread[responses.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    responses[n] = cache.get(1, loader);
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals("sky", responses[i]);
+        }
+        assertEquals(1, loads);
+        assertEquals(1, cache.getMisses());
+        assertEquals(responses.length - 1, cache.getHits());
+        
+        // an older version is answered from the cache, a newer one is computed
+        cache.get(0, loader);
+        assertEquals(1, loads);
+        cache.get(2, loader);
+        assertEquals(2, loads);
+    }
+
+    /*
+     * @see TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        loads = 0;
+    }
+
+    /**
+     * Constructor.
+     * @param name
+     */
+    public TestVersionedResponseCache(String name) {
+        super(name);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Created on 18/10/2026
+ */
+package net.sf.recombo.constellations;
+
+/**
+ * Keeps the response computed for the latest version of some data, so
+ * that callers presenting the same version share it. Callers asking for
+ * a version that is not cached while another caller is computing it wait
+ * for that computation instead of starting their own.
+ */
+public class VersionedResponseCache {
+    /**
+     * Computes a response.
+     */
+    public interface Loader {
+        /**
+         * Compute the response for the current version of the data.
+         * @return Response, never null
+         */
+        public Object load();
+    }
+
+    private Object response;
+    private long responseVersion = -1;
+    private boolean loading = false;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Recover the response for a version, computing it if it is not cached.
+     * A response computed for a later version is also returned.
+     * @param version Version of the data, read before the response is computed
+     * @param loader Computes the response
+     * @return Response
+     */
+    public Object get(long version, Loader loader) {
+        synchronized (this) {
+            while (true) {
+                if (response != null && responseVersion >= version) {
+                    hits++;
+                    return response;
+                }
+                if (!loading) {
+                    loading = true;
+                    misses++;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return loader.load();
+                }
+            }
+        }
+        Object result = null;
+        try {
+            result = loader.load();
+        } finally {
+            synchronized (this) {
+                loading = false;
+                if (result != null && version >= responseVersion) {
+                    response = result;
+                    responseVersion = version;
+                }
+                notifyAll();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of requests answered with a cached response.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of responses computed.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}